@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.benchmark;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.KnitParser;
+import com.lehman.knit.test.CorpusGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks KnitParser on small, medium and huge modules, and the comment,
+ * annotation and mapping table sub-parsers through inputs that only
+ * exercise one of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    /**
+     * The module size.
+     */
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    /**
+     * Whether the generated input is adversarial.
+     */
+    @Param({ "false", "true" })
+    public boolean adversarial;
+
+    private KnitParser parser;
+    private File dir;
+    private String fileName;
+    private String module;
+    private String comment;
+    private String annotations;
+    private String table;
+
+    @Setup
+    public void setup() throws IOException {
+        this.parser = new KnitParser(true);
+
+        CorpusGenerator gen = new CorpusGenerator().setSeed(1).setAdversarial(this.adversarial);
+        int scale;
+        if ("small".equals(this.size)) {
+            this.module = gen.setFunctions(3).setVariables(2).setCommentLines(3).setTableRows(5).module(1);
+            scale = 10;
+        } else if ("medium".equals(this.size)) {
+            this.module = gen.setFunctions(100).setVariables(50).setCommentLines(5).setTableRows(200).module(1);
+            scale = 1000;
+        } else {
+            this.module = gen.setFunctions(5000).setVariables(1000).setCommentLines(10).setTableRows(20000).module(1);
+            scale = 100000;
+        }
+
+        // Focused inputs for the sub-parsers.
+        this.comment = gen.setFunctions(0).setVariables(0).setCommentLines(scale).setTableRows(0).module(1);
+        this.annotations = gen.setFunctions(scale / 10).setCommentLines(1).setFunctionTableDensity(0).module(1);
+        this.table = gen.setFunctions(0).setTableRows(scale).module(1);
+
+        this.dir = Files.createTempDirectory("knit-bench").toFile();
+        this.fileName = this.dir.getPath() + "/bench.dwl";
+        Files.write(new File(this.fileName).toPath(), this.module.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() {
+        new File(this.fileName).delete();
+        this.dir.delete();
+    }
+
+    @Benchmark
+    public DataWeaveFile parseFile() throws IOException {
+        return this.parser.parseFile(this.dir.getPath(), this.fileName, "dwl");
+    }
+
+    @Benchmark
+    public DataWeaveFile parseText() {
+        DataWeaveFile ret = new DataWeaveFile("bench.dwl", "dwl");
+        this.parser.parseText(this.module, ret);
+        return ret;
+    }
+
+    @Benchmark
+    public DataWeaveFile parseComment() {
+        DataWeaveFile ret = new DataWeaveFile("bench.dwl", "dwl");
+        this.parser.parseText(this.comment, ret);
+        return ret;
+    }
+
+    @Benchmark
+    public DataWeaveFile parseAnnotations() {
+        DataWeaveFile ret = new DataWeaveFile("bench.dwl", "dwl");
+        this.parser.parseText(this.annotations, ret);
+        return ret;
+    }
+
+    @Benchmark
+    public DataWeaveFile parseTable() {
+        DataWeaveFile ret = new DataWeaveFile("bench.dwl", "dwl");
+        this.parser.parseText(this.table, ret);
+        return ret;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.benchmark;
+
+import com.lehman.knit.TextNormalizer;
+import com.lehman.knit.Utility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks Utility.stripNewLines and the TextNormalizer comment and
+ * table cell paths on short and long text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilityBenchmark {
+    /**
+     * The number of comment lines.
+     */
+    @Param({ "1", "10", "1000" })
+    public int lines;
+
+    private String text;
+    private String comment;
+    private String row;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.lines; i++) {
+            sb.append("Line ").append(i).append(" of a   comment\twith  some   spacing.").append(System.lineSeparator());
+        }
+        this.text = sb.toString();
+
+        StringBuilder cb = new StringBuilder();
+        StringBuilder rb = new StringBuilder();
+        for (int i = 0; i < this.lines; i++) {
+            cb.append("   * Line ").append(i).append(" of a doc comment.").append(System.lineSeparator());
+            rb.append(i > 0 ? "," : "").append("cell ").append(i).append(i % 3 == 0 ? " with \\\\, comma" : "");
+        }
+        this.comment = cb.toString();
+        this.row = rb.toString();
+    }
+
+    @Benchmark
+    public String stripNewLines() {
+        return Utility.stripNewLines(this.text);
+    }
+
+    @Benchmark
+    public String destar() {
+        return TextNormalizer.destar(this.comment);
+    }
+
+    @Benchmark
+    public List<String> splitCells() {
+        return TextNormalizer.splitCells(this.row, true, false);
+    }
+}
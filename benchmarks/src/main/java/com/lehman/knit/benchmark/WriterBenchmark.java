@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.benchmark;
+
+import com.lehman.knit.DataWeaveDocWriter;
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.KnitParser;
+import com.lehman.knit.MarkdownDataWeaveDocWriterImpl;
+import com.lehman.knit.TemplateDataWeaveDocWriterImpl;
+import com.lehman.knit.test.CorpusGenerator;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks MarkdownDataWeaveDocWriterImpl.writeDoc and writeHeaderTable
+ * on a set of parsed modules, and TemplateDataWeaveDocWriterImpl with the
+ * default templates, which writes the same document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+    /**
+     * The number of modules to write.
+     */
+    @Param({ "10", "200" })
+    public int modules;
+
+    /**
+     * The writer to benchmark, markdown or template.
+     */
+    @Param({ "markdown", "template" })
+    public String writerType;
+
+    private List<DataWeaveFile> files;
+    private DataWeaveDocWriter writer;
+    private StringBuilder out;
+
+    @Setup
+    public void setup() throws IOException {
+        KnitParser parser = new KnitParser();
+        CorpusGenerator gen = new CorpusGenerator().setSeed(1).setDepth(2).setFunctions(20).setVariables(5).setTableRows(20);
+        this.files = new ArrayList<DataWeaveFile>();
+        for (int i = 0; i < this.modules; i++) {
+            DataWeaveFile file = new DataWeaveFile(gen.getModulePath(i), "dwl");
+            parser.parseText(gen.module(i), file);
+            this.files.add(file);
+        }
+        if ("template".equals(this.writerType)) {
+            this.writer = new TemplateDataWeaveDocWriterImpl(TemplateDataWeaveDocWriterImpl.Templates.getDefaults(), false, new SystemStreamLog());
+        } else {
+            this.writer = new MarkdownDataWeaveDocWriterImpl();
+        }
+        this.out = new StringBuilder();
+    }
+
+    @Benchmark
+    public String writeDoc() {
+        return this.writer.writeDoc(this.files);
+    }
+
+    @Benchmark
+    public int writeDocStreaming() throws IOException {
+        this.out.setLength(0);
+        this.writer.writeDoc(this.files, Collections.<String>emptyList(), this.out);
+        return this.out.length();
+    }
+
+    @Benchmark
+    public String writeHeaderTable() {
+        return this.writer.writeHeaderTable(this.files);
+    }
+}
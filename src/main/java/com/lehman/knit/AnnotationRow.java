@@ -17,13 +17,16 @@
 
 package com.lehman.knit;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Class that models a DW comment annotation table row.
  */
-public class AnnotationRow {
+public class AnnotationRow implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * A list of strings with the fields of a row.
      */
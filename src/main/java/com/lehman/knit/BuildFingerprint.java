@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fingerprint of the inputs of a knit run. The fingerprint is a hash over
+ * the plugin version, the configuration and the path, size and modified
+ * time of each input file. If it matches the fingerprint saved by the
+ * last successful run, the outputs are up to date.
+ */
+public class BuildFingerprint {
+    /**
+     * The fingerprint file.
+     */
+    private final File file;
+
+    /**
+     * The digest the fingerprint is built in.
+     */
+    private final MessageDigest md;
+
+    /**
+     * The fingerprint saved by the last successful run or null if none.
+     */
+    private final String previous;
+
+    /**
+     * The finished fingerprint or null if still being built.
+     */
+    private String value = null;
+
+    /**
+     * Constructor with the fingerprint file. The saved fingerprint is loaded if it exists.
+     * @param File is a File with the fingerprint file.
+     * @throws IOException on IO exception.
+     */
+    public BuildFingerprint(File File) throws IOException {
+        this.file = File;
+        try {
+            this.md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.previous = File.isFile() ? new String(Files.readAllBytes(File.toPath()), StandardCharsets.UTF_8).trim() : null;
+    }
+
+    /**
+     * Adds a configuration value to the fingerprint.
+     * @param key is a String with the configuration key.
+     * @param val is a String with the value or null.
+     */
+    public void add(String key, String val) {
+        this.update(key);
+        this.update(val == null ? "\u0001null" : val);
+    }
+
+    /**
+     * Adds a list configuration value to the fingerprint.
+     * @param key is a String with the configuration key.
+     * @param vals is an array of Strings with the values or null.
+     */
+    public void add(String key, String[] vals) {
+        this.add(key, vals == null ? null : String.valueOf(vals.length));
+        if (vals != null) {
+            for (String val : vals) {
+                this.update(val);
+            }
+        }
+    }
+
+    /**
+     * Adds an input file to the fingerprint by path, size and modified time.
+     * @param fileName is a String with the input file name.
+     */
+    public void addFile(String fileName) {
+        File f = new File(fileName);
+        this.update(f.getAbsolutePath());
+        this.update(f.length() + ":" + f.lastModified());
+    }
+
+    /**
+     * Gets the fingerprint. No more values can be added after this is called.
+     * @return A String with the hex fingerprint.
+     */
+    public String getValue() {
+        if (this.value == null) {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : this.md.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            this.value = sb.toString();
+        }
+        return this.value;
+    }
+
+    /**
+     * Returns true if the fingerprint matches the one saved by the last successful run.
+     * @return A boolean with true if unchanged and false if not.
+     */
+    public boolean isUnchanged() {
+        return this.getValue().equals(this.previous);
+    }
+
+    /**
+     * Deletes the saved fingerprint. This is done before outputs are written
+     * so an interrupted or failed run is never taken as up to date.
+     * @throws IOException on IO exception.
+     */
+    public void invalidate() throws IOException {
+        Files.deleteIfExists(this.file.toPath());
+    }
+
+    /**
+     * Saves the fingerprint. Call this after the outputs have been written.
+     * @throws IOException on IO exception.
+     */
+    public void save() throws IOException {
+        File parent = this.file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory '" + parent + "'.");
+        }
+        File tmp = new File(this.file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), (this.getValue() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Adds a length prefixed string to the digest so values can't run together.
+     */
+    private void update(String str) {
+        byte[] data = str.getBytes(StandardCharsets.UTF_8);
+        this.md.update((byte) (data.length >>> 24));
+        this.md.update((byte) (data.length >>> 16));
+        this.md.update((byte) (data.length >>> 8));
+        this.md.update((byte) data.length);
+        this.md.update(data);
+    }
+}
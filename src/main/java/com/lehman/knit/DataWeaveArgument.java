@@ -17,10 +17,14 @@
 
 package com.lehman.knit;
 
+import java.io.Serializable;
+
 /**
  * Class models a function argument.
  */
-public class DataWeaveArgument {
+public class DataWeaveArgument implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * The argument name.
      */
@@ -17,17 +17,30 @@
 
 package com.lehman.knit;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * Class models a comment.
  */
-public class DataWeaveComment {
+public class DataWeaveComment implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * The text of the comment.
      */
     private String text = "";
 
+    /**
+     * The comment string the text is a prefix of in compact mode or null.
+     */
+    private String source = null;
+
+    /**
+     * The end of the text in the comment string in compact mode.
+     */
+    private int textEnd = 0;
+
     /**
      * A list of dwCommentAnnotation objects that are the annotations.
      */
@@ -38,6 +51,9 @@ public class DataWeaveComment {
      * @return A String with the comment text.
      */
     public String getText() {
+        if (this.source != null) {
+            return this.source.substring(0, this.textEnd);
+        }
         return text;
     }
 
@@ -47,6 +63,19 @@ public class DataWeaveComment {
      */
     public void setText(String text) {
         this.text = text;
+        this.source = null;
+    }
+
+    /**
+     * Sets the comment text as the start of the provided comment string
+     * instead of a copy. The text is cut out of it when requested.
+     * @param Source is a String with the comment string.
+     * @param TextEnd is an int with the end of the text in the comment string.
+     */
+    void setText(String Source, int TextEnd) {
+        this.text = null;
+        this.source = Source;
+        this.textEnd = TextEnd;
     }
 
     /**
@@ -17,14 +17,32 @@
 
 package com.lehman.knit;
 
+import java.io.Serializable;
+
 /**
  * Class models a comment annotation.
  */
-public class DataWeaveCommentAnnotation {
+public class DataWeaveCommentAnnotation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String name = "";
     private String key = "";
     private String value = "";
 
+    /**
+     * The source offsets of the annotation text or -1 if unknown.
+     */
+    private int start = -1;
+    private int end = -1;
+
+    /**
+     * The comment string the value is cut out of in compact mode or null.
+     */
+    private String source = null;
+    private int valueStart = 0;
+    private int valueEnd = 0;
+    private boolean valueNewLine = false;
+
     /**
      * Gets the annotation name.
      * @return A String with the annotation name.
@@ -62,6 +80,10 @@ public class DataWeaveCommentAnnotation {
      * @return A String with the annotation value.
      */
     public String getValue() {
+        if (this.source != null) {
+            String ret = this.source.substring(this.valueStart, this.valueEnd);
+            return this.valueNewLine ? ret + System.lineSeparator() : ret;
+        }
         return value;
     }
 
@@ -71,5 +93,49 @@ public class DataWeaveCommentAnnotation {
      */
     public void setValue(String value) {
         this.value = value;
+        this.source = null;
+    }
+
+    /**
+     * Sets the annotation value as a range of the provided comment string
+     * instead of a copy. The value is cut out of it when requested.
+     * @param Source is a String with the comment string.
+     * @param Start is an int with the start of the value.
+     * @param End is an int with the end of the value.
+     * @param NewLine is a boolean with true if a line separator follows the value.
+     */
+    void setValue(String Source, int Start, int End, boolean NewLine) {
+        this.value = null;
+        this.source = Source;
+        this.valueStart = Start;
+        this.valueEnd = End;
+        this.valueNewLine = NewLine;
+    }
+
+    /**
+     * Gets the source offset the annotation starts at. Use the LineIndex of the
+     * module to get the line and column.
+     * @return An int with the start offset or -1 if unknown.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the source offset (exclusive) the annotation ends at.
+     * @return An int with the end offset or -1 if unknown.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Sets the source offsets of the annotation.
+     * @param start is an int with the start offset.
+     * @param end is an int with the end offset (exclusive).
+     */
+    public void setPosition(int start, int end) {
+        this.start = start;
+        this.end = end;
     }
 }
@@ -17,6 +17,7 @@
 
 package com.lehman.knit;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -63,4 +64,69 @@ public interface DataWeaveDocWriter {
      * @return A String with the header table text.
      */
     public String writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList);
+
+    /**
+     * Gets the file name of the document of the provided module relative to the
+     * output directory when each module is written to its own file. The default
+     * is the module path with the .md extension. (dw/color/palette.md)
+     * @param file is the dwFile object.
+     * @return A String with the relative file name.
+     */
+    public default String getFileName(DataWeaveFile file) {
+        return ModuleOutputWriter.getRelativeFileName(file);
+    }
+
+    /**
+     * Streams a doc with the provided dwFile object to the provided output. The
+     * default implementation appends the result of writeDoc(file); implementations
+     * should override it to avoid building the document in memory.
+     * @param file is a dwFile object to write.
+     * @param out is the Appendable to write the document text to.
+     * @throws IOException on output failure.
+     */
+    public default void writeDoc(DataWeaveFile file, Appendable out) throws IOException {
+        out.append(this.writeDoc(file));
+    }
+
+    /**
+     * Streams the doc of a single module as part of a document with several
+     * modules. The symbol table of the document provides anchors and names,
+     * and may be built from module summaries. The default implementation
+     * streams writeDoc(file).
+     * @param symbols is the SymbolTable of the document.
+     * @param file is a dwFile object to write.
+     * @param out is the Appendable to write the document text to.
+     * @throws IOException on output failure.
+     */
+    public default void writeModuleDoc(SymbolTable symbols, DataWeaveFile file, Appendable out) throws IOException {
+        this.writeDoc(file, out);
+    }
+
+    /**
+     * Streams a doc with the provided dwFile list and moduleNameList to the
+     * provided output. The default implementation appends the result of
+     * writeDoc(files, moduleNameList).
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules.
+     * @param out is the Appendable to write the document text to.
+     * @throws IOException on output failure.
+     */
+    public default void writeDoc(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        out.append(this.writeDoc(files, moduleNameList));
+    }
+
+    /**
+     * Streams a header table with the provided dwFile list to the provided
+     * output. The default implementation appends the result of
+     * writeHeaderTable(files, moduleNameList).
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules.
+     * @param out is the Appendable to write the header table text to.
+     * @throws IOException on output failure.
+     */
+    public default void writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        out.append(this.writeHeaderTable(files, moduleNameList));
+    }
 }
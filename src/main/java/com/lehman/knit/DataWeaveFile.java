@@ -18,13 +18,16 @@
 package com.lehman.knit;
 
 import java.io.File;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
 
 /**
  * Class models a dataweave file.
  */
-public class DataWeaveFile {
+public class DataWeaveFile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * The DW file name. (myModule)
      */
@@ -70,6 +73,16 @@ public class DataWeaveFile {
      */
     public ArrayList<DataWeaveTable> tables = new ArrayList<DataWeaveTable>();
 
+    /**
+     * The qualified names of the imported modules in import order. { "dw::core::Strings" }
+     */
+    private ArrayList<String> imports = new ArrayList<String>();
+
+    /**
+     * The line index of the source or null if unknown.
+     */
+    private LineIndex lineIndex = null;
+
     /**
      * Default constructor.
      */
@@ -157,6 +170,15 @@ public class DataWeaveFile {
         this.modulePath = modulePath;
     }
 
+    /**
+     * Gets the fully qualified module name, the module path joined
+     * with ::. (dw::test::myModule)
+     * @return A String with the qualified module name.
+     */
+    public String getQualifiedName() {
+        return Utility.join("::", this.modulePath);
+    }
+
     /**
      * Gets the module/file comment string.
      * @return A String with the module comment string.
@@ -237,6 +259,57 @@ public class DataWeaveFile {
         this.tables = tables;
     }
 
+    /**
+     * Gets the qualified names of the modules this module imports.
+     * @return An ArrayList of Strings with the imported module names.
+     */
+    public ArrayList<String> getImports() {
+        return imports;
+    }
+
+    /**
+     * Sets the qualified names of the modules this module imports.
+     * @param imports is an ArrayList of Strings with the imported module names.
+     */
+    public void setImports(ArrayList<String> imports) {
+        this.imports = imports;
+    }
+
+    /**
+     * Gets the line index of the source, which maps the source offsets of
+     * functions, variables, tables and annotations to line and column.
+     * @return A LineIndex object or null if unknown.
+     */
+    public LineIndex getLineIndex() {
+        return lineIndex;
+    }
+
+    /**
+     * Sets the line index of the source.
+     * @param lineIndex is the LineIndex object to set.
+     */
+    public void setLineIndex(LineIndex lineIndex) {
+        this.lineIndex = lineIndex;
+    }
+
+    /**
+     * Gets a copy of this module with only the file names, module path,
+     * module comment and imports. This is all a header table, directory
+     * page or module graph needs.
+     * @return A dwFile object with the summary.
+     */
+    public DataWeaveFile getSummary() {
+        DataWeaveFile ret = new DataWeaveFile();
+        ret.name = this.name;
+        ret.fileName = this.fileName;
+        ret.fileNameAndPath = this.fileNameAndPath;
+        ret.modulePath = this.modulePath;
+        ret.commentString = this.commentString;
+        ret.comment = this.comment;
+        ret.imports = this.imports;
+        return ret;
+    }
+
     /**
      * Helper toString function.
      * @return A String with the object representation.
@@ -17,12 +17,15 @@
 
 package com.lehman.knit;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * Class models a dataweave function.
  */
-public class DataWeaveFunction {
+public class DataWeaveFunction implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * The comment string.
      */
@@ -48,6 +51,12 @@ public class DataWeaveFunction {
      */
     private AnnotationTable table = null;
 
+    /**
+     * The source offsets of the fun declaration or -1 if unknown.
+     */
+    private int start = -1;
+    private int end = -1;
+
     /**
      * Gets the comment string of the function.
      * @return A String with the comment of the function.
@@ -127,4 +136,31 @@ public class DataWeaveFunction {
     public void setTable(AnnotationTable table) {
         this.table = table;
     }
+
+    /**
+     * Gets the source offset the function starts at. Use the LineIndex of the
+     * module to get the line and column.
+     * @return An int with the start offset or -1 if unknown.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the source offset (exclusive) the function ends at.
+     * @return An int with the end offset or -1 if unknown.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Sets the source offsets of the function.
+     * @param start is an int with the start offset.
+     * @param end is an int with the end offset (exclusive).
+     */
+    public void setPosition(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
 }
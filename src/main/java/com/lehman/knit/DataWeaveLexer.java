@@ -0,0 +1,471 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+/**
+ * Single pass DataWeave tokenizer. The lexer walks the source text once
+ * and emits only the tokens the doc parser cares about: doc comments, the
+ * %dw header, imports, top level var and fun declarations and the body
+ * separator. Everything else (code, strings, regular expressions, regular
+ * comments) is skipped but still tracked so that keywords inside strings,
+ * comments or nested blocks aren't mistaken for declarations.
+ */
+public class DataWeaveLexer {
+    /**
+     * The keywords a regular expression literal can follow. After any other
+     * identifier or a number a slash is a division.
+     */
+    private static final String[] REGEX_KEYWORDS = { "replace", "match", "matches", "scan", "splitBy", "find",
+            "contains", "and", "or", "not", "if", "else", "case", "default", "unless", "otherwise" };
+
+    /**
+     * The types of tokens emitted by the lexer.
+     */
+    public enum TokenType {
+        /** A doc comment block. */
+        DOC_COMMENT,
+        /** The %dw version header. */
+        HEADER,
+        /** An import statement. */
+        IMPORT,
+        /** A top level var declaration. */
+        VAR,
+        /** A top level fun declaration. */
+        FUN,
+        /** The header/body separator. (---) */
+        BODY_SEPARATOR
+    }
+
+    /**
+     * Class models a single lexer token.
+     */
+    public static class Token {
+        private final TokenType type;
+        private final int start;
+        private final int end;
+        private final String text;
+        private final String name;
+        private final boolean adjacent;
+
+        /**
+         * Constructor with all token values.
+         * @param Type is the TokenType of the token.
+         * @param Start is an int with the start offset in the source.
+         * @param End is an int with the end offset (exclusive) in the source.
+         * @param Text is a String with the token text. For doc comments this is the
+         * comment body, for fun tokens the argument list and for header and import
+         * tokens the rest of the statement.
+         * @param Name is a String with the declared name for var and fun tokens.
+         * @param Adjacent is a boolean with true if only whitespace separates this
+         * token from the previous one.
+         */
+        public Token(TokenType Type, int Start, int End, String Text, String Name, boolean Adjacent) {
+            this.type = Type;
+            this.start = Start;
+            this.end = End;
+            this.text = Text;
+            this.name = Name;
+            this.adjacent = Adjacent;
+        }
+
+        /**
+         * Gets the token type.
+         * @return A TokenType with the token type.
+         */
+        public TokenType getType() {
+            return type;
+        }
+
+        /**
+         * Gets the start offset of the token in the source.
+         * @return An int with the start offset.
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the end offset (exclusive) of the token in the source.
+         * @return An int with the end offset.
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Gets the token text.
+         * @return A String with the token text.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Gets the declared name for var and fun tokens.
+         * @return A String with the name or an empty String.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns true if only whitespace separates this token from
+         * the previous token.
+         * @return A boolean with true if adjacent and false if not.
+         */
+        public boolean isAdjacent() {
+            return adjacent;
+        }
+    }
+
+    /**
+     * The source text.
+     */
+    private final CharSequence src;
+
+    /**
+     * The source length.
+     */
+    private final int len;
+
+    /**
+     * The current position in the source.
+     */
+    private int pos = 0;
+
+    /**
+     * The current bracket nesting depth.
+     */
+    private int depth = 0;
+
+    /**
+     * Set once the body separator has been seen.
+     */
+    private boolean inBody = false;
+
+    /**
+     * True while only whitespace has been seen since the last token.
+     */
+    private boolean clean = false;
+
+    /**
+     * Constructor with the source text to tokenize.
+     * @param Source is a CharSequence with the DataWeave source.
+     */
+    public DataWeaveLexer(CharSequence Source) {
+        this.src = Source;
+        this.len = Source.length();
+    }
+
+    /**
+     * Returns the next token in the source or null once the end of the
+     * source has been reached.
+     * @return A Token object or null.
+     */
+    public Token next() {
+        while (this.pos < this.len) {
+            char c = this.src.charAt(this.pos);
+
+            if (Character.isWhitespace(c)) {
+                this.pos++;
+                continue;
+            }
+
+            if (c == '/' && this.peek(1) == '*') {
+                if (this.peek(2) == '*' && this.peek(3) != '/') {
+                    return this.docComment();
+                }
+                this.pos = this.skipTo("*/", this.pos + 2);
+                this.clean = false;
+                continue;
+            }
+
+            if (c == '/' && this.peek(1) == '/') {
+                this.pos = this.skipLine(this.pos);
+                this.clean = false;
+                continue;
+            }
+
+            if (c == '/' && this.isRegexStart(this.pos)) {
+                this.pos = this.skipRegex(this.pos);
+                this.clean = false;
+                continue;
+            }
+
+            if (c == '"' || c == '\'' || c == '`') {
+                this.pos = this.skipString(this.pos);
+                this.clean = false;
+                continue;
+            }
+
+            if (c == '{' || c == '(' || c == '[') {
+                this.depth++;
+                this.pos++;
+                this.clean = false;
+                continue;
+            }
+
+            if (c == '}' || c == ')' || c == ']') {
+                if (this.depth > 0) this.depth--;
+                this.pos++;
+                this.clean = false;
+                continue;
+            }
+
+            if (!this.inBody && this.depth == 0) {
+                if (c == '-' && this.startsWith("---", this.pos)) {
+                    this.inBody = true;
+                    return this.token(TokenType.BODY_SEPARATOR, this.pos, this.pos + 3, "---", "");
+                }
+
+                if (c == '%' && this.startsWith("%dw", this.pos)) {
+                    int start = this.pos;
+                    int eol = this.skipLine(start);
+                    return this.token(TokenType.HEADER, start, eol, this.src.subSequence(start + 3, eol).toString().trim(), "");
+                }
+
+                if (isIdentChar(c)) {
+                    Token tok = this.keyword();
+                    if (tok != null) {
+                        return tok;
+                    }
+                    continue;
+                }
+            }
+
+            this.pos++;
+            this.clean = false;
+        }
+        return null;
+    }
+
+    /**
+     * Lexes a doc comment at the current position.
+     * @return A DOC_COMMENT Token.
+     */
+    private Token docComment() {
+        int start = this.pos;
+        int close = this.indexOf("*/", start + 3);
+        int bodyEnd = close < 0 ? this.len : close;
+        int end = close < 0 ? this.len : close + 2;
+        return this.token(TokenType.DOC_COMMENT, start, end, this.src.subSequence(start + 3, bodyEnd).toString(), "");
+    }
+
+    /**
+     * Lexes an identifier at the current position and returns a token if it's
+     * one of the declaration keywords. Otherwise the identifier is skipped and
+     * null is returned.
+     * @return A Token object or null.
+     */
+    private Token keyword() {
+        int start = this.pos;
+        int wordEnd = this.skipIdent(start);
+        boolean member = start > 0 && this.src.charAt(start - 1) == '.';
+        this.pos = wordEnd;
+
+        if (!member) {
+            if (this.matches("fun", start, wordEnd)) {
+                return this.function(start);
+            } else if (this.matches("var", start, wordEnd)) {
+                int nameStart = this.skipWhitespace(wordEnd);
+                int nameEnd = this.skipIdent(nameStart);
+                this.pos = nameEnd;
+                return this.token(TokenType.VAR, start, nameEnd, "", this.src.subSequence(nameStart, nameEnd).toString());
+            } else if (this.matches("import", start, wordEnd)) {
+                int eol = this.skipLine(wordEnd);
+                return this.token(TokenType.IMPORT, start, eol, this.src.subSequence(wordEnd, eol).toString().trim(), "");
+            }
+        }
+
+        this.clean = false;
+        return null;
+    }
+
+    /**
+     * Lexes a function declaration. The name and argument list are captured; a
+     * declaration without an argument list is skipped.
+     * @param start is an int with the offset of the fun keyword.
+     * @return A FUN Token or null.
+     */
+    private Token function(int start) {
+        int nameStart = this.skipWhitespace(start + 3);
+        int nameEnd = this.skipIdent(nameStart);
+        int i = this.skipWhitespace(nameEnd);
+
+        // Skip type parameters. (fun name<T>(...))
+        if (i < this.len && this.src.charAt(i) == '<') {
+            int close = this.indexOf(">", i);
+            if (close >= 0) i = this.skipWhitespace(close + 1);
+        }
+
+        if (i >= this.len || this.src.charAt(i) != '(') {
+            this.clean = false;
+            return null;
+        }
+
+        int argStart = i + 1;
+        int level = 1;
+        i = argStart;
+        while (i < this.len && level > 0) {
+            char c = this.src.charAt(i);
+            if (c == '"' || c == '\'' || c == '`') {
+                i = this.skipString(i);
+                continue;
+            }
+            if (c == '/' && this.peekAt(i + 1) != '/' && this.peekAt(i + 1) != '*' && this.isRegexStart(i)) {
+                i = this.skipRegex(i);
+                continue;
+            }
+            if (c == '(') level++;
+            else if (c == ')') level--;
+            i++;
+        }
+        int argEnd = level == 0 ? i - 1 : i;
+        this.pos = i;
+        return this.token(TokenType.FUN, start, i, this.src.subSequence(argStart, argEnd).toString(), this.src.subSequence(nameStart, nameEnd).toString());
+    }
+
+    /**
+     * Creates a token, advances past it and resets the adjacency tracking.
+     */
+    private Token token(TokenType type, int start, int end, String text, String name) {
+        Token tok = new Token(type, start, end, text, name, this.clean);
+        this.pos = end;
+        this.clean = true;
+        return tok;
+    }
+
+    private char peek(int offset) {
+        return this.peekAt(this.pos + offset);
+    }
+
+    private char peekAt(int i) {
+        return i < this.len ? this.src.charAt(i) : '\0';
+    }
+
+    private boolean startsWith(String str, int at) {
+        if (at + str.length() > this.len) return false;
+        for (int i = 0; i < str.length(); i++) {
+            if (this.src.charAt(at + i) != str.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean matches(String word, int start, int end) {
+        return end - start == word.length() && this.startsWith(word, start);
+    }
+
+    private int indexOf(String str, int from) {
+        for (int i = from; i <= this.len - str.length(); i++) {
+            if (this.startsWith(str, i)) return i;
+        }
+        return -1;
+    }
+
+    private int skipTo(String str, int from) {
+        int i = this.indexOf(str, from);
+        return i < 0 ? this.len : i + str.length();
+    }
+
+    private int skipLine(int from) {
+        int i = from;
+        while (i < this.len && this.src.charAt(i) != '\n' && this.src.charAt(i) != '\r') i++;
+        return i;
+    }
+
+    private int skipWhitespace(int from) {
+        int i = from;
+        while (i < this.len && Character.isWhitespace(this.src.charAt(i))) i++;
+        return i;
+    }
+
+    private int skipIdent(int from) {
+        int i = from;
+        while (i < this.len && isIdentChar(this.src.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * Skips a quoted string starting at the provided offset honoring
+     * backslash escapes and returns the offset after the closing quote.
+     */
+    private int skipString(int from) {
+        char quote = this.src.charAt(from);
+        int i = from + 1;
+        while (i < this.len) {
+            char c = this.src.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            i++;
+            if (c == quote) break;
+        }
+        return Math.min(i, this.len);
+    }
+
+    /**
+     * Returns true if the slash at the provided offset starts a regular
+     * expression literal rather than a division. That's the case in
+     * expression position, when the slash doesn't follow an operand. (an
+     * identifier other than an operator keyword, a number, a string or a
+     * closing bracket or $)
+     */
+    private boolean isRegexStart(int at) {
+        int i = at - 1;
+        while (i >= 0 && Character.isWhitespace(this.src.charAt(i))) i--;
+        if (i < 0) return true;
+        char c = this.src.charAt(i);
+        if (c == ')' || c == ']' || c == '}' || c == '$' || c == '"' || c == '\'' || c == '`') return false;
+        if (!isIdentChar(c)) return true;
+        int wordEnd = i + 1;
+        while (i >= 0 && isIdentChar(this.src.charAt(i))) i--;
+        for (String word : REGEX_KEYWORDS) {
+            if (this.matches(word, i + 1, wordEnd)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips a regular expression literal starting at the provided offset
+     * honoring backslash escapes and character classes and returns the offset
+     * after the closing slash. A literal can't span lines, so if the line ends
+     * first only the opening slash is skipped.
+     */
+    private int skipRegex(int from) {
+        boolean inClass = false;
+        int i = from + 1;
+        while (i < this.len) {
+            char c = this.src.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '\n' || c == '\r') break;
+            i++;
+            if (c == '[') inClass = true;
+            else if (c == ']') inClass = false;
+            else if (c == '/' && !inClass) return i;
+        }
+        return from + 1;
+    }
+
+    private static boolean isIdentChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+}
@@ -17,10 +17,14 @@
 
 package com.lehman.knit;
 
+import java.io.Serializable;
+
 /**
  * Class models a mapping table.
  */
-public class DataWeaveTable {
+public class DataWeaveTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * The comment string.
      */
@@ -36,6 +40,12 @@ public class DataWeaveTable {
      */
     private AnnotationTable table = null;
 
+    /**
+     * The source offsets of the table doc comment or -1 if unknown.
+     */
+    private int start = -1;
+    private int end = -1;
+
     /**
      * Gets the comment string of the function.
      * @return A String with the comment of the function.
@@ -83,4 +93,31 @@ public class DataWeaveTable {
     public void setTable(AnnotationTable table) {
         this.table = table;
     }
+
+    /**
+     * Gets the source offset the table starts at. Use the LineIndex of the
+     * module to get the line and column.
+     * @return An int with the start offset or -1 if unknown.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the source offset (exclusive) the table ends at.
+     * @return An int with the end offset or -1 if unknown.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Sets the source offsets of the table.
+     * @param start is an int with the start offset.
+     * @param end is an int with the end offset (exclusive).
+     */
+    public void setPosition(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
 }
@@ -17,14 +17,24 @@
 
 package com.lehman.knit;
 
+import java.io.Serializable;
+
 /**
  * Class models a dataweave variable.
  */
-public class DataWeaveVariable {
+public class DataWeaveVariable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String commentString = "";
     private DataWeaveComment comment = new DataWeaveComment();
     private String name = "";
 
+    /**
+     * The source offsets of the var declaration or -1 if unknown.
+     */
+    private int start = -1;
+    private int end = -1;
+
     /**
      * Gets the comment string of the variable.
      * @return A String with the comment of the variable.
@@ -72,4 +82,31 @@ public class DataWeaveVariable {
     public void setName(String name) {
         this.name = name;
     }
+
+    /**
+     * Gets the source offset the variable starts at. Use the LineIndex of the
+     * module to get the line and column.
+     * @return An int with the start offset or -1 if unknown.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the source offset (exclusive) the variable ends at.
+     * @return An int with the end offset or -1 if unknown.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Sets the source offsets of the variable.
+     * @param start is an int with the start offset.
+     * @param end is an int with the end offset (exclusive).
+     */
+    public void setPosition(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * The knit-dependencies goal is the knit goal with scanDependencies set.
+ * It's a separate goal because Maven has to resolve the compile
+ * dependencies before it runs, which the knit and watch goals don't
+ * need. Run it with mvn knit:knit-dependencies or bind it in the pom.
+ */
+@Mojo(name = "knit-dependencies", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true, requiresDependencyResolution = ResolutionScope.COMPILE)
+public class DependenciesMojo extends Main {
+    /**
+     * The entry point of the knit-dependencies goal.
+     * @throws MojoExecutionException if the configuration is invalid or generation fails.
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        this.scanDependencies = true;
+        super.execute();
+    }
+}
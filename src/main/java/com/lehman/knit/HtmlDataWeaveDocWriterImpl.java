@@ -0,0 +1,693 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * HTML implementation of the dwDocWriter interface. writeDoc(file) writes a
+ * complete page for a single module with a breadcrumb bar that links to the
+ * directory pages of the module path, so the page size only depends on the
+ * module itself. The style sheet is inlined in each page. All text is written
+ * as ASCII with character references, so pages are the same in any output
+ * charset.
+ */
+public class HtmlDataWeaveDocWriterImpl implements DataWeaveDocWriter {
+    /**
+     * Line separator shorthand.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * The file name of directory pages.
+     */
+    public static final String INDEX_PAGE = "index.html";
+
+    /**
+     * The style sheet inlined in each page.
+     */
+    private static final String CSS =
+            "body{font-family:sans-serif;line-height:1.4;margin:0;color:#222}"
+            + "nav{background:#f3f3f3;border-bottom:1px solid #ddd;padding:.6em 1em}"
+            + "nav a{color:#245;text-decoration:none}nav .search{float:right}"
+            + "main{max-width:60em;margin:0 auto;padding:1em}"
+            + "h1,h2{border-bottom:1px solid #eee}h3{margin-bottom:.3em}"
+            + ".text{white-space:pre-line}.summary{color:#555}"
+            + "blockquote{border-left:3px solid #ddd;margin:.5em 0;padding:0 1em}"
+            + "table{border-collapse:collapse;margin:.5em 0}th,td{border:1px solid #ccc;padding:.2em .6em;text-align:left}"
+            + "ul.tree{list-style:none;padding-left:0}ul.tree li{margin:.3em 0}ul.tree .dir a{font-weight:bold}";
+
+    /**
+     * Flag to link header table rows to module pages instead of anchors.
+     */
+    private final boolean fileLinks;
+
+    /**
+     * The log to report unknown module names to.
+     */
+    private final Log log;
+
+    /**
+     * The search index to add rendered modules to or null. Pages link to the
+     * search page if it is set.
+     */
+    private SearchIndex searchIndex = null;
+
+    /**
+     * The module graph to write import sections with or null.
+     */
+    private ModuleGraph moduleGraph = null;
+
+    /**
+     * The metrics to record render timings in or null if not recorded.
+     */
+    private KnitMetrics metrics = null;
+
+    /**
+     * Default constructor. Header table rows link to anchors in the same document.
+     */
+    public HtmlDataWeaveDocWriterImpl() {
+        this(false, new SystemStreamLog());
+    }
+
+    /**
+     * Constructor with the header table link mode and log.
+     * @param FileLinks is a boolean with true to link header table rows to the
+     * module pages and false to link to anchors in the same document.
+     * @param Log is the Log to report unknown module names to.
+     */
+    public HtmlDataWeaveDocWriterImpl(boolean FileLinks, Log Log) {
+        this.fileLinks = FileLinks;
+        this.log = Log;
+    }
+
+    /**
+     * Sets the search index each module is added to when it is rendered.
+     * @param SearchIndex is the SearchIndex object or null to not index.
+     */
+    public void setSearchIndex(SearchIndex SearchIndex) {
+        this.searchIndex = SearchIndex;
+    }
+
+    /**
+     * Sets the module graph each module lists its imports and importing
+     * modules from.
+     * @param ModuleGraph is the ModuleGraph object or null to not list them.
+     */
+    public void setModuleGraph(ModuleGraph ModuleGraph) {
+        this.moduleGraph = ModuleGraph;
+    }
+
+    /**
+     * Sets the metrics to record the render time of each module section in.
+     * @param Metrics is the KnitMetrics object or null to not record timings.
+     */
+    public void setMetrics(KnitMetrics Metrics) {
+        this.metrics = Metrics;
+    }
+
+    /**
+     * Gets the page file name of the provided module relative to the site
+     * root. A module named index gets index-module.html so it doesn't replace
+     * the directory page.
+     * @param file is the dwFile object.
+     * @return A String with the relative file name. (dw/color/palette.html)
+     */
+    @Override
+    public String getFileName(DataWeaveFile file) {
+        String path = Utility.join("/", file.getModulePath());
+        return "index".equals(file.getName()) ? path + "-module.html" : path + ".html";
+    }
+
+    /**
+     * Writes the page of the provided module and returns a String with the result.
+     * @param file is a dwFile object to write.
+     * @return A String with the page.
+     */
+    @Override
+    public String writeDoc(DataWeaveFile file) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeDoc(file, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams the page of the provided module to the provided output.
+     * @param file is a dwFile object to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeDoc(DataWeaveFile file, Appendable out) throws IOException {
+        if (this.searchIndex != null) {
+            this.searchIndex.add(file);
+        }
+
+        List<String> dirs = file.getModulePath().subList(0, file.getModulePath().size() - 1);
+        this.writePageStart(file.getQualifiedName(), out);
+        this.writeNav(dirs, file.getName(), out);
+        out.append("<main>").append(NL);
+        this.writeModule(file, "", dirs.size(), out);
+        out.append("</main>").append(NL);
+        this.writePageEnd(out);
+    }
+
+    /**
+     * Writes a single page with all provided modules and returns a String with the result.
+     * @param files is a List of dwFile objects to write.
+     * @return A String with the page.
+     */
+    @Override
+    public String writeDoc(List<DataWeaveFile> files) {
+        return this.writeDoc(files, new ArrayList<String>());
+    }
+
+    /**
+     * Writes a single page with all provided modules and returns a String with the result.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules.
+     * @return A String with the page.
+     */
+    @Override
+    public String writeDoc(List<DataWeaveFile> files, List<String> moduleNameList) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeDoc(files, moduleNameList, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a single page with all provided modules to the provided output.
+     * Each module is a section with the module anchor as id.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeDoc(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        SymbolTable symbols = new SymbolTable(files);
+        this.writePageStart("Modules", out);
+        out.append("<main>").append(NL);
+
+        Set<DataWeaveFile> listed = symbols.findModules(moduleNameList, this.log);
+        for (DataWeaveFile modFile : listed) {
+            this.writeSection(symbols, modFile, out);
+        }
+        for (DataWeaveFile dwf : files) {
+            if (!listed.contains(dwf)) {
+                this.writeSection(symbols, dwf, out);
+            }
+        }
+
+        out.append("</main>").append(NL);
+        this.writePageEnd(out);
+    }
+
+    /**
+     * Writes a header table with the provided dwFile list.
+     * @param files is a List of dwFile objects to write.
+     * @return A String with the header table.
+     */
+    @Override
+    public String writeHeaderTable(List<DataWeaveFile> files) {
+        return this.writeHeaderTable(files, new ArrayList<String>());
+    }
+
+    /**
+     * Writes a header table with the provided dwFile list.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules in the table.
+     * @return A String with the header table.
+     */
+    @Override
+    public String writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeHeaderTable(files, moduleNameList, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a header table with the provided dwFile list to the provided
+     * output. Rows link to the module pages or to the module sections of a
+     * single page, depending on the link mode.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules in the table.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        SymbolTable symbols = new SymbolTable(files);
+        out.append("<table>").append(NL).append("<tr><th>Module</th><th>Description</th></tr>").append(NL);
+
+        Set<DataWeaveFile> listed = symbols.findModules(moduleNameList, this.log);
+        for (DataWeaveFile modFile : listed) {
+            this.writeHeaderTableRow(symbols, modFile, out);
+        }
+        for (DataWeaveFile dwf : files) {
+            if (!listed.contains(dwf)) {
+                this.writeHeaderTableRow(symbols, dwf, out);
+            }
+        }
+
+        out.append("</table>").append(NL);
+    }
+
+    /**
+     * Writes the page of a directory of the module tree. It lists the sub
+     * directories and the modules of the directory. The root page also has the
+     * header and footer text.
+     * @param dirs is a List of Strings with the directory path, empty for the root.
+     * @param subDirs is a List of Strings with the names of the sub directories.
+     * @param modules is a List of the dwFile objects in the directory.
+     * @param headerText is a String with text written above the list or null.
+     * @param footerText is a String with text written below the list or null.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    public void writeDirectoryPage(List<String> dirs, List<String> subDirs, List<DataWeaveFile> modules,
+                                   String headerText, String footerText, Appendable out) throws IOException {
+        String title = dirs.isEmpty() ? "Modules" : Utility.join(SymbolTable.SEPARATOR, dirs);
+        this.writePageStart(title, out);
+        this.writeNav(dirs, null, out);
+        out.append("<main>").append(NL);
+        if (headerText != null && !headerText.equals("")) {
+            out.append("<div class=\"text\">");
+            escape(headerText, out);
+            out.append("</div>").append(NL);
+        }
+
+        out.append("<h1>");
+        escape(title, out);
+        out.append("</h1>").append(NL).append("<ul class=\"tree\">").append(NL);
+        for (String sub : subDirs) {
+            out.append("<li class=\"dir\"><a href=\"");
+            escape(sub, out);
+            out.append("/").append(INDEX_PAGE).append("\">");
+            escape(sub, out);
+            out.append("/</a></li>").append(NL);
+        }
+        for (DataWeaveFile dwf : modules) {
+            String fileName = this.getFileName(dwf);
+            out.append("<li><a href=\"");
+            escape(fileName.substring(fileName.lastIndexOf('/') + 1), out);
+            out.append("\">");
+            escape(dwf.getName(), out);
+            out.append("</a> <span class=\"summary\">");
+            escape(summary(dwf.getComment()), out);
+            out.append("</span></li>").append(NL);
+        }
+        out.append("</ul>").append(NL);
+
+        if (footerText != null && !footerText.equals("")) {
+            out.append("<div class=\"text\">");
+            escape(footerText, out);
+            out.append("</div>").append(NL);
+        }
+        out.append("</main>").append(NL);
+        this.writePageEnd(out);
+    }
+
+    private void writePageStart(String title, Appendable out) throws IOException {
+        out.append("<!DOCTYPE html>").append(NL).append("<html>").append(NL).append("<head>").append(NL);
+        out.append("<meta charset=\"utf-8\">").append(NL);
+        out.append("<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">").append(NL);
+        out.append("<title>");
+        escape(title, out);
+        out.append("</title>").append(NL);
+        out.append("<style>").append(CSS).append("</style>").append(NL);
+        out.append("</head>").append(NL).append("<body>").append(NL);
+    }
+
+    private void writePageEnd(Appendable out) throws IOException {
+        out.append("</body>").append(NL).append("</html>").append(NL);
+    }
+
+    /**
+     * Writes the breadcrumb bar with links to the root and each directory
+     * page of the provided path.
+     * @param dirs is a List of Strings with the directory path of the page.
+     * @param current is a String with the module name or null for directory pages.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeNav(List<String> dirs, String current, Appendable out) throws IOException {
+        int depth = dirs.size();
+        out.append("<nav>");
+        if (this.searchIndex != null) {
+            out.append("<a class=\"search\" href=\"");
+            up(depth, out);
+            out.append(SearchIndex.PAGE_FILE).append("\">Search</a>");
+        }
+        out.append("<a href=\"");
+        up(depth, out);
+        out.append(INDEX_PAGE).append("\">Modules</a>");
+        for (int i = 0; i < depth; i++) {
+            out.append(" / <a href=\"");
+            up(depth - i - 1, out);
+            out.append(INDEX_PAGE).append("\">");
+            escape(dirs.get(i), out);
+            out.append("</a>");
+        }
+        if (current != null) {
+            out.append(" / ");
+            escape(current, out);
+        }
+        out.append("</nav>").append(NL);
+    }
+
+    /**
+     * Writes a module as a section of a single page.
+     */
+    private void writeSection(SymbolTable symbols, DataWeaveFile file, Appendable out) throws IOException {
+        if (this.searchIndex != null) {
+            this.searchIndex.add(file);
+        }
+        String anchor = symbols.getAnchor(file);
+        out.append("<section id=\"");
+        escape(anchor, out);
+        out.append("\">").append(NL);
+        this.writeModule(file, anchor + "-", -1, out);
+        out.append("</section>").append(NL);
+    }
+
+    private void writeHeaderTableRow(SymbolTable symbols, DataWeaveFile file, Appendable out) throws IOException {
+        out.append("<tr><td><a href=\"");
+        escape(this.fileLinks ? this.getFileName(file) : "#" + symbols.getAnchor(file), out);
+        out.append("\">");
+        escape(symbols.hasUniqueName(file) ? file.getName() : file.getQualifiedName(), out);
+        out.append("</a></td><td>");
+        escape(Utility.stripNewLines(file.getComment().getText()), out);
+        out.append("</td></tr>").append(NL);
+    }
+
+    /**
+     * Writes the content of a module.
+     * @param file is the dwFile object to write.
+     * @param idPrefix is a String prepended to element ids.
+     * @param depth is an int with the directory depth of the module page or -1 on a single page.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeModule(DataWeaveFile file, String idPrefix, int depth, Appendable out) throws IOException {
+        long[] moduleTimer = this.startRender();
+        Set<String> ids = new HashSet<String>();
+        out.append("<h1>");
+        escape(file.getName(), out);
+        out.append("</h1>").append(NL);
+        this.writeText(file.getComment().getText(), out);
+
+        if (this.moduleGraph != null) {
+            this.writeImports(file, depth, out);
+        }
+
+        if (!file.getVariables().isEmpty()) {
+            long[] timer = this.startRender();
+            out.append("<h2>Variables</h2>").append(NL);
+            for (DataWeaveVariable var : file.getVariables()) {
+                this.writeHeading(idPrefix, "var-", var.getName(), ids, out);
+                out.append("<code>var ");
+                escape(var.getName(), out);
+                out.append("</code></h3>").append(NL);
+                this.writeText(var.getComment().getText(), out);
+            }
+            this.endRender(KnitMetrics.Phase.RENDER_VARIABLES, timer);
+        }
+
+        if (!file.getFunctions().isEmpty()) {
+            long[] timer = this.startRender();
+            out.append("<h2>Functions</h2>").append(NL);
+            for (DataWeaveFunction fun : file.getFunctions()) {
+                this.writeFunction(fun, idPrefix, ids, out);
+            }
+            this.endRender(KnitMetrics.Phase.RENDER_FUNCTIONS, timer);
+        }
+
+        if (!file.getTables().isEmpty()) {
+            long[] timer = this.startRender();
+            out.append("<h2>Mapping Tables</h2>").append(NL);
+            for (DataWeaveTable table : file.getTables()) {
+                this.writeText(table.getComment().getText(), out);
+                this.writeTable(table.getTable(), out);
+            }
+            this.endRender(KnitMetrics.Phase.RENDER_TABLES, timer);
+        }
+        this.endRender(KnitMetrics.Phase.RENDER_MODULE, moduleTimer);
+    }
+
+    /**
+     * Writes the imports and imported by lists of the provided module.
+     * Imported modules that weren't parsed are listed without a link.
+     * @param file is the dwFile object to write the lists for.
+     * @param depth is an int with the directory depth of the module page or -1 on a single page.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeImports(DataWeaveFile file, int depth, Appendable out) throws IOException {
+        if (!file.getImports().isEmpty()) {
+            out.append("<h2>Imports</h2>").append(NL).append("<ul>").append(NL);
+            for (String name : file.getImports()) {
+                DataWeaveFile dep = this.moduleGraph.getModule(name);
+                if (dep != null) {
+                    this.writeModuleLink(dep, depth, out);
+                } else {
+                    out.append("<li><code>");
+                    escape(name, out);
+                    out.append("</code></li>").append(NL);
+                }
+            }
+            out.append("</ul>").append(NL);
+        }
+
+        List<DataWeaveFile> importedBy = this.moduleGraph.getImportedBy(file);
+        if (!importedBy.isEmpty()) {
+            out.append("<h2>Imported By</h2>").append(NL).append("<ul>").append(NL);
+            for (DataWeaveFile dwf : importedBy) {
+                this.writeModuleLink(dwf, depth, out);
+            }
+            out.append("</ul>").append(NL);
+        }
+    }
+
+    private void writeModuleLink(DataWeaveFile to, int depth, Appendable out) throws IOException {
+        out.append("<li><a href=\"");
+        if (depth < 0) {
+            out.append("#");
+            escape(this.moduleGraph.getSymbols().getAnchor(to), out);
+        } else {
+            up(depth, out);
+            escape(this.getFileName(to), out);
+        }
+        out.append("\">");
+        escape(to.getQualifiedName(), out);
+        out.append("</a></li>").append(NL);
+    }
+
+    private void writeFunction(DataWeaveFunction fun, String idPrefix, Set<String> ids, Appendable out) throws IOException {
+        this.writeHeading(idPrefix, "fun-", fun.getName(), ids, out);
+        out.append("<code>fun ");
+        escape(fun.getName(), out);
+        out.append("(");
+        for (int i = 0; i < fun.getArguments().size(); i++) {
+            if (i > 0) out.append(", ");
+            DataWeaveArgument arg = fun.getArguments().get(i);
+            escape(arg.getName(), out);
+            if (!arg.getDatatype().equals("")) {
+                out.append(": ");
+                escape(arg.getDatatype(), out);
+            }
+        }
+        out.append(")</code></h3>").append(NL);
+
+        DataWeaveCommentAnnotation retAnn = null;
+        boolean started = false;
+        for (DataWeaveCommentAnnotation ann : fun.getComment().getAnnotations()) {
+            if (ann.getName().equalsIgnoreCase("return")) {
+                retAnn = ann;
+            } else if (ann.getName().equalsIgnoreCase("param")) {
+                if (!started) {
+                    out.append("<blockquote>").append(NL);
+                    started = true;
+                }
+                out.append("<div><b>param</b> <code>");
+                escape(ann.getKey(), out);
+                out.append("</code> ");
+                escape(Utility.stripNewLines(ann.getValue()), out);
+                out.append("</div>").append(NL);
+            }
+        }
+        if (retAnn != null) {
+            if (!started) {
+                out.append("<blockquote>").append(NL);
+                started = true;
+            }
+            out.append("<div><b>return</b> ");
+            escape(Utility.stripNewLines(retAnn.getValue()), out);
+            out.append("</div>").append(NL);
+        }
+        if (started) {
+            out.append("</blockquote>").append(NL);
+        }
+
+        this.writeText(fun.getComment().getText(), out);
+        if (fun.getTable() != null) {
+            this.writeTable(fun.getTable(), out);
+        }
+    }
+
+    /**
+     * Opens an h3 heading with a unique id. Overloaded functions get a
+     * number appended to the id.
+     */
+    private void writeHeading(String idPrefix, String kind, String name, Set<String> ids, Appendable out) throws IOException {
+        String id = idPrefix + kind + name;
+        for (int i = 2; !ids.add(id); i++) {
+            id = idPrefix + kind + name + "-" + i;
+        }
+        out.append("<h3 id=\"");
+        escape(id, out);
+        out.append("\">");
+    }
+
+    private void writeText(String text, Appendable out) throws IOException {
+        if (text == null || text.trim().equals("")) {
+            return;
+        }
+        out.append("<div class=\"text\">");
+        escape(text.trim(), out);
+        out.append("</div>").append(NL);
+    }
+
+    private void writeTable(AnnotationTable tbl, Appendable out) throws IOException {
+        long[] timer = this.startRender();
+        out.append("<table>").append(NL).append("<tr>");
+        for (String col : tbl.getColumns()) {
+            out.append("<th>");
+            escape(col, out);
+            out.append("</th>");
+        }
+        out.append("</tr>").append(NL);
+        for (AnnotationRow row : tbl.getRows()) {
+            out.append("<tr>");
+            for (String field : row.getFields()) {
+                out.append("<td>");
+                escape(field, out);
+                out.append("</td>");
+            }
+            out.append("</tr>").append(NL);
+        }
+        out.append("</table>").append(NL);
+        this.endRender(KnitMetrics.Phase.RENDER_ANNOTATION_TABLES, timer);
+    }
+
+    /**
+     * Starts timing a render phase if metrics are recorded.
+     * @return A long array with the timer state or null.
+     */
+    private long[] startRender() {
+        return this.metrics != null ? this.metrics.startRender() : null;
+    }
+
+    /**
+     * Records the render phase started with startRender().
+     * @param phase is the Phase to record.
+     * @param timer is the long array startRender() returned or null.
+     */
+    private void endRender(KnitMetrics.Phase phase, long[] timer) {
+        if (timer != null) {
+            this.metrics.endRender(phase, timer);
+        }
+    }
+
+    /**
+     * Gets the first line of the comment text.
+     */
+    private static String summary(DataWeaveComment comment) {
+        String text = comment.getText().trim();
+        int end = 0;
+        while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') end++;
+        return text.substring(0, end).trim();
+    }
+
+    /**
+     * Writes ../ the provided number of times.
+     */
+    private static void up(int depth, Appendable out) throws IOException {
+        for (int i = 0; i < depth; i++) {
+            out.append("../");
+        }
+    }
+
+    /**
+     * Writes the provided text escaped for HTML. Markup characters, control
+     * characters and non ASCII characters are written as character references.
+     * @param str is the String to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    static void escape(String str, Appendable out) throws IOException {
+        int start = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '&' || c == '<' || c == '>' || c == '"' || c == '\'' || c > 0x7e || (c < 0x20 && c != '\n' && c != '\r' && c != '\t')) {
+                out.append(str, start, i);
+                if (c == '&') {
+                    out.append("&amp;");
+                } else if (c == '<') {
+                    out.append("&lt;");
+                } else if (c == '>') {
+                    out.append("&gt;");
+                } else if (c == '"') {
+                    out.append("&quot;");
+                } else {
+                    int cp = str.codePointAt(i);
+                    if (Character.isSupplementaryCodePoint(cp)) {
+                        i++;
+                    }
+                    out.append("&#x").append(Integer.toHexString(cp)).append(';');
+                }
+                start = i + 1;
+            }
+        }
+        out.append(str, start, str.length());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a static HTML site with one page per module that mirrors the module
+ * paths (dw/color/palette.dwl -> dw/color/palette.html) and an index.html
+ * for each directory that lists its sub directories and modules. The
+ * directory pages make up the navigation tree, so no page lists all modules.
+ * Module and directory pages are rendered and written concurrently through
+ * the provided ModuleOutputWriter.
+ */
+public class HtmlSiteWriter {
+    /**
+     * The writer to render and write pages with.
+     */
+    private final ModuleOutputWriter output;
+
+    /**
+     * Constructor with the module output writer.
+     * @param Output is the ModuleOutputWriter to render and write pages with.
+     */
+    public HtmlSiteWriter(ModuleOutputWriter Output) {
+        this.output = Output;
+    }
+
+    /**
+     * Writes the pages of the provided modules and the directory pages of all modules.
+     * @param writer is the HtmlDataWeaveDocWriterImpl to render with.
+     * @param files is a List of all dwFile objects, used for the directory pages.
+     * @param modules is a List of the dwFile objects to write module pages for.
+     * @param outputDir is a String with the output directory.
+     * @param headerText is a String with the header text of the root page.
+     * @param footerText is a String with the footer text of the root page.
+     * @throws Exception on the first render or write failure.
+     */
+    public void write(final HtmlDataWeaveDocWriterImpl writer, List<DataWeaveFile> files, List<DataWeaveFile> modules,
+                      String outputDir, final String headerText, final String footerText) throws Exception {
+        this.output.write(writer, modules, outputDir);
+
+        // Build the directory tree in module order.
+        Map<String, Dir> dirs = new LinkedHashMap<String, Dir>();
+        dirs.put("", new Dir(new ArrayList<String>()));
+        Set<String> seen = new HashSet<String>();
+        for (DataWeaveFile dwf : files) {
+            if (!seen.add(writer.getFileName(dwf))) {
+                continue;
+            }
+            List<String> path = dwf.getModulePath();
+            Dir parent = dirs.get("");
+            for (int i = 0; i < path.size() - 1; i++) {
+                String key = Utility.join("/", path.subList(0, i + 1));
+                Dir dir = dirs.get(key);
+                if (dir == null) {
+                    dir = new Dir(path.subList(0, i + 1));
+                    dirs.put(key, dir);
+                    parent.subDirs.add(path.get(i));
+                }
+                parent = dir;
+            }
+            parent.modules.add(dwf);
+        }
+
+        Map<String, OutputManifest.Content> pages = new LinkedHashMap<String, OutputManifest.Content>();
+        for (Map.Entry<String, Dir> ent : dirs.entrySet()) {
+            final Dir dir = ent.getValue();
+            final boolean root = ent.getKey().equals("");
+            File page = new File(root ? new File(outputDir) : new File(outputDir, ent.getKey()), HtmlDataWeaveDocWriterImpl.INDEX_PAGE);
+            pages.put(page.getPath(), out -> writer.writeDirectoryPage(dir.path, dir.subDirs, dir.modules,
+                    root ? headerText : null, root ? footerText : null, out));
+        }
+        this.output.write(pages);
+    }
+
+    /**
+     * A directory of the module tree.
+     */
+    private static class Dir {
+        private final List<String> path;
+        private final List<String> subDirs = new ArrayList<String>();
+        private final List<DataWeaveFile> modules = new ArrayList<DataWeaveFile>();
+
+        Dir(List<String> Path) {
+            this.path = Path;
+        }
+    }
+}
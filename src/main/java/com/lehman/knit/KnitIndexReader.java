@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a knit-index file written by KnitIndexWriter. The file is memory
+ * mapped and only the parts that are asked for are decoded, so loading a
+ * single module or symbol from a large index is cheap. Modules are found
+ * by qualified name (dw::color::palette) and functions and variables by
+ * qualified symbol name (dw::color::palette::mapPalette). Instances are
+ * safe to use from multiple threads. The index doesn't keep source
+ * positions, so loaded objects have no LineIndex and -1 offsets.
+ */
+public class KnitIndexReader {
+    /**
+     * The mapped index file.
+     */
+    private final ByteBuffer data;
+
+    private final int moduleCount;
+    private final int symbolCount;
+    private final int stringCount;
+    private final int stringOffsets;
+    private final int stringData;
+    private final int moduleTable;
+    private final int sortedModules;
+    private final int symbolTable;
+
+    /**
+     * The parser the comments are parsed with.
+     */
+    private final KnitParser parser = new KnitParser();
+
+    /**
+     * Decoded strings by id, filled as they are used.
+     */
+    private final String[] strings;
+
+    /**
+     * Constructor with the index file to read.
+     * @param IndexFile is the File with the index.
+     * @throws IOException if the file can't be read or isn't a supported knit index.
+     */
+    public KnitIndexReader(File IndexFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(IndexFile.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index file '" + IndexFile + "' is too large.");
+            }
+            this.data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+
+        if (this.data.limit() < KnitIndexWriter.HEADER_SIZE) {
+            throw new IOException("File '" + IndexFile + "' isn't a knit index.");
+        }
+        for (int i = 0; i < KnitIndexWriter.MAGIC.length; i++) {
+            if (this.data.get(i) != KnitIndexWriter.MAGIC[i]) {
+                throw new IOException("File '" + IndexFile + "' isn't a knit index.");
+            }
+        }
+        int version = this.data.getShort(4) & 0xFFFF;
+        if (version != KnitIndexWriter.FORMAT_VERSION) {
+            throw new IOException("Knit index '" + IndexFile + "' has version " + version + ", expected " + KnitIndexWriter.FORMAT_VERSION + ".");
+        }
+
+        this.moduleCount = this.data.getInt(8);
+        this.symbolCount = this.data.getInt(12);
+        int stringTable = (int) this.data.getLong(16);
+        this.moduleTable = (int) this.data.getLong(24);
+        this.symbolTable = (int) this.data.getLong(32);
+        this.stringCount = this.data.getInt(stringTable);
+        this.stringOffsets = stringTable + 4;
+        this.stringData = this.stringOffsets + 4 * (this.stringCount + 1);
+        this.sortedModules = this.moduleTable + 16 * this.moduleCount;
+        this.strings = new String[this.stringCount];
+    }
+
+    /**
+     * Gets the number of modules in the index.
+     * @return An int with the module count.
+     */
+    public int getModuleCount() {
+        return this.moduleCount;
+    }
+
+    /**
+     * Gets the qualified names of all modules in parse order.
+     * @return A List of Strings with the module names.
+     */
+    public List<String> getModuleNames() {
+        List<String> ret = new ArrayList<String>(this.moduleCount);
+        for (int i = 0; i < this.moduleCount; i++) {
+            ret.add(this.string(this.data.getInt(this.moduleTable + 16 * i)));
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the module at the provided index in parse order.
+     * @param index is an int with the module index.
+     * @return A dwFile object with the module.
+     */
+    public DataWeaveFile readModule(int index) {
+        if (index < 0 || index >= this.moduleCount) {
+            throw new IndexOutOfBoundsException("Module index " + index + " out of range.");
+        }
+        Cursor in = new Cursor((int) this.data.getLong(this.moduleTable + 16 * index + 4));
+        return this.readModule(in);
+    }
+
+    /**
+     * Reads the module with the provided qualified name.
+     * @param qualifiedName is a String with the qualified module name. (dw::color::palette)
+     * @return A dwFile object with the module or null if not found.
+     */
+    public DataWeaveFile readModule(String qualifiedName) {
+        int lo = 0;
+        int hi = this.moduleCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int idx = this.data.getInt(this.sortedModules + 4 * mid);
+            int cmp = this.string(this.data.getInt(this.moduleTable + 16 * idx)).compareTo(qualifiedName);
+            if (cmp == 0) {
+                return this.readModule(idx);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads all modules in parse order.
+     * @return A List of dwFile objects.
+     */
+    public List<DataWeaveFile> readModules() {
+        List<DataWeaveFile> ret = new ArrayList<DataWeaveFile>(this.moduleCount);
+        for (int i = 0; i < this.moduleCount; i++) {
+            ret.add(this.readModule(i));
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the variable with the provided qualified name without reading the rest of its module.
+     * @param qualifiedName is a String with the qualified variable name. (dw::color::palette::myVar)
+     * @return A dwVariable object or null if not found.
+     */
+    public DataWeaveVariable readVariable(String qualifiedName) {
+        for (int sym = this.findSymbol(qualifiedName); sym >= 0 && sym < this.symbolCount && this.symbolName(sym).equals(qualifiedName); sym++) {
+            if (this.symbolKind(sym) == KnitIndexWriter.KIND_VARIABLE) {
+                return this.readVariable(new Cursor(this.symbolOffset(sym)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the functions with the provided qualified name without reading the rest of their
+     * module. DataWeave functions can be overloaded, so there can be more than one.
+     * @param qualifiedName is a String with the qualified function name. (dw::color::palette::mapPalette)
+     * @return A List of dwFunction objects, empty if not found.
+     */
+    public List<DataWeaveFunction> readFunctions(String qualifiedName) {
+        List<DataWeaveFunction> ret = new ArrayList<DataWeaveFunction>();
+        for (int sym = this.findSymbol(qualifiedName); sym >= 0 && sym < this.symbolCount && this.symbolName(sym).equals(qualifiedName); sym++) {
+            if (this.symbolKind(sym) == KnitIndexWriter.KIND_FUNCTION) {
+                ret.add(this.readFunction(new Cursor(this.symbolOffset(sym))));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the first symbol with the provided name.
+     * @return An int with the symbol index or -1 if not found.
+     */
+    private int findSymbol(String qualifiedName) {
+        int lo = 0;
+        int hi = this.symbolCount - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = this.symbolName(mid).compareTo(qualifiedName);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                if (cmp == 0) {
+                    found = mid;
+                }
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private String symbolName(int sym) {
+        return this.string(this.data.getInt(this.symbolTable + 17 * sym));
+    }
+
+    private int symbolKind(int sym) {
+        return this.data.get(this.symbolTable + 17 * sym + 8);
+    }
+
+    private int symbolOffset(int sym) {
+        return (int) this.data.getLong(this.symbolTable + 17 * sym + 9);
+    }
+
+    private DataWeaveFile readModule(Cursor in) {
+        DataWeaveFile dwf = new DataWeaveFile();
+        dwf.setFileNameAndPath(this.readString(in));
+        dwf.setFileName(this.readString(in));
+        dwf.setName(this.readString(in));
+        ArrayList<String> path = new ArrayList<String>();
+        for (int i = in.varint(); i > 0; i--) {
+            path.add(this.readString(in));
+        }
+        dwf.setModulePath(path);
+        dwf.setCommentString(this.readString(in));
+        dwf.setComment(this.parseComment(dwf.getCommentString()));
+
+        ArrayList<DataWeaveVariable> vars = new ArrayList<DataWeaveVariable>();
+        for (int i = in.varint(); i > 0; i--) {
+            vars.add(this.readVariable(in));
+        }
+        dwf.setVariables(vars);
+
+        ArrayList<DataWeaveFunction> funs = new ArrayList<DataWeaveFunction>();
+        for (int i = in.varint(); i > 0; i--) {
+            funs.add(this.readFunction(in));
+        }
+        dwf.setFunctions(funs);
+
+        ArrayList<DataWeaveTable> tables = new ArrayList<DataWeaveTable>();
+        for (int i = in.varint(); i > 0; i--) {
+            DataWeaveTable table = new DataWeaveTable();
+            table.setCommentString(this.readString(in));
+            table.setComment(this.parseComment(table.getCommentString()));
+            table.setTable(this.readTable(in));
+            tables.add(table);
+        }
+        dwf.setTables(tables);
+        return dwf;
+    }
+
+    private DataWeaveVariable readVariable(Cursor in) {
+        DataWeaveVariable var = new DataWeaveVariable();
+        var.setName(this.readString(in));
+        var.setCommentString(this.readString(in));
+        var.setComment(this.parseComment(var.getCommentString()));
+        return var;
+    }
+
+    private DataWeaveFunction readFunction(Cursor in) {
+        DataWeaveFunction fun = new DataWeaveFunction();
+        fun.setName(this.readString(in));
+        fun.setCommentString(this.readString(in));
+        fun.setComment(this.parseComment(fun.getCommentString()));
+        ArrayList<DataWeaveArgument> args = new ArrayList<DataWeaveArgument>();
+        for (int i = in.varint(); i > 0; i--) {
+            String name = this.readString(in);
+            args.add(new DataWeaveArgument(name, this.readString(in)));
+        }
+        fun.setArguments(args);
+        fun.setTable(this.readTable(in));
+        return fun;
+    }
+
+    private DataWeaveComment parseComment(String str) {
+        return str == null ? null : this.parser.parseComment(str);
+    }
+
+    private AnnotationTable readTable(Cursor in) {
+        if (in.varint() == 0) {
+            return null;
+        }
+        AnnotationTable table = new AnnotationTable();
+        table.setColumns(this.readStrings(in));
+        List<AnnotationRow> rows = new ArrayList<AnnotationRow>();
+        for (int i = in.varint(); i > 0; i--) {
+            AnnotationRow row = new AnnotationRow();
+            row.setFields(this.readStrings(in));
+            rows.add(row);
+        }
+        table.setRows(rows);
+        return table;
+    }
+
+    private List<String> readStrings(Cursor in) {
+        int count = in.varint();
+        List<String> ret = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(this.readString(in));
+        }
+        return ret;
+    }
+
+    private String readString(Cursor in) {
+        int id = in.varint();
+        return id == 0 ? null : this.string(id - 1);
+    }
+
+    /**
+     * Gets a string from the string table, decoding it on first use.
+     */
+    private String string(int id) {
+        String str = this.strings[id];
+        if (str == null) {
+            int start = this.data.getInt(this.stringOffsets + 4 * id);
+            int end = this.data.getInt(this.stringOffsets + 4 * (id + 1));
+            byte[] bytes = new byte[end - start];
+            ByteBuffer buf = this.data.duplicate();
+            buf.position(this.stringData + start);
+            buf.get(bytes);
+            str = new String(bytes, StandardCharsets.UTF_8);
+            this.strings[id] = str;
+        }
+        return str;
+    }
+
+    /**
+     * Read position in the mapped file.
+     */
+    private class Cursor {
+        private int pos;
+
+        Cursor(int Pos) {
+            this.pos = Pos;
+        }
+
+        int varint() {
+            int ret = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = KnitIndexReader.this.data.get(this.pos++);
+                ret |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the parsed model of all modules to a compact binary index file
+ * (knit-index) that can be read back with KnitIndexReader. Strings are
+ * stored in a string table and referenced by id. Module and
+ * symbol tables with fixed size entries sorted by qualified name let a
+ * reader seek to a single module or symbol without decoding the rest.
+ * Only the comment string of each element is stored, the reader parses
+ * the comment from it again. Modules can also be added one at a time, so
+ * the parsed modules don't all have to be held in memory. The encoded
+ * records and string data are streamed to temp files until the index is
+ * written. Only strings up to MAX_SHARED_LENGTH characters are stored once
+ * and shared, so comment texts aren't kept in memory either.
+ *
+ * Layout, all numbers big endian:
+ * <pre>
+ * header        magic "KNIX", u16 version, u16 reserved, u32 module count,
+ *               u32 symbol count, u64 string table offset,
+ *               u64 module table offset, u64 symbol table offset
+ * records       module records, strings as varint ids (id + 1, 0 is null)
+ * string table  u32 count, u32[count + 1] offsets into the data, UTF-8 data
+ * module table  per module in parse order: u32 name id, u64 offset, u32 length,
+ *               then u32[count] module indexes sorted by qualified name
+ * symbol table  per symbol sorted by qualified name: u32 name id,
+ *               u32 module index, u8 kind, u64 record offset
+ * </pre>
+ */
+public class KnitIndexWriter implements Closeable {
+    /**
+     * The file magic.
+     */
+    static final byte[] MAGIC = new byte[] { 'K', 'N', 'I', 'X' };
+
+    /**
+     * The format version. Bump this whenever the layout changes.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * The header size in bytes.
+     */
+    static final int HEADER_SIZE = 40;
+
+    /**
+     * Symbol kind of a variable.
+     */
+    static final int KIND_VARIABLE = 1;
+
+    /**
+     * Symbol kind of a function.
+     */
+    static final int KIND_FUNCTION = 2;
+
+    /**
+     * Longer strings get an id of their own each time they're written.
+     */
+    static final int MAX_SHARED_LENGTH = 256;
+
+    /**
+     * The ids of the shared strings.
+     */
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+    /**
+     * The end offset of each string in the string data.
+     */
+    private int[] stringEnds = new int[1024];
+
+    /**
+     * The number of strings.
+     */
+    private int stringCount = 0;
+
+    /**
+     * The encoded module records or null until the first module is added.
+     */
+    private Spill records = null;
+
+    /**
+     * The UTF-8 string data or null until the first module is added.
+     */
+    private Spill stringData = null;
+
+    /**
+     * The symbols.
+     */
+    private final List<Entry> symbols = new ArrayList<Entry>();
+
+    /**
+     * The modules in parse order.
+     */
+    private final List<Entry> modules = new ArrayList<Entry>();
+
+    /**
+     * Writes the index of the provided modules to the provided file. The
+     * index is written to a temp file first and then moved in place.
+     * @param files is a List of dwFile objects to write.
+     * @param IndexFile is the File to write the index to.
+     * @throws IOException on IO exception.
+     */
+    public static void write(List<DataWeaveFile> files, File IndexFile) throws IOException {
+        try (KnitIndexWriter writer = new KnitIndexWriter()) {
+            for (DataWeaveFile dwf : files) {
+                writer.add(dwf);
+            }
+            writer.write(IndexFile);
+        }
+    }
+
+    /**
+     * Encodes the provided module and adds it to the index. The module
+     * isn't referenced afterwards.
+     * @param file is the dwFile object to add.
+     * @throws IOException if the temp files can't be written.
+     */
+    public void add(DataWeaveFile file) throws IOException {
+        this.add(this.modules.size(), file);
+    }
+
+    /**
+     * Encodes the provided module and adds it to the index at the provided
+     * position in parse order. Modules can be added out of order, as long as
+     * every position is filled before the index is written.
+     * @param position is an int with the position of the module in parse order.
+     * @param file is the dwFile object to add.
+     * @throws IOException if the temp files can't be written.
+     */
+    public void add(int position, DataWeaveFile file) throws IOException {
+        if (this.records == null) {
+            this.records = new Spill();
+            this.stringData = new Spill();
+        }
+        String name = file.getQualifiedName();
+        int nameId = this.id(name);
+        long offset = this.records.size();
+        this.writeModule(position, file);
+        while (this.modules.size() <= position) {
+            this.modules.add(null);
+        }
+        this.modules.set(position, new Entry(name, nameId, position, 0, offset, this.records.size() - offset));
+    }
+
+    /**
+     * Writes the index of the added modules to the provided file. The
+     * index is written to a temp file first and then moved in place.
+     * @param IndexFile is the File to write the index to.
+     * @throws IOException on IO exception.
+     */
+    public void write(File IndexFile) throws IOException {
+        int count = this.modules.size();
+        if (this.modules.contains(null)) {
+            throw new IOException("Index can't be written, not all modules were added.");
+        }
+        if (this.records == null) {
+            this.records = new Spill();
+            this.stringData = new Spill();
+        }
+        this.records.flush();
+        this.stringData.flush();
+
+        // Module indexes and symbols sorted by qualified name.
+        List<Entry> sorted = new ArrayList<Entry>(this.modules);
+        sorted.sort((a, b) -> a.name.compareTo(b.name));
+        this.symbols.sort((a, b) -> a.name.compareTo(b.name));
+
+        File parent = IndexFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory '" + parent + "'.");
+        }
+        File tmp = File.createTempFile("." + IndexFile.getName(), ".tmp", parent);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+            try {
+                long stringTableOffset = HEADER_SIZE + this.records.size();
+                long moduleTableOffset = stringTableOffset + 4 + 4L * (this.stringCount + 1) + this.stringData.size();
+                long symbolTableOffset = moduleTableOffset + 16L * count + 4L * count;
+
+                out.write(MAGIC);
+                out.writeShort(FORMAT_VERSION);
+                out.writeShort(0);
+                out.writeInt(count);
+                out.writeInt(this.symbols.size());
+                out.writeLong(stringTableOffset);
+                out.writeLong(moduleTableOffset);
+                out.writeLong(symbolTableOffset);
+
+                this.records.copyTo(out);
+
+                out.writeInt(this.stringCount);
+                out.writeInt(0);
+                for (int i = 0; i < this.stringCount; i++) {
+                    out.writeInt(this.stringEnds[i]);
+                }
+                this.stringData.copyTo(out);
+
+                for (Entry mod : this.modules) {
+                    out.writeInt(mod.nameId);
+                    out.writeLong(HEADER_SIZE + mod.offset);
+                    out.writeInt((int) mod.length);
+                }
+                for (Entry mod : sorted) {
+                    out.writeInt(mod.module);
+                }
+
+                for (Entry sym : this.symbols) {
+                    out.writeInt(sym.nameId);
+                    out.writeInt(sym.module);
+                    out.writeByte(sym.kind);
+                    out.writeLong(HEADER_SIZE + sym.offset);
+                }
+            } finally {
+                out.close();
+            }
+
+            try {
+                Files.move(tmp.toPath(), IndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), IndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+            this.close();
+        }
+    }
+
+    /**
+     * Deletes the temp files. The index can't be written afterwards.
+     * @throws IOException on IO exception.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.records != null) {
+                this.records.delete();
+            }
+        } finally {
+            if (this.stringData != null) {
+                this.stringData.delete();
+            }
+        }
+    }
+
+    private void writeModule(int index, DataWeaveFile dwf) throws IOException {
+        Spill out = this.records;
+        this.writeString(dwf.getFileNameAndPath());
+        this.writeString(dwf.getFileName());
+        this.writeString(dwf.getName());
+        out.writeVarint(dwf.getModulePath().size());
+        for (String part : dwf.getModulePath()) {
+            this.writeString(part);
+        }
+        this.writeString(dwf.getCommentString());
+
+        String prefix = dwf.getQualifiedName() + "::";
+        out.writeVarint(dwf.getVariables().size());
+        for (DataWeaveVariable var : dwf.getVariables()) {
+            this.addSymbol(prefix + var.getName(), index, KIND_VARIABLE);
+            this.writeString(var.getName());
+            this.writeString(var.getCommentString());
+        }
+
+        out.writeVarint(dwf.getFunctions().size());
+        for (DataWeaveFunction fun : dwf.getFunctions()) {
+            this.addSymbol(prefix + fun.getName(), index, KIND_FUNCTION);
+            this.writeString(fun.getName());
+            this.writeString(fun.getCommentString());
+            out.writeVarint(fun.getArguments().size());
+            for (DataWeaveArgument arg : fun.getArguments()) {
+                this.writeString(arg.getName());
+                this.writeString(arg.getDatatype());
+            }
+            this.writeTable(fun.getTable());
+        }
+
+        out.writeVarint(dwf.getTables().size());
+        for (DataWeaveTable table : dwf.getTables()) {
+            this.writeString(table.getCommentString());
+            this.writeTable(table.getTable());
+        }
+    }
+
+    private void addSymbol(String name, int module, int kind) throws IOException {
+        this.symbols.add(new Entry(name, this.id(name), module, kind, this.records.size(), 0));
+    }
+
+    private void writeTable(AnnotationTable table) throws IOException {
+        if (table == null) {
+            this.records.writeVarint(0);
+            return;
+        }
+        this.records.writeVarint(1);
+        this.writeStrings(table.getColumns());
+        this.records.writeVarint(table.getRows().size());
+        for (AnnotationRow row : table.getRows()) {
+            this.writeStrings(row.getFields());
+        }
+    }
+
+    private void writeStrings(List<String> strs) throws IOException {
+        this.records.writeVarint(strs.size());
+        for (String str : strs) {
+            this.writeString(str);
+        }
+    }
+
+    private void writeString(String str) throws IOException {
+        this.records.writeVarint(str == null ? 0 : this.id(str) + 1);
+    }
+
+    private int id(String str) throws IOException {
+        boolean shared = str.length() <= MAX_SHARED_LENGTH;
+        if (shared) {
+            Integer id = this.stringIds.get(str);
+            if (id != null) {
+                return id;
+            }
+        }
+
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        this.stringData.write(bytes);
+        if (this.stringData.size() > Integer.MAX_VALUE) {
+            throw new IOException("Index string data is larger than 2 GB.");
+        }
+        if (this.stringCount == this.stringEnds.length) {
+            this.stringEnds = Arrays.copyOf(this.stringEnds, this.stringCount * 2);
+        }
+        int id = this.stringCount++;
+        this.stringEnds[id] = (int) this.stringData.size();
+        if (shared) {
+            this.stringIds.put(str, id);
+        }
+        return id;
+    }
+
+    /**
+     * A module or symbol table entry.
+     */
+    private static class Entry {
+        private final String name;
+        private final int nameId;
+        private final int module;
+        private final int kind;
+        private final long offset;
+        private final long length;
+
+        Entry(String Name, int NameId, int Module, int Kind, long Offset, long Length) {
+            this.name = Name;
+            this.nameId = NameId;
+            this.module = Module;
+            this.kind = Kind;
+            this.offset = Offset;
+            this.length = Length;
+        }
+    }
+
+    /**
+     * Byte sink with varint support that is buffered in memory and spilled
+     * to a temp file.
+     */
+    private static class Spill {
+        private final File file;
+        private final OutputStream out;
+        private long count = 0;
+
+        Spill() throws IOException {
+            this.file = File.createTempFile("knit-index", ".tmp");
+            this.file.deleteOnExit();
+            this.out = new BufferedOutputStream(new FileOutputStream(this.file), 64 * 1024);
+        }
+
+        long size() {
+            return this.count;
+        }
+
+        void writeVarint(long val) throws IOException {
+            while ((val & ~0x7FL) != 0) {
+                this.out.write((int) ((val & 0x7F) | 0x80));
+                this.count++;
+                val >>>= 7;
+            }
+            this.out.write((int) val);
+            this.count++;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            this.out.write(bytes);
+            this.count += bytes.length;
+        }
+
+        void flush() throws IOException {
+            this.out.flush();
+        }
+
+        void copyTo(OutputStream dest) throws IOException {
+            Files.copy(this.file.toPath(), dest);
+        }
+
+        void delete() throws IOException {
+            try {
+                this.out.close();
+            } finally {
+                Files.deleteIfExists(this.file.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects per phase timings and per file parse times of a knit run and
+ * writes them as a JSON report. Phase times are summed over all threads,
+ * stage times are wall clock times of the walk, parse and output stages.
+ * All methods are thread safe.
+ */
+public class KnitMetrics {
+    /**
+     * The timed phases. Annotation tables are parsed as part of functions
+     * and tables, so that time is included in both. Render phases don't
+     * overlap, each one is the time not spent in the render phases it
+     * contains, so render is the output time outside of the writer steps.
+     * Render time includes writing to the output buffer and write is the
+     * final flush and commit.
+     */
+    public enum Phase {
+        WALK("walk"),
+        READ("read"),
+        LEX("lex"),
+        MODULE_COMMENT("moduleComment"),
+        VARIABLES("variables"),
+        FUNCTIONS("functions"),
+        TABLES("tables"),
+        ANNOTATION_TABLES("annotationTables"),
+        RENDER("render"),
+        RENDER_MODULE("renderModule"),
+        RENDER_VARIABLES("renderVariables"),
+        RENDER_FUNCTIONS("renderFunctions"),
+        RENDER_TABLES("renderTables"),
+        RENDER_ANNOTATION_TABLES("renderAnnotationTables"),
+        RENDER_HEADER_TABLE("renderHeaderTable"),
+        WRITE("write");
+
+        private final String key;
+
+        Phase(String Key) {
+            this.key = Key;
+        }
+
+        /**
+         * Gets the key of the phase in the report.
+         * @return A String with the key.
+         */
+        public String getKey() {
+            return this.key;
+        }
+    }
+
+    /**
+     * The report format version.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Summed nanoseconds per phase.
+     */
+    private final Map<Phase, LongAdder> nanos = new EnumMap<Phase, LongAdder>(Phase.class);
+
+    /**
+     * Counts per phase.
+     */
+    private final Map<Phase, LongAdder> counts = new EnumMap<Phase, LongAdder>(Phase.class);
+
+    /**
+     * Wall clock stage times in insertion order. (name, nanos)
+     */
+    private final ConcurrentLinkedQueue<Object[]> stages = new ConcurrentLinkedQueue<Object[]>();
+
+    /**
+     * Per file parse records.
+     */
+    private final ConcurrentLinkedQueue<FileRecord> files = new ConcurrentLinkedQueue<FileRecord>();
+
+    /**
+     * Render time of the current thread already counted by a render phase,
+     * so the render phase around it doesn't count it again.
+     */
+    private final ThreadLocal<long[]> renderNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * The number of slowest files to report.
+     */
+    private final int slowestFiles;
+
+    /**
+     * The start time of the run.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Constructor with the number of slowest files to report.
+     * @param SlowestFiles is an int with the number of slowest files to report.
+     */
+    public KnitMetrics(int SlowestFiles) {
+        this.slowestFiles = SlowestFiles;
+        for (Phase p : Phase.values()) {
+            this.nanos.put(p, new LongAdder());
+            this.counts.put(p, new LongAdder());
+        }
+    }
+
+    /**
+     * Adds the provided time to a phase.
+     * @param phase is the Phase to add to.
+     * @param Nanos is a long with the elapsed nanoseconds.
+     */
+    public void add(Phase phase, long Nanos) {
+        this.nanos.get(phase).add(Nanos);
+        this.counts.get(phase).increment();
+    }
+
+    /**
+     * Starts timing a render phase on the current thread.
+     * @return A long array with the timer state to pass to endRender().
+     */
+    public long[] startRender() {
+        return new long[] { System.nanoTime(), this.renderNanos.get()[0] };
+    }
+
+    /**
+     * Adds the time since startRender() to a render phase, less the time of
+     * the render phases that ended on the current thread in between.
+     * @param phase is the Phase to add to.
+     * @param timer is the long array startRender() returned.
+     */
+    public void endRender(Phase phase, long[] timer) {
+        long elapsed = System.nanoTime() - timer[0];
+        long[] counted = this.renderNanos.get();
+        this.add(phase, elapsed - (counted[0] - timer[1]));
+        counted[0] = timer[1] + elapsed;
+    }
+
+    /**
+     * Records the wall clock time of a stage.
+     * @param name is a String with the stage name.
+     * @param Nanos is a long with the elapsed nanoseconds.
+     */
+    public void addStage(String name, long Nanos) {
+        this.stages.add(new Object[] { name, Nanos });
+    }
+
+    /**
+     * Records the parse time of a single file.
+     * @param fileName is a String with the file name.
+     * @param bytes is a long with the file size.
+     * @param Nanos is a long with the elapsed nanoseconds.
+     */
+    public void addFile(String fileName, long bytes, long Nanos) {
+        this.files.add(new FileRecord(fileName, bytes, Nanos));
+    }
+
+    /**
+     * Gets the summed time of a phase.
+     * @param phase is the Phase to get.
+     * @return A long with the nanoseconds.
+     */
+    public long getNanos(Phase phase) {
+        return this.nanos.get(phase).sum();
+    }
+
+    /**
+     * Writes the JSON report to the provided file.
+     * @param file is the File to write.
+     * @param Threads is an int with the number of threads used.
+     * @throws IOException on IO exception.
+     */
+    public void write(File file, int Threads) throws IOException {
+        long wall = System.nanoTime() - this.start;
+
+        List<FileRecord> recs = new ArrayList<FileRecord>(this.files);
+        long bytes = 0;
+        for (FileRecord rec : recs) {
+            bytes += rec.bytes;
+        }
+        Collections.sort(recs, (a, b) -> Long.compare(b.nanos, a.nanos));
+
+        // In pipeline mode files are parsed while the docs are written.
+        long parseWall = 0;
+        long pipelineWall = 0;
+        for (Object[] st : this.stages) {
+            if ("parse".equals(st[0])) {
+                parseWall += (Long) st[1];
+            } else if ("pipeline".equals(st[0])) {
+                pipelineWall += (Long) st[1];
+            }
+        }
+        if (parseWall == 0) {
+            parseWall = pipelineWall;
+        }
+
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory '" + parent + "'.");
+        }
+
+        Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8);
+        try {
+            out.append("{\n");
+            out.append("  \"version\": ").append(String.valueOf(FORMAT_VERSION)).append(",\n");
+            out.append("  \"timestamp\": \"").append(fmt.format(new Date())).append("\",\n");
+            out.append("  \"threads\": ").append(String.valueOf(Threads)).append(",\n");
+            out.append("  \"wallMillis\": ").append(millis(wall)).append(",\n");
+            out.append("  \"files\": ").append(String.valueOf(recs.size())).append(",\n");
+            out.append("  \"bytes\": ").append(String.valueOf(bytes)).append(",\n");
+            out.append("  \"filesPerSecond\": ").append(rate(recs.size(), wall)).append(",\n");
+            out.append("  \"bytesPerSecond\": ").append(rate(bytes, wall)).append(",\n");
+
+            out.append("  \"stages\": {");
+            String sep = "\n";
+            for (Object[] st : this.stages) {
+                out.append(sep).append("    \"").append(escape((String) st[0])).append("\": { \"wallMillis\": ").append(millis((Long) st[1])).append(" }");
+                sep = ",\n";
+            }
+            out.append("\n  },\n");
+
+            out.append("  \"phases\": {");
+            sep = "\n";
+            for (Phase p : Phase.values()) {
+                out.append(sep).append("    \"").append(p.getKey()).append("\": { \"count\": ").append(String.valueOf(this.counts.get(p).sum()))
+                        .append(", \"totalMillis\": ").append(millis(this.nanos.get(p).sum())).append(" }");
+                sep = ",\n";
+            }
+            out.append("\n  },\n");
+
+            out.append("  \"parse\": {\n");
+            out.append("    \"filesPerSecond\": ").append(rate(recs.size(), parseWall)).append(",\n");
+            out.append("    \"bytesPerSecond\": ").append(rate(bytes, parseWall)).append(",\n");
+            out.append("    \"p50Millis\": ").append(millis(percentile(recs, 50))).append(",\n");
+            out.append("    \"p90Millis\": ").append(millis(percentile(recs, 90))).append(",\n");
+            out.append("    \"p99Millis\": ").append(millis(percentile(recs, 99))).append(",\n");
+            out.append("    \"maxMillis\": ").append(millis(recs.isEmpty() ? 0 : recs.get(0).nanos)).append("\n");
+            out.append("  },\n");
+
+            out.append("  \"slowestFiles\": [");
+            sep = "\n";
+            for (int i = 0; i < recs.size() && i < this.slowestFiles; i++) {
+                FileRecord rec = recs.get(i);
+                out.append(sep).append("    { \"file\": \"").append(escape(rec.fileName)).append("\", \"bytes\": ").append(String.valueOf(rec.bytes))
+                        .append(", \"millis\": ").append(millis(rec.nanos)).append(" }");
+                sep = ",\n";
+            }
+            out.append(recs.isEmpty() ? "]\n" : "\n  ]\n");
+            out.append("}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Gets the percentile of the provided records sorted slowest first.
+     */
+    private static long percentile(List<FileRecord> recs, int pct) {
+        if (recs.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(pct / 100.0 * recs.size());
+        return recs.get(recs.size() - Math.max(rank, 1)).nanos;
+    }
+
+    private static String millis(long Nanos) {
+        return String.format(Locale.ROOT, "%.3f", Nanos / 1e6);
+    }
+
+    private static String rate(long amount, long Nanos) {
+        return String.format(Locale.ROOT, "%.1f", Nanos > 0 ? amount / (Nanos / 1e9) : 0.0);
+    }
+
+    private static String escape(String str) {
+        StringBuilder sb = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse time of a single file.
+     */
+    private static class FileRecord {
+        private final String fileName;
+        private final long bytes;
+        private final long nanos;
+
+        FileRecord(String FileName, long Bytes, long Nanos) {
+            this.fileName = FileName;
+            this.bytes = Bytes;
+            this.nanos = Nanos;
+        }
+    }
+}
@@ -18,18 +18,109 @@
 package com.lehman.knit;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Knit parser class implements the DW parser functionality.
  */
 public class KnitParser {
+    /**
+     * The parser version. This is part of the parse cache key, so it needs
+     * to be bumped whenever the parsed model for a given input changes.
+     */
+    public static final String PARSER_VERSION = "5";
+
+    /**
+     * Flag to read files memory mapped as UTF-8 instead of with Utility.read.
+     */
+    private final boolean memoryMapped;
+
+    /**
+     * The metrics to record parse phase timings in or null if not recorded.
+     */
+    private KnitMetrics metrics = null;
+
+    /**
+     * Flag to build a compact model.
+     */
+    private boolean compact = false;
+
+    /**
+     * Strings parsed after this many are shared aren't added, so the pool
+     * stays small however many modules one parser reads.
+     */
+    private static final int MAX_INTERNED = 16 * 1024;
+
+    /**
+     * The shared instances of names, keys, datatypes and table columns in compact mode.
+     */
+    private final Map<String, String> interned = new ConcurrentHashMap<String, String>();
+
     /**
      * Default constructor.
      */
-    public KnitParser() {}
+    public KnitParser() {
+        this(false);
+    }
+
+    /**
+     * Constructor with the read mode.
+     * @param MemoryMapped is a boolean with true to memory map source files and
+     * decode them as UTF-8, and false to read them with the platform default charset.
+     */
+    public KnitParser(boolean MemoryMapped) {
+        this.memoryMapped = MemoryMapped;
+    }
+
+    /**
+     * Returns true if this parser memory maps source files and decodes them as UTF-8.
+     * @return A boolean with true if memory mapped and false if not.
+     */
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
+    /**
+     * Sets the metrics to record read and parse phase timings in.
+     * @param Metrics is the KnitMetrics object or null to not record timings.
+     */
+    public void setMetrics(KnitMetrics Metrics) {
+        this.metrics = Metrics;
+    }
+
+    /**
+     * Gets the metrics parse phase timings are recorded in.
+     * @return A KnitMetrics object or null if not recorded.
+     */
+    public KnitMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Sets the compact model mode. In compact mode names, annotation keys,
+     * datatypes and table cells are shared between all parsed files,
+     * lists are trimmed to size and comment texts and annotation values
+     * are cut out of the comment string when requested instead of being
+     * stored as copies. The parsed model reads the same either way.
+     * @param Compact is a boolean with true to build a compact model.
+     */
+    public void setCompact(boolean Compact) {
+        this.compact = Compact;
+    }
+
+    /**
+     * Returns true if this parser builds a compact model.
+     * @return A boolean with true if compact and false if not.
+     */
+    public boolean isCompact() {
+        return this.compact;
+    }
 
     /**
      * Parses a DW file with the provided root directory name and file name
@@ -41,195 +132,591 @@ public class KnitParser {
      * @throws IOException
      */
     public DataWeaveFile parseFile(String rootDirName, String fileName, String dwlFileExt) throws IOException {
-        DataWeaveFile ret = new DataWeaveFile(fileName.replaceFirst(rootDirName, ""), dwlFileExt);
-        String fileStr = Utility.read(fileName);
-        this.parseModuleComment(fileStr, ret);
-        ret.setVariables(this.parseVariables(fileStr));
-        ret.setFunctions(this.parseFunctions(fileStr));
-        ret.setTables(this.parseTables(fileStr));
+        DataWeaveFile ret = new DataWeaveFile(Utility.relativeName(fileName, rootDirName), dwlFileExt);
+        this.parseText(this.read(fileName), ret);
         return ret;
     }
 
     /**
-     * Parses the module comment with the provided file contents
-     * and sets the comment information in the provided dwFile object.
-     * @param text is a String with the file contents.
-     * @param ret is the return dwFile object to set the comment information in.
+     * Parses the provided raw contents of a DW file, like an archive entry
+     * that isn't on disk, and returns the parsed dwFile object.
+     * @param rootDirName is a String with the root directory of the file to parse.
+     * @param fileName is a String with the file name to parse.
+     * @param data is a ByteBuffer with the raw file contents.
+     * @param dwlFileExt is a String with the DataWeave file extension. (Default dwl)
+     * @return A dwParse object.
+     * @throws IOException on decoder failure.
      */
-    private void parseModuleComment(String text, DataWeaveFile ret) {
-        // Get the module section.
-        String funPatternStr = "(\\/\\*\\*(.+?)\\*\\/\\s*%dw)";
-        Pattern r = Pattern.compile(funPatternStr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(text);
-        if (m.find()) {
-            String commentStr = m.group(2).toString();
-            ret.setCommentString(this.parseCommentString(commentStr).trim());
-            ret.setComment(this.parseComment(ret.getCommentString()));
+    public DataWeaveFile parseFile(String rootDirName, String fileName, ByteBuffer data, String dwlFileExt) throws IOException {
+        DataWeaveFile ret = new DataWeaveFile(Utility.relativeName(fileName, rootDirName), dwlFileExt);
+        this.parseText(this.read(data), ret);
+        return ret;
+    }
+
+    /**
+     * Parses only the module comment and imports of a DW file. Lexing stops
+     * at the first declaration or at the body separator, so this is much
+     * cheaper than parseFile() when only the module comment and imports are
+     * needed. Imports after the first declaration aren't included.
+     * @param rootDirName is a String with the root directory of the file to parse.
+     * @param fileName is a String with the file name to parse.
+     * @param dwlFileExt is a String with the DataWeave file extension. (Default dwl)
+     * @return A dwFile object with the module comment and imports set.
+     * @throws IOException
+     */
+    public DataWeaveFile parseHeader(String rootDirName, String fileName, String dwlFileExt) throws IOException {
+        DataWeaveFile ret = new DataWeaveFile(Utility.relativeName(fileName, rootDirName), dwlFileExt);
+        this.parseHeader(this.read(fileName), ret);
+        return ret;
+    }
+
+    /**
+     * Parses only the module comment and imports of the provided raw contents
+     * of a DW file. (See parseHeader())
+     * @param rootDirName is a String with the root directory of the file to parse.
+     * @param fileName is a String with the file name to parse.
+     * @param data is a ByteBuffer with the raw file contents.
+     * @param dwlFileExt is a String with the DataWeave file extension. (Default dwl)
+     * @return A dwFile object with the module comment and imports set.
+     * @throws IOException on decoder failure.
+     */
+    public DataWeaveFile parseHeader(String rootDirName, String fileName, ByteBuffer data, String dwlFileExt) throws IOException {
+        DataWeaveFile ret = new DataWeaveFile(Utility.relativeName(fileName, rootDirName), dwlFileExt);
+        this.parseHeader(this.read(data), ret);
+        return ret;
+    }
+
+    /**
+     * Sets the module comment and imports of the provided dwFile object from
+     * the provided DW source text.
+     * @param text is a CharSequence with the file contents.
+     * @param ret is the dwFile object to set the module comment and imports in.
+     */
+    private void parseHeader(CharSequence text, DataWeaveFile ret) {
+        ArrayList<String> imports = new ArrayList<String>();
+        DataWeaveLexer lexer = new DataWeaveLexer(text);
+        boolean moduleCommentSet = false;
+        DataWeaveLexer.Token doc = null;
+        DataWeaveLexer.Token tok;
+        while ((tok = lexer.next()) != null) {
+            DataWeaveLexer.Token tokDoc = (doc != null && tok.isAdjacent()) ? doc : null;
+            doc = null;
+
+            DataWeaveLexer.TokenType type = tok.getType();
+            if (type == DataWeaveLexer.TokenType.DOC_COMMENT) {
+                doc = tok;
+            } else if (type == DataWeaveLexer.TokenType.HEADER && tokDoc != null && !moduleCommentSet) {
+                this.setModuleComment(ret, tokDoc);
+                moduleCommentSet = true;
+            } else if (type == DataWeaveLexer.TokenType.IMPORT) {
+                this.addImport(imports, tok);
+            } else if (type != DataWeaveLexer.TokenType.HEADER) {
+                // A declaration or the body separator ends the imports.
+                break;
+            }
+        }
+        this.setImports(ret, imports);
+    }
+
+    /**
+     * Reads the provided file according to the read mode of this parser.
+     * @param fileName is a String with the file name to read.
+     * @return A CharSequence with the file contents.
+     * @throws IOException on IO exception.
+     */
+    private CharSequence read(String fileName) throws IOException {
+        long start = this.now();
+        CharSequence text = this.memoryMapped ? Utility.readMapped(fileName) : Utility.read(fileName);
+        this.time(KnitMetrics.Phase.READ, start);
+        return text;
+    }
+
+    /**
+     * Decodes the provided raw file contents and records the time as read time.
+     * @param data is a ByteBuffer with the raw file contents.
+     * @return A CharSequence with the file contents.
+     * @throws IOException on decoder failure.
+     */
+    private CharSequence read(ByteBuffer data) throws IOException {
+        long start = this.now();
+        CharSequence text = this.decode(data);
+        this.time(KnitMetrics.Phase.READ, start);
+        return text;
+    }
+
+    /**
+     * Decodes the provided raw file contents according to the read mode
+     * of this parser. The result can be passed to parseText().
+     * @param data is a ByteBuffer with the raw file contents.
+     * @return A CharSequence with the decoded text.
+     * @throws IOException on decoder failure.
+     */
+    public CharSequence decode(ByteBuffer data) throws IOException {
+        if (this.memoryMapped) {
+            return Utility.decode(data, StandardCharsets.UTF_8);
         }
+        return Charset.defaultCharset().decode(data.duplicate());
     }
 
     /**
-     * Parses the DW functions with the provided file text and returns an
-     * array of dwFunction object with the results.
-     * @param text is a String with the file text.
-     * @return An ArrayList of dwFunction objects with the function list.
+     * Gets the charset source files are decoded with, UTF-8 when memory
+     * mapped and the platform default charset otherwise.
+     * @return A Charset object.
      */
-    private ArrayList<DataWeaveFunction> parseFunctions(String text) {
-        ArrayList<DataWeaveFunction> ret = new ArrayList<DataWeaveFunction>();
+    public Charset getCharset() {
+        return this.memoryMapped ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+    }
 
-        // Get functions sections.
-        String funPatternStr = "(\\/\\*\\*[^\\/]+?\\*\\/\\s*fun\\s*\\w*\\s*\\(.*?\\))";
-        Pattern r = Pattern.compile(funPatternStr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(text);
-        while (m.find()) {
-            for (int i = 0; i < m.groupCount(); i++) {
-                ret.add(this.parseFunctionString(m.group(i).toString()));
+    /**
+     * Parses the provided DW source text in a single pass and sets the
+     * module comment, variables, functions and mapping tables in the
+     * provided dwFile object.
+     * @param text is a CharSequence with the file contents.
+     * @param ret is the dwFile object to set the parsed information in.
+     */
+    public void parseText(CharSequence text, DataWeaveFile ret) {
+        ArrayList<DataWeaveVariable> variables = new ArrayList<DataWeaveVariable>();
+        ArrayList<DataWeaveFunction> functions = new ArrayList<DataWeaveFunction>();
+        ArrayList<DataWeaveTable> tables = new ArrayList<DataWeaveTable>();
+        ArrayList<String> imports = new ArrayList<String>();
+
+        long start = this.now();
+        long staged = 0;
+
+        ret.setLineIndex(LineIndex.of(text));
+        DataWeaveLexer lexer = new DataWeaveLexer(text);
+        boolean inBody = false;
+        boolean moduleCommentSet = false;
+        DataWeaveLexer.Token doc = null;
+        DataWeaveLexer.Token tok;
+        while ((tok = lexer.next()) != null) {
+            // A doc comment only documents the token that directly follows it.
+            DataWeaveLexer.Token tokDoc = (doc != null && tok.isAdjacent()) ? doc : null;
+            doc = null;
+
+            switch (tok.getType()) {
+                case DOC_COMMENT:
+                    if (inBody) {
+                        long t = this.now();
+                        tables.add(this.parseTableString(tok));
+                        staged += this.time(KnitMetrics.Phase.TABLES, t);
+                    } else {
+                        doc = tok;
+                    }
+                    break;
+                case HEADER:
+                    if (tokDoc != null && !moduleCommentSet) {
+                        long t = this.now();
+                        this.setModuleComment(ret, tokDoc);
+                        moduleCommentSet = true;
+                        staged += this.time(KnitMetrics.Phase.MODULE_COMMENT, t);
+                    }
+                    break;
+                case VAR:
+                    if (tokDoc != null) {
+                        long t = this.now();
+                        variables.add(this.parseVariable(tokDoc, tok));
+                        staged += this.time(KnitMetrics.Phase.VARIABLES, t);
+                    }
+                    break;
+                case FUN:
+                    if (tokDoc != null) {
+                        long t = this.now();
+                        functions.add(this.parseFunction(tokDoc, tok));
+                        staged += this.time(KnitMetrics.Phase.FUNCTIONS, t);
+                    }
+                    break;
+                case IMPORT:
+                    this.addImport(imports, tok);
+                    break;
+                case BODY_SEPARATOR:
+                    inBody = true;
+                    break;
+                default:
+                    break;
             }
         }
 
-        return ret;
+        if (this.compact) {
+            variables.trimToSize();
+            functions.trimToSize();
+            tables.trimToSize();
+            ret.setName(this.intern(ret.getName()));
+            this.internAll(ret.getModulePath());
+        }
+        ret.setVariables(variables);
+        ret.setFunctions(functions);
+        ret.setTables(tables);
+        this.setImports(ret, imports);
+
+        // What isn't spent in one of the stages is spent in the lexer.
+        if (this.metrics != null) {
+            this.metrics.add(KnitMetrics.Phase.LEX, System.nanoTime() - start - staged);
+        }
     }
 
     /**
-     * Parses each individual function text and returns a dwFunction
-     * object with the result.
-     * @param functionString is a String with the function text.
-     * @return A dwFunction object with the result.
+     * Returns the current time if metrics are recorded.
      */
-    private DataWeaveFunction parseFunctionString(String functionString) {
-        DataWeaveFunction funct = new DataWeaveFunction();
+    private long now() {
+        return this.metrics != null ? System.nanoTime() : 0;
+    }
 
-        String funPatternStr = "\\/\\*\\*(.+?)\\*\\/\\s*fun\\s*(\\w*)\\s*\\((.*?)\\)";
-        Pattern r = Pattern.compile(funPatternStr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(functionString);
-        while (m.find()) {
-            funct.setCommentString(this.parseCommentString(m.group(1).toString()).trim());
-            funct.setName(m.group(2).toString());
-            funct.setComment(this.parseComment(funct.getCommentString()));
-            funct.setTable(this.parseAnnotationTable(funct.getComment()));
-            funct.setArguments(this.parseArguments(m.group(3).toString()));
+    /**
+     * Gets the shared instance of the provided string in compact mode. Once
+     * the pool is full only strings already in it are shared.
+     * @param str is the String to intern or null.
+     * @return A String equal to str.
+     */
+    private String intern(String str) {
+        if (!this.compact || str == null) {
+            return str;
+        }
+        String ret = this.interned.get(str);
+        if (ret != null) {
+            return ret;
+        }
+        if (this.interned.size() >= MAX_INTERNED) {
+            return str;
         }
+        ret = this.interned.putIfAbsent(str, str);
+        return ret != null ? ret : str;
+    }
 
-        return funct;
+    /**
+     * Replaces the strings of the provided list with their shared instances
+     * in compact mode and trims the list.
+     * @param list is the List of Strings to intern.
+     */
+    private void internAll(List<String> list) {
+        if (!this.compact) {
+            return;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            list.set(i, this.intern(list.get(i)));
+        }
+        if (list instanceof ArrayList) {
+            ((ArrayList<String>) list).trimToSize();
+        }
     }
 
     /**
-     * Parses the remaining mapping tables and returns an
-     * array of mapping table objects with the results.
-     * @param text is a String with the file text.
-     * @return An ArrayList of DataWeave Table objects with the mapping tables.
+     * Records the time since start in the provided phase if metrics are recorded.
+     * @return A long with the elapsed nanoseconds.
      */
-    private ArrayList<DataWeaveTable> parseTables(String text) {
-        ArrayList<DataWeaveTable> ret = new ArrayList<DataWeaveTable>();
+    private long time(KnitMetrics.Phase phase, long start) {
+        if (this.metrics == null) {
+            return 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        this.metrics.add(phase, elapsed);
+        return elapsed;
+    }
 
-        // Skip to the main body of the script; if no body then nothing to parse
-        int bodyIdx = text.indexOf("---");
-        if(bodyIdx >= 0) {
-	        String bodyStr = text.substring(bodyIdx + 3);
-	        String tablePatternStr = "\\/\\*\\*([^\\/]+?)\\*\\/";
-	        Pattern r = Pattern.compile(tablePatternStr, Pattern.DOTALL | Pattern.MULTILINE);
-	        Matcher m = r.matcher(bodyStr);
-	        while (m.find()) {
-	            ret.add(this.parseTableString(m.group(1).toString()));
-	        }
+    /**
+     * Adds the module imported by the provided IMPORT token to the provided
+     * list unless it's already in it.
+     * @param imports is an ArrayList of Strings with the imported module names.
+     * @param tok is the IMPORT token.
+     */
+    private void addImport(ArrayList<String> imports, DataWeaveLexer.Token tok) {
+        String module = parseImport(tok.getText());
+        if (module != null && !imports.contains(module)) {
+            imports.add(this.intern(module));
         }
-        return ret;
+    }
+
+    /**
+     * Sets the provided imports in the provided dwFile object.
+     */
+    private void setImports(DataWeaveFile ret, ArrayList<String> imports) {
+        if (this.compact) {
+            imports.trimToSize();
+        }
+        ret.setImports(imports);
+    }
+
+    /**
+     * Gets the imported module name of an import statement. The module is the
+     * word after from (import a, b from dw::core::Strings) or the first word if
+     * there is no from. (import dw::core::Strings) An alias (as S) and a
+     * trailing line comment are ignored.
+     * @param str is a String with the import statement after the import keyword.
+     * @return A String with the qualified module name or null if there is none.
+     */
+    static String parseImport(String str) {
+        int len = str.indexOf("//") >= 0 ? str.indexOf("//") : str.length();
+        String first = null;
+        int i = 0;
+        while (i < len) {
+            char c = str.charAt(i);
+            if (isSpaceChar(c) || c == ',') {
+                i++;
+                continue;
+            }
+            int wordStart = i;
+            while (i < len && !isSpaceChar(str.charAt(i)) && str.charAt(i) != ',') i++;
+            String word = str.substring(wordStart, i);
+            if (first == null) {
+                first = word;
+            } else if (word.equals("from")) {
+                // The module follows from, anything before it are the imported names.
+                while (i < len && isSpaceChar(str.charAt(i))) i++;
+                wordStart = i;
+                while (i < len && !isSpaceChar(str.charAt(i)) && str.charAt(i) != ',') i++;
+                return i > wordStart ? str.substring(wordStart, i) : null;
+            }
+        }
+        return first != null && !first.equals("*") ? first : null;
+    }
+
+    /**
+     * Sets the module comment of the provided dwFile object.
+     * @param ret is the dwFile object to set the comment in.
+     * @param doc is the DOC_COMMENT token that precedes the header.
+     */
+    private void setModuleComment(DataWeaveFile ret, DataWeaveLexer.Token doc) {
+        ret.setCommentString(TextNormalizer.destar(doc.getText()));
+        ret.setComment(this.parseComment(ret.getCommentString(), doc));
+    }
+
+    /**
+     * Builds a dwFunction object with the provided doc comment text and
+     * fun token.
+     * @param doc is the DOC_COMMENT token that precedes the function.
+     * @param tok is the FUN token with the function name and arguments.
+     * @return A dwFunction object with the result.
+     */
+    private DataWeaveFunction parseFunction(DataWeaveLexer.Token doc, DataWeaveLexer.Token tok) {
+        DataWeaveFunction funct = new DataWeaveFunction();
+        funct.setCommentString(TextNormalizer.destar(doc.getText()));
+        funct.setName(this.intern(tok.getName()));
+        funct.setPosition(tok.getStart(), tok.getEnd());
+        funct.setComment(this.parseComment(funct.getCommentString(), doc));
+        long t = this.now();
+        funct.setTable(this.parseAnnotationTable(funct.getComment()));
+        this.time(KnitMetrics.Phase.ANNOTATION_TABLES, t);
+        funct.setArguments(this.parseArguments(tok.getText()));
+        return funct;
     }
 
     /**
      * Parses each individual mapping table comment and returns a DataWeaveTable
      * object with the result.
-     * @param tableString is a String with the mapping table text.
+     * @param doc is the DOC_COMMENT token with the mapping table.
      * @return A DataWeaveTable object with the result.
      */
-    private DataWeaveTable parseTableString(String tableString) {
+    private DataWeaveTable parseTableString(DataWeaveLexer.Token doc) {
         DataWeaveTable table = new DataWeaveTable();
 
-        table.setCommentString(this.parseCommentString(tableString).trim());
-        table.setComment(this.parseComment(table.getCommentString()));
+        table.setCommentString(TextNormalizer.destar(doc.getText()));
+        table.setPosition(doc.getStart(), doc.getEnd());
+        table.setComment(this.parseComment(table.getCommentString(), doc));
+        long t = this.now();
         table.setTable(this.parseAnnotationTable(table.getComment()));
+        this.time(KnitMetrics.Phase.ANNOTATION_TABLES, t);
         return table;
     }
 
     /**
-     * Processes the provided comment block line by line replacing any space
-     * and * characters preceding the text.
-     * @param str is a comment block to process.
-     * @return A String with the leading space and * removed.
+     * Parses the actual comment block and returns a dwComment object with the result.
+     * Everything before the first line that starts with @ is the comment text and
+     * everything from there on are annotations.
+     * @param str is the comment string to parse.
+     * @return A dwComment object with the result.
      */
-    private String parseCommentString(String str) {
-        String ret = "";
-
-        for (String line : str.toString().split(System.lineSeparator())) {
-            ret += line.replaceFirst("^\\s*\\*\\s*", "") + System.lineSeparator();
-        }
-
-        return ret;
+    DataWeaveComment parseComment(String str) {
+        return this.parseComment(str, null);
     }
 
     /**
-     * Parses the actual comment block and returns a dwComment object with the result.
+     * Parses the actual comment block and returns a dwComment object with the
+     * result. (See parseComment(String)) Annotation source offsets are set if
+     * the DOC_COMMENT token the comment string was built from is provided.
      * @param str is the comment string to parse.
+     * @param doc is the DOC_COMMENT token of the comment or null.
      * @return A dwComment object with the result.
      */
-    private DataWeaveComment parseComment(String str) {
+    private DataWeaveComment parseComment(String str, DataWeaveLexer.Token doc) {
         DataWeaveComment comment = new DataWeaveComment();
 
-        String pstr = "(.*?)(^@.*)";
+        int annStart = -1;
+        for (int i = 0; i < str.length(); i = nextLine(str, i)) {
+            if (str.charAt(i) == '@') {
+                annStart = i;
+                break;
+            }
+        }
 
-        Pattern r = Pattern.compile(pstr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(str);
-        if (m.find()) {
-            comment.setText(m.group(1).toString());
-            String annStr = m.group(2).toString();
-            comment.setAnnotations(this.parseAnnotations(annStr));
+        if (this.compact) {
+            comment.setText(str, annStart >= 0 ? annStart : str.length());
         } else {
-            comment.setText(str);
+            comment.setText(annStart >= 0 ? str.substring(0, annStart) : str);
+        }
+        if (annStart >= 0) {
+            SourceMap map = doc == null ? null : new SourceMap(str, doc);
+            comment.setAnnotations(this.parseAnnotations(str, annStart, map));
         }
 
         return comment;
     }
 
     /**
-     * Parses the provided comment string and returns a list of annotations.
+     * Parses the provided comment string and returns a list of annotations. The
+     * string is scanned once line by line. A line that starts with @name followed
+     * by whitespace or the end of the comment starts a new annotation, any other
+     * line (including lines with @ characters elsewhere) continues the value of
+     * the current one.
      * @param str is a comment string to parse.
+     * @param from is an int with the start of the first annotation line.
+     * @param map is the SourceMap to set annotation source offsets with or null.
      * @return An ArrayList of dwCommentAnnotation objects.
      */
-    private ArrayList<DataWeaveCommentAnnotation> parseAnnotations(String str) {
+    private ArrayList<DataWeaveCommentAnnotation> parseAnnotations(String str, int from, SourceMap map) {
         ArrayList<DataWeaveCommentAnnotation> ret = new ArrayList<DataWeaveCommentAnnotation>();
-        String pstr = "^@(\\w+)\\s(.*?(?=@))";
-        Pattern r = Pattern.compile(pstr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(str + System.lineSeparator() + "@");
-        while (m.find()) {
-            DataWeaveCommentAnnotation ann = new DataWeaveCommentAnnotation();
-            ann.setName(m.group(1).toString());
-            String kvStr = m.group(2).toString();
-            if (ann.getName().equals("param")) {
-                this.parseAnnotationValue(kvStr, ann);
-            } else {
-                ann.setValue(kvStr);
+
+        DataWeaveCommentAnnotation ann = null;
+        int annStart = from;
+        int valueStart = from;
+        for (int i = from; i < str.length(); i = nextLine(str, i)) {
+            if (str.charAt(i) != '@') {
+                continue;
+            }
+
+            int nameEnd = i + 1;
+            while (nameEnd < str.length() && isWordChar(str.charAt(nameEnd))) nameEnd++;
+            if (nameEnd == i + 1 || (nameEnd < str.length() && !isSpaceChar(str.charAt(nameEnd)))) {
+                continue;
             }
+
+            if (ann != null) {
+                this.setAnnotationValue(ann, str, valueStart, i, false);
+                setPosition(ann, str, annStart, i, map);
+                ret.add(ann);
+            }
+            ann = new DataWeaveCommentAnnotation();
+            ann.setName(this.intern(str.substring(i + 1, nameEnd)));
+            annStart = i;
+            valueStart = nameEnd + 1;
+        }
+
+        if (ann != null) {
+            this.setAnnotationValue(ann, str, valueStart, str.length(), true);
+            setPosition(ann, str, annStart, str.length(), map);
             ret.add(ann);
         }
+
+        if (this.compact) {
+            ret.trimToSize();
+        }
         return ret;
     }
 
+    /**
+     * Sets the value of the provided annotation. For param annotations the
+     * first word is split off as the key.
+     * @param ann is a dwCommentAnnotation object to update.
+     * @param str is the comment String the annotation text is in.
+     * @param start is an int with the start of the annotation text. It is past the
+     * end for an annotation name at the end of the comment, whose whitespace is then
+     * the first character of the appended line separator.
+     * @param end is an int with the end of the annotation text.
+     * @param newLine is a boolean with true to append a line separator to the annotation text.
+     */
+    private void setAnnotationValue(DataWeaveCommentAnnotation ann, String str, int start, int end, boolean newLine) {
+        String kvStr;
+        if (start > end) {
+            kvStr = newLine ? System.lineSeparator().substring(start - end) : "";
+        } else {
+            kvStr = newLine ? str.substring(start, end) + System.lineSeparator() : str.substring(start, end);
+        }
+        if (ann.getName().equals("param")) {
+            this.parseAnnotationValue(kvStr, ann);
+        } else {
+            ann.setValue(kvStr);
+        }
+
+        if (this.compact) {
+            // The value is a suffix of the annotation text, so it can point
+            // into the comment string unless it is only the line separator.
+            int valueStart = start + kvStr.length() - ann.getValue().length();
+            if (valueStart < end) {
+                ann.setValue(str, valueStart, end, newLine);
+            }
+            ann.setKey(this.intern(ann.getKey()));
+        }
+    }
+
+    /**
+     * Sets the source offsets of the provided annotation from its offsets in
+     * the comment string. Trailing whitespace isn't part of the annotation.
+     * @param ann is a dwCommentAnnotation object to update.
+     * @param str is the comment String the annotation text is in.
+     * @param start is an int with the offset of the @ in the comment string.
+     * @param end is an int with the end of the annotation text in the comment string.
+     * @param map is the SourceMap of the comment or null.
+     */
+    private static void setPosition(DataWeaveCommentAnnotation ann, String str, int start, int end, SourceMap map) {
+        if (map == null) {
+            return;
+        }
+        while (end > start && str.charAt(end - 1) <= ' ') end--;
+        ann.setPosition(map.map(start), map.map(end));
+    }
+
     /**
      * Parses the annotation value for param type annotations with the
      * provided annotation string and dwCommentAnnotation object to update.
+     * The key is the first word that is followed by whitespace and the
+     * value is everything after that whitespace character.
      * @param str is a String with the annotation text.
      * @param ann is a dwCommentAnnotation object to update.
      */
     private void parseAnnotationValue(String str, DataWeaveCommentAnnotation ann) {
-        String pstr = "(\\w+)\\s(.*)";
-        Pattern r = Pattern.compile(pstr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(str);
-        if (m.find()) {
-            ann.setKey(m.group(1).toString());
-            ann.setValue(m.group(2).toString());
+        int i = 0;
+        while (i < str.length()) {
+            if (!isWordChar(str.charAt(i))) {
+                i++;
+                continue;
+            }
+            int wordStart = i;
+            while (i < str.length() && isWordChar(str.charAt(i))) i++;
+            if (i < str.length() && isSpaceChar(str.charAt(i))) {
+                ann.setKey(str.substring(wordStart, i));
+                ann.setValue(str.substring(i + 1));
+                return;
+            }
         }
     }
 
+    /**
+     * Returns the index of the start of the line following the provided index.
+     * @param str is the String to scan.
+     * @param from is an int with the index to start from.
+     * @return An int with the start of the next line or the String length.
+     */
+    private static int nextLine(String str, int from) {
+        int i = from;
+        while (i < str.length() && str.charAt(i) != '\n' && str.charAt(i) != '\r') i++;
+        if (i < str.length() && str.charAt(i) == '\r') i++;
+        if (i < str.length() && str.charAt(i) == '\n') i++;
+        return i;
+    }
+
+    /**
+     * Returns true if the provided character is a word character. (regex \w)
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Returns true if the provided character is a whitespace character. (regex \s)
+     */
+    private static boolean isSpaceChar(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
     /**
      * Parses the function arguments and returns a list of dwArgument objects
      * as the result.
@@ -244,55 +731,32 @@ public class KnitParser {
             if (part.contains(":")) {
                 String argParts[] = part.split(":");
 
-                arg.setName(argParts[0].trim());
-                arg.setDatatype(argParts[1].trim());
+                arg.setName(this.intern(argParts[0].trim()));
+                arg.setDatatype(this.intern(argParts[1].trim()));
             } else {
-                arg.setName(part.trim());
+                arg.setName(this.intern(part.trim()));
             }
             args.add(arg);
         }
-        return args;
-    }
-
-    /**
-     * Parses the provided file text and returns a list of dwVariable
-     * objects as the result.
-     * @param text is a String with the file text.
-     * @return An ArrayList of dwVariable objects.
-     */
-    private ArrayList<DataWeaveVariable> parseVariables(String text) {
-        ArrayList<DataWeaveVariable> variables = new ArrayList<DataWeaveVariable>();
-
-        // Get functions sections.
-        String funPatternStr = "(\\/\\*\\*[^\\/]+?\\*\\/\\s*var\\s*\\w*)";
-        Pattern r = Pattern.compile(funPatternStr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(text);
-        while (m.find()) {
-            for (int i = 0; i < m.groupCount(); i++) {
-                variables.add(this.parseVariableString(m.group(i).toString()));
-            }
+        if (this.compact) {
+            args.trimToSize();
         }
-
-        return variables;
+        return args;
     }
 
     /**
-     * Parses the provided variable string and returns a dwVariable object.
-     * @param variableString is a String with the variable text.
+     * Builds a dwVariable object with the provided doc comment text and
+     * var token.
+     * @param doc is the DOC_COMMENT token that precedes the variable.
+     * @param tok is the VAR token with the variable name.
      * @return A dwVariable object with the result.
      */
-    private DataWeaveVariable parseVariableString(String variableString) {
+    private DataWeaveVariable parseVariable(DataWeaveLexer.Token doc, DataWeaveLexer.Token tok) {
         DataWeaveVariable var = new DataWeaveVariable();
-
-        String varPatternStr = "\\/\\*\\*(.+?)\\*\\/\\s*var\\s*(\\w*)";
-        Pattern r = Pattern.compile(varPatternStr, Pattern.DOTALL | Pattern.MULTILINE);
-        Matcher m = r.matcher(variableString);
-        while (m.find()) {
-            var.setCommentString(this.parseCommentString(m.group(1).toString()).trim());
-            var.setName(m.group(2).toString());
-            var.setComment(this.parseComment(var.getCommentString()));
-        }
-
+        var.setCommentString(TextNormalizer.destar(doc.getText()));
+        var.setName(this.intern(tok.getName()));
+        var.setPosition(tok.getStart(), tok.getEnd());
+        var.setComment(this.parseComment(var.getCommentString(), doc));
         return var;
     }
 
@@ -310,12 +774,8 @@ public class KnitParser {
             if (ann.getName().toLowerCase().equals("table")) {
                 tbl = new AnnotationTable();
 
-                ArrayList<String> cols = new ArrayList<String>();
-
-                for (String col : Utility.fromArray(ann.getValue().split("(?<!\\\\\\\\),"))) {
-                    cols.add(col.replaceAll(System.lineSeparator(), ""));
-                }
-
+                ArrayList<String> cols = TextNormalizer.splitCells(ann.getValue(), false, true);
+                this.internAll(cols);
                 tbl.setColumns(cols);
                 break;
             }
@@ -328,19 +788,52 @@ public class KnitParser {
                 if (ann.getName().toLowerCase().equals("row")) {
                     AnnotationRow row = new AnnotationRow();
 
-                    ArrayList<String> fields = new ArrayList<String>();
-                    for (String str : ann.getValue().split("(?<!\\\\\\\\),")) {
-                        // Replace escaped commas.
-                        fields.add(str.replaceAll("\\\\\\\\,", ",").replaceAll(System.lineSeparator(), ""));
+                    // Escaped commas are replaced.
+                    // Cells are mostly distinct, so they aren't shared.
+                    ArrayList<String> fields = TextNormalizer.splitCells(ann.getValue(), true, false);
+                    if (this.compact) {
+                        fields.trimToSize();
                     }
-
                     row.setFields(fields);
                     rows.add(row);
                 }
             }
+            if (this.compact) {
+                rows.trimToSize();
+            }
             tbl.setRows(rows);
         }
 
         return tbl;
     }
+
+    /**
+     * Maps offsets in a comment string back to the source. Lines of the
+     * comment string are lines of the comment block with the leading * and
+     * whitespace removed, so an offset maps to the start of its line in the
+     * source plus its column. Offsets have to be mapped in ascending order,
+     * the current line is kept so the comment string is only scanned once.
+     */
+    private static final class SourceMap {
+        private static final String NL = System.lineSeparator();
+        private final String str;
+        private final int[] lineStarts;
+        private int line = 0;
+        private int lineStart = 0;
+
+        SourceMap(String Str, DataWeaveLexer.Token Doc) {
+            this.str = Str;
+            // The comment body follows the /** of the token.
+            this.lineStarts = TextNormalizer.destarLineStarts(Doc.getText(), Doc.getStart() + 3);
+        }
+
+        int map(int offset) {
+            int eol;
+            while ((eol = this.str.indexOf(NL, this.lineStart)) >= 0 && eol + NL.length() <= offset) {
+                this.line++;
+                this.lineStart = eol + NL.length();
+            }
+            return this.line < this.lineStarts.length ? this.lineStarts[this.line] + offset - this.lineStart : -1;
+        }
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The line start offsets of a source file. The index is built once per
+ * file in a single pass and is a single int array, and maps the source
+ * offsets kept in the model to line and column by binary search. Lines
+ * end with \n, so \r\n line endings count as one line break. Lines and
+ * columns start at 1 like in an editor.
+ */
+public final class LineIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The start offset of each line.
+     */
+    private final int[] starts;
+
+    /**
+     * The length of the source.
+     */
+    private final int length;
+
+    private LineIndex(int[] Starts, int Length) {
+        this.starts = Starts;
+        this.length = Length;
+    }
+
+    /**
+     * Builds the line index of the provided source text.
+     * @param text is a CharSequence with the source text.
+     * @return A LineIndex object.
+     */
+    public static LineIndex of(CharSequence text) {
+        int len = text.length();
+        int[] starts = new int[Math.max(16, len / 32)];
+        int count = 1;
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        return new LineIndex(count == starts.length ? starts : Arrays.copyOf(starts, count), len);
+    }
+
+    /**
+     * Gets the number of lines.
+     * @return An int with the line count.
+     */
+    public int getLineCount() {
+        return this.starts.length;
+    }
+
+    /**
+     * Gets the line of the provided offset.
+     * @param offset is an int with the source offset.
+     * @return An int with the line starting at 1.
+     * @throws IndexOutOfBoundsException if the offset isn't in the source.
+     */
+    public int getLine(int offset) {
+        if (offset < 0 || offset > this.length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " isn't in the source. (length " + this.length + ")");
+        }
+        int idx = Arrays.binarySearch(this.starts, offset);
+        return idx >= 0 ? idx + 1 : -idx - 1;
+    }
+
+    /**
+     * Gets the column of the provided offset.
+     * @param offset is an int with the source offset.
+     * @return An int with the column starting at 1.
+     * @throws IndexOutOfBoundsException if the offset isn't in the source.
+     */
+    public int getColumn(int offset) {
+        return offset - this.starts[this.getLine(offset) - 1] + 1;
+    }
+
+    /**
+     * Gets the start offset of the provided line.
+     * @param line is an int with the line starting at 1.
+     * @return An int with the start offset.
+     * @throws IndexOutOfBoundsException if there is no such line.
+     */
+    public int getLineStart(int line) {
+        return this.starts[line - 1];
+    }
+}
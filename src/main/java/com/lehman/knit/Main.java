@@ -18,24 +18,46 @@
 package com.lehman.knit;
 
 import org.apache.commons.lang3.SystemUtils;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.model.Build;
 import org.apache.maven.model.Model;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
+import org.sonatype.plexus.build.incremental.BuildContext;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 /**
  * The main entry point class implements the normal main
  * function as well as the Mojo execute function for
  * Maven plugin support.
  */
-@Mojo(name = "knit", defaultPhase = LifecyclePhase.PACKAGE)
+@Mojo(name = "knit", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true)
 public class Main extends AbstractMojo {
     /**
      * This isn't used but there in case it's needed later. It provides
@@ -44,6 +66,20 @@ public class Main extends AbstractMojo {
     @Parameter(defaultValue = "${project}", required = true, readonly = true)
     MavenProject project;
 
+    /**
+     * The plugin descriptor, used for the plugin version in the
+     * up to date check.
+     */
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    PluginDescriptor plugin;
+
+    /**
+     * The build context. In incremental IDE builds this tells if any
+     * of the inputs changed.
+     */
+    @Component
+    BuildContext buildContext;
+
     /**
      * Maven config value skip.
      * Flag to run the doc parser/generator. This is the on/off switch for the Maven plugin..
@@ -65,6 +101,29 @@ public class Main extends AbstractMojo {
     @Parameter(property = "directories")
     String[] directories = new String[]{ "src/main/resources/dwl" };
 
+    /**
+     * Maven config value archives.
+     * A list of jar or zip files to parse the DW entries of.
+     */
+    @Parameter(property = "archives")
+    String[] archives = new String[0];
+
+    /**
+     * Maven config value scanDependencies.
+     * Flag to parse the DW entries of the resolved project dependency archives.
+     * Only the knit-dependencies goal resolves the dependencies.
+     */
+    @Parameter(property = "scanDependencies")
+    boolean scanDependencies = false;
+
+    /**
+     * Maven config value dependencyGroupIds.
+     * The group ids of the dependencies to scan. Sub groups are included.
+     * Empty scans all dependencies.
+     */
+    @Parameter(property = "dependencyGroupIds")
+    String[] dependencyGroupIds = new String[0];
+
     /**
      * Maven config value consolidateOutput.
      * Flag to switch between files for each module and a single output file.
@@ -72,6 +131,14 @@ public class Main extends AbstractMojo {
     @Parameter(property = "consolidateOutput")
     boolean consolidateOutput = true;
 
+    /**
+     * Maven config value outputFormat.
+     * The format to write, markdown or html. The html format always
+     * writes a site with a page per module to outputDirectory.
+     */
+    @Parameter(property = "outputFormat")
+    String outputFormat = FORMAT_MARKDOWN;
+
     /**
      * Maven config value outputFile.
      * The output file to write to when consolidateOutput == true.
@@ -79,6 +146,14 @@ public class Main extends AbstractMojo {
     @Parameter(property = "outputFile")
     String outputFile = "target/knit-doc.md";
 
+    /**
+     * Maven config value outputDirectory.
+     * The directory to write the module documents and index to
+     * when consolidateOutput == false.
+     */
+    @Parameter(property = "outputDirectory")
+    String outputDirectory = "target/knit-doc";
+
     /**
      * Maven config value outputHeaderText.
      * If set this will be output in the document at
@@ -113,6 +188,24 @@ public class Main extends AbstractMojo {
     @Parameter(property = "moduleList")
     String[] moduleList = new String[0];
 
+    /**
+     * Maven config value moduleOrder.
+     * The order modules are written in. source keeps the order they are
+     * found in, dependencies writes imported modules before the modules
+     * that import them and entryPoints writes importing modules first.
+     * Modules in moduleList still come first.
+     */
+    @Parameter(property = "moduleOrder")
+    String moduleOrder = ORDER_SOURCE;
+
+    /**
+     * Maven config value moduleImports.
+     * Flag to list the modules each module imports and the modules
+     * that import it in the module documentation.
+     */
+    @Parameter(property = "moduleImports")
+    boolean moduleImports = false;
+
     /**
      * Maven config value dwlFileExt.
      * This provides the ability to define DataWeave files
@@ -128,6 +221,176 @@ public class Main extends AbstractMojo {
     @Parameter(property = "showAbout")
     boolean showAbout = false;
 
+    /**
+     * Maven config value memoryMappedRead.
+     * Flag to memory map DataWeave files and decode them as UTF-8
+     * instead of reading them with the platform default charset.
+     */
+    @Parameter(property = "memoryMappedRead")
+    boolean memoryMappedRead = true;
+
+    /**
+     * Maven config value compactModel.
+     * Flag to keep the parsed model compact in memory. Repeated names,
+     * datatypes and table columns are shared and comment texts aren't
+     * stored twice. Use this for very large source trees.
+     */
+    @Parameter(property = "compactModel")
+    boolean compactModel = false;
+
+    /**
+     * Maven config value useCache.
+     * Flag to reuse parse results of unchanged DataWeave files
+     * from previous builds.
+     */
+    @Parameter(property = "useCache")
+    boolean useCache = true;
+
+    /**
+     * Maven config value cacheDirectory.
+     * The directory the parse cache is stored in.
+     */
+    @Parameter(property = "cacheDirectory")
+    String cacheDirectory = "target/knit-cache";
+
+    /**
+     * Maven config value threads.
+     * The number of threads used to walk directories and parse
+     * files. The default is the number of available processors.
+     */
+    @Parameter(property = "threads")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maven config value metricsFile.
+     * The JSON file per phase timings and throughput are written
+     * to. Set to an empty string to not write metrics.
+     */
+    @Parameter(property = "metricsFile")
+    String metricsFile = "target/knit-metrics.json";
+
+    /**
+     * Maven config value indexFile.
+     * The binary knit-index file the parsed model of all modules is
+     * written to. It can be loaded with KnitIndexReader. Set to an
+     * empty string to not write the index.
+     */
+    @Parameter(property = "indexFile")
+    String indexFile = "target/knit-index.bin";
+
+    /**
+     * Maven config value searchIndex.
+     * Flag to write a full text search index (search-index.js) and a
+     * static search page (search.html) next to the documentation.
+     */
+    @Parameter(property = "searchIndex")
+    boolean searchIndex = true;
+
+    /**
+     * Maven config value sharedPool.
+     * Flag to run on a single pool shared by all knit executions in
+     * the build instead of a pool per execution. Use this with parallel
+     * reactor builds (-T) so modules don't oversubscribe the cores. The
+     * first execution sets the number of threads of the shared pool.
+     */
+    @Parameter(property = "sharedPool")
+    boolean sharedPool = false;
+
+    /**
+     * Maven config value upToDateCheck.
+     * Flag to skip doc generation when the input files, the configuration
+     * and the plugin version are the same as in the last run and the
+     * output still exists.
+     */
+    @Parameter(property = "upToDateCheck")
+    boolean upToDateCheck = true;
+
+    /**
+     * Maven config value pipeline.
+     * Flag to parse, render and write modules in a bounded pipeline so
+     * only a few parsed modules are held in memory at a time instead of
+     * all of them. Use this to document very large source trees with
+     * little memory.
+     */
+    @Parameter(property = "pipeline")
+    boolean pipeline = false;
+
+    /**
+     * Maven config value templateDirectory.
+     * Directory with templates that replace the Markdown layout. The
+     * templates are module.md, variable.md, function.md, table.md,
+     * annotation-table.md and header-table.md; missing ones use the
+     * default. Set to an empty string to use the built in writer.
+     */
+    @Parameter(property = "templateDirectory")
+    String templateDirectory = "";
+
+    /**
+     * The compiled templates for this execution or null if not configured.
+     */
+    protected TemplateDataWeaveDocWriterImpl.Templates templates = null;
+
+    /**
+     * The parse cache for this execution or null if disabled.
+     */
+    protected ParseCache cache = null;
+
+    /**
+     * The output manifest for this execution.
+     */
+    protected OutputManifest manifest = null;
+
+    /**
+     * The search index for this execution or null if disabled.
+     */
+    protected SearchIndex search = null;
+
+    /**
+     * The module order for this execution.
+     */
+    protected ModuleGraph.Order order = ModuleGraph.Order.SOURCE;
+
+    /**
+     * The module graph of the written modules or null if moduleOrder
+     * and moduleImports don't need it.
+     */
+    protected ModuleGraph graph = null;
+
+    /**
+     * The metrics for this execution or null if disabled.
+     */
+    private KnitMetrics metrics = null;
+
+    /**
+     * The outputFormat value for Markdown.
+     */
+    protected static final String FORMAT_MARKDOWN = "markdown";
+
+    /**
+     * The outputFormat value for an HTML site.
+     */
+    protected static final String FORMAT_HTML = "html";
+
+    /**
+     * The moduleOrder value to keep the order modules are found in.
+     */
+    protected static final String ORDER_SOURCE = "source";
+
+    /**
+     * The moduleOrder value to write imported modules first.
+     */
+    protected static final String ORDER_DEPENDENCIES = "dependencies";
+
+    /**
+     * The moduleOrder value to write importing modules first.
+     */
+    protected static final String ORDER_ENTRY_POINTS = "entryPoints";
+
+    /**
+     * The number of slowest files listed in the metrics file.
+     */
+    private static final int METRICS_SLOWEST_FILES = 10;
+
     /**
      * Accessor to set the directories. So as to not overwrite the initial value, this checks
      * to see if the provided list is > 0 before replacing.
@@ -141,6 +404,12 @@ public class Main extends AbstractMojo {
      */
     public void setFiles(String[] Files) { this.files = Files; }
 
+    /**
+     * Accessor to set the archives.
+     * @param Archives is an array of strings with the list of archives to parse.
+     */
+    public void setArchives(String[] Archives) { this.archives = Archives; }
+
     /**
      * Accessor to set the module list.
      * @param ModuleList is an array of strings with the module list specified.
@@ -154,109 +423,909 @@ public class Main extends AbstractMojo {
      * @throws Exception
      */
     public void parseDirectory(String dirName, ArrayList<DataWeaveFile> parsedFiles) throws Exception {
-        KnitParser parser = new KnitParser();
-        File dir = new File(dirName);
-        if (dir.exists()) {
-            if (dir.isDirectory()) {
-                for (String name : dir.list()) {
-                    String relName = dirName + "/" + name;
-                    File f = new File(relName);
-                    if (f.isFile() && relName.endsWith("." + dwlFileExt)) {
-                        parsedFiles.add(parser.parseFile(dirName, relName, dwlFileExt));
-                    } else if (f.isDirectory()) {
-                        parseDirectory(relName, parsedFiles);
-                    }
-                }
-            } else {
-                System.err.println("Provided directory '" + dirName + "' isn't a directory.");
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            SourceWalker walker = new SourceWalker(pool, dwlFileExt, this.getLog());
+            walker.addDirectory(dirName);
+            this.parseSources(pool, walker.walk(), parsedFiles);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parses the provided sources on the provided pool and adds the results
+     * to parsedFiles in the same order as the sources.
+     * @param pool is the ForkJoinPool to parse on.
+     * @param sources is a List of sources to parse.
+     * @param parsedFiles is an ArrayList of dwFile objects to store the parsed results.
+     * @throws Exception
+     */
+    protected void parseSources(ForkJoinPool pool, List<SourceWalker.Source> sources, ArrayList<DataWeaveFile> parsedFiles) throws Exception {
+        final KnitParser parser = this.createParser();
+        List<Future<DataWeaveFile>> results = new ArrayList<Future<DataWeaveFile>>();
+        for (final SourceWalker.Source src : sources) {
+            results.add(pool.submit(() -> this.parseFile(parser, src)));
+        }
+
+        try {
+            for (Future<DataWeaveFile> res : results) {
+                parsedFiles.add(res.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
             }
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a parser with the configured read and model modes.
+     * @return A KnitParser object.
+     */
+    protected KnitParser createParser() {
+        KnitParser parser = new KnitParser(this.memoryMappedRead);
+        parser.setMetrics(this.metrics);
+        parser.setCompact(this.compactModel);
+        return parser;
+    }
+
+    /**
+     * Parses a single DW file or archive entry, going through the parse cache if enabled.
+     * @param parser is the KnitParser to use.
+     * @param src is the Source to parse.
+     * @return A dwFile object with the result.
+     * @throws Exception
+     */
+    protected DataWeaveFile parseFile(KnitParser parser, SourceWalker.Source src) throws Exception {
+        long start = System.nanoTime();
+        DataWeaveFile ret;
+        if (src.getEntry() != null) {
+            ret = this.cache != null ? this.cache.parseEntry(parser, src, dwlFileExt)
+                    : parser.parseFile(src.getRootDirName(), src.getFileName(), src.readEntry(), dwlFileExt);
+        } else if (this.cache != null) {
+            ret = this.cache.parseFile(parser, src.getRootDirName(), src.getFileName(), dwlFileExt);
         } else {
-            System.err.println("Provided directory '" + dirName + "' doesn't exist.");
+            ret = parser.parseFile(src.getRootDirName(), src.getFileName(), dwlFileExt);
+        }
+        if (this.metrics != null) {
+            this.metrics.addFile(src.getFileName(), src.getSize(), System.nanoTime() - start);
+        }
+        return ret;
+    }
+
+    /**
+     * Parses only the module comment of a single DW file or archive entry.
+     * @param parser is the KnitParser to use.
+     * @param src is the Source to parse.
+     * @return A dwFile object with the module comment set.
+     * @throws IOException on IO exception.
+     */
+    private DataWeaveFile parseHeader(KnitParser parser, SourceWalker.Source src) throws IOException {
+        if (src.getEntry() != null) {
+            return parser.parseHeader(src.getRootDirName(), src.getFileName(), src.readEntry(), this.dwlFileExt);
         }
+        return parser.parseHeader(src.getRootDirName(), src.getFileName(), this.dwlFileExt);
     }
 
     /**
      * The entry point of the Maven plugin.
+     * @throws MojoExecutionException if the configuration is invalid or doc generation fails.
+     */
+    public void execute() throws MojoExecutionException {
+        if (this.showAbout) {
+            this.printAbout();
+        }
+
+        this.getLog().info("Running Knit doc generator ...");
+        if (this.skip) {
+            this.getLog().info("knit-maven-plugin skipping doc generation. (skip=true)");
+            return;
+        }
+
+        if (!this.hasInputs()) {
+            throw new MojoExecutionException("knit-maven-plugin <files>, <directories> or <archives> aren't specified.");
+        }
+
+        if (!FORMAT_MARKDOWN.equals(this.outputFormat) && !FORMAT_HTML.equals(this.outputFormat)) {
+            throw new MojoExecutionException("knit-maven-plugin <outputFormat> must be " + FORMAT_MARKDOWN + " or " + FORMAT_HTML
+                    + ", not '" + this.outputFormat + "'.");
+        }
+
+        this.loadModuleOrder();
+        this.loadTemplates();
+
+        if (this.buildContext != null && this.buildContext.isIncremental() && !this.hasInputDelta() && this.outputExists()) {
+            this.getLog().info("knit-maven-plugin no DataWeave files changed, skipping doc generation.");
+            return;
+        }
+
+        try {
+            this.writeDwFile();
+        } catch (Exception e) {
+            throw new MojoExecutionException("Bad news, the knit plugin ran into trouble. If it continues please report it at https://github.com/rsv-code/knit. ("
+                    + e.getMessage() + ")", e);
+        }
+    }
+
+    /**
+     * Writes the dataweave doc file.
+     * @throws Exception on parse or write failure.
      */
-    public void execute() {
-    	if( this.showAbout ) {
-    		this.printAbout();
-    	}
+    private void writeDwFile() throws Exception {
+        ArrayList<DataWeaveFile> parsedFiles = new ArrayList<DataWeaveFile>();
+        ForkJoinPool pool = null;
+        SourceWalker walker = null;
 
-    	System.out.println("Running Knit doc generator ...");
         try {
-            if (!this.skip) {
-                if (!this.consolidateOutput) {
-                    System.err.println("Error: knit-maven-plugin <consolidateOutput> is set to false but only single file is currently implemented.");
-                    System.exit(1);
+            if (!"".equals(this.metricsFile)) {
+                this.metrics = new KnitMetrics(METRICS_SLOWEST_FILES);
+            }
+            if (this.useCache) {
+                this.cache = new ParseCache(new File(this.getWorkingDirectory() + "/" + this.cacheDirectory));
+            }
+            if (this.searchIndex) {
+                this.search = new SearchIndex();
+            }
+
+            // Walk directories and files, then parse.
+            pool = this.sharedPool ? SharedPool.get(this.threads) : new ForkJoinPool(this.threads);
+            walker = this.createWalker(pool);
+            long start = System.nanoTime();
+            List<SourceWalker.Source> sources = walker.walk();
+            this.stage("walk", start);
+            if (this.metrics != null) {
+                this.metrics.add(KnitMetrics.Phase.WALK, System.nanoTime() - start);
+            }
+
+            this.manifest = new OutputManifest(new File(this.getWorkingDirectory() + "/" + this.cacheDirectory + "/outputs.properties"));
+            this.manifest.setMetrics(this.metrics);
+
+            BuildFingerprint fingerprint = null;
+            if (this.upToDateCheck) {
+                fingerprint = this.getFingerprint(sources);
+                if (fingerprint.isUnchanged() && this.outputExists() && this.manifest.outputsExist()) {
+                    this.getLog().info("knit-maven-plugin output is up to date, skipping doc generation.");
+                    return;
+                }
+                fingerprint.invalidate();
+            }
+
+            if (this.pipeline) {
+                start = System.nanoTime();
+                KnitIndexWriter index = "".equals(this.indexFile) ? null : new KnitIndexWriter();
+                try {
+                    List<DataWeaveFile> summaries = this.writePipelined(pool, sources, index);
+                    this.saveCache();
+                    this.writeSearch(summaries);
+                    this.pruneOutputs();
+                    this.manifest.save();
+                    if (index != null) {
+                        index.write(new File(this.getWorkingDirectory() + "/" + this.indexFile));
+                    }
+                } finally {
+                    if (index != null) {
+                        index.close();
+                    }
                 }
+                this.stage("pipeline", start);
+            } else {
+                start = System.nanoTime();
+                this.parseSources(pool, sources, parsedFiles);
+                this.stage("parse", start);
+                this.saveCache();
 
-                if (this.files.length > 0 || this.directories.length > 0) {
-                    this.writeDwFile();
+                start = System.nanoTime();
+                List<DataWeaveFile> ordered = this.orderModules(parsedFiles);
+                if (this.isHtml()) {
+                    this.writeSite(pool, ordered, ordered);
+                } else if (this.consolidateOutput) {
+                    this.writeConsolidated(ordered);
                 } else {
-                    System.err.println("Error: knit-maven-plugin <srcFiles> or <srcDirectories> aren't specified.");
-                    System.exit(1);
+                    this.writeModules(pool, ordered, ordered);
                 }
+                this.writeSearch(parsedFiles);
+                this.pruneOutputs();
+                this.manifest.save();
+                this.writeIndex(parsedFiles);
+                this.stage("output", start);
+            }
+            this.getLog().info("Output files: " + this.manifest.getWritten() + " written, " + this.manifest.getUnchanged() + " unchanged, "
+                    + this.manifest.getRemoved() + " removed.");
+            if (fingerprint != null) {
+                fingerprint.save();
+            }
+            if (this.buildContext != null) {
+                this.buildContext.refresh(new File(this.getWorkingDirectory() + "/" + (this.isConsolidated() ? this.outputFile : this.outputDirectory)));
+            }
+
+            if (this.metrics != null) {
+                this.metrics.write(new File(this.getWorkingDirectory() + "/" + this.metricsFile), this.threads);
+                this.getLog().info("Metrics have been written to '" + this.metricsFile + "'.");
+            }
+        } finally {
+            if (walker != null) {
+                walker.close();
+            }
+            if (pool != null && !this.sharedPool) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Saves the parse cache if enabled.
+     * @throws IOException on IO exception.
+     */
+    private void saveCache() throws IOException {
+        if (this.cache != null) {
+            this.cache.save();
+            this.getLog().info("Parse cache: " + this.cache.getHits() + " hits, " + this.cache.getMisses() + " misses.");
+        }
+    }
+
+    /**
+     * Parses, renders and writes the provided sources in a bounded pipeline,
+     * so only a window of parsed modules is held in memory at a time. Header
+     * tables, directory pages, anchors and the search index only need module
+     * summaries, which are kept instead. The single output file is written
+     * in moduleList and moduleOrder order; its header table comes first, so
+     * the module comments are read up front in that case. Module headers are
+     * also read up front when moduleOrder or moduleImports needs the imports
+     * before the modules are written.
+     * @param pool is the ForkJoinPool to parse, render and write on.
+     * @param sources is a List of sources in parse order.
+     * @param index is the KnitIndexWriter to add the parsed modules to or null.
+     * @return A List of dwFile objects with the module summaries in source order.
+     * @throws Exception on parse, render or write failure.
+     */
+    private List<DataWeaveFile> writePipelined(ForkJoinPool pool, List<SourceWalker.Source> sources, final KnitIndexWriter index) throws Exception {
+        final KnitParser parser = this.createParser();
+        final ModulePipeline pipeline = new ModulePipeline(pool, this.threads * 2);
+        final List<DataWeaveFile> summaries = new ArrayList<DataWeaveFile>(sources.size());
+
+        if (this.isConsolidated()) {
+            if (this.writeHeaderTable || this.needsGraph()) {
+                pipeline.run(sources, src -> this.parseHeader(parser, src),
+                        (i, dwf) -> summaries.add(dwf));
             } else {
-                System.out.println("Info: knit-maven-plugin skipping doc generation. (skip=true)");
+                for (SourceWalker.Source src : sources) {
+                    summaries.add(this.createModule(src));
+                }
             }
-        } catch (Exception e) {
-            System.err.println("Bad news, the knit plugin ran into trouble. If it continues please report it at https://github.com/rsv-code/knit." + System.lineSeparator());
-            e.printStackTrace();
+
+            // Listed modules first, then the rest in module order.
+            final SymbolTable symbols = new SymbolTable(summaries);
+            Set<DataWeaveFile> listed = symbols.findModules(Arrays.asList(this.moduleList), this.getLog());
+            Map<DataWeaveFile, SourceWalker.Source> sourceOf = new IdentityHashMap<DataWeaveFile, SourceWalker.Source>();
+            for (int i = 0; i < sources.size(); i++) {
+                sourceOf.put(summaries.get(i), sources.get(i));
+            }
+            List<DataWeaveFile> modules = this.orderModules(summaries);
+            final DataWeaveDocWriter writer = this.createWriter(false);
+            final List<DataWeaveFile> order = new ArrayList<DataWeaveFile>(listed);
+            for (DataWeaveFile dwf : modules) {
+                if (!listed.contains(dwf)) {
+                    order.add(dwf);
+                }
+            }
+            final List<SourceWalker.Source> ordered = new ArrayList<SourceWalker.Source>(order.size());
+            final Map<DataWeaveFile, Integer> position = new IdentityHashMap<DataWeaveFile, Integer>();
+            for (DataWeaveFile dwf : order) {
+                ordered.add(sourceOf.get(dwf));
+            }
+            for (int i = 0; i < summaries.size(); i++) {
+                position.put(summaries.get(i), i);
+            }
+            final int listedCount = listed.size();
+
+            this.manifest.write(this.getWorkingDirectory() + "/" + this.outputFile, out -> {
+                this.writeHeader(writer, order, out);
+                pipeline.run(ordered, src -> this.parseFile(parser, src), (i, dwf) -> {
+                    writer.writeModuleDoc(symbols, dwf, out);
+                    if (i < listedCount) {
+                        out.append(System.lineSeparator());
+                    }
+                    this.addToIndexes(position.get(order.get(i)), order.get(i), dwf, index);
+                });
+                this.writeFooter(out);
+            }, false);
+            this.getLog().info("Document has been written to '" + this.outputFile + "'.");
+            return summaries;
+        }
+
+        // Module documents list the modules importing them, so all imports are needed first.
+        // The headers have all the index and directory pages need.
+        List<DataWeaveFile> ordered = null;
+        if (this.moduleImports) {
+            final List<DataWeaveFile> headers = new ArrayList<DataWeaveFile>(sources.size());
+            pipeline.run(sources, src -> this.parseHeader(parser, src), (i, dwf) -> headers.add(dwf));
+            ordered = this.orderModules(headers);
+        }
+
+        final String outDir = this.getWorkingDirectory() + "/" + this.outputDirectory;
+        final HtmlDataWeaveDocWriterImpl htmlWriter = this.isHtml() ? this.createHtmlWriter() : null;
+        final DataWeaveDocWriter writer = htmlWriter != null ? htmlWriter : this.createWriter(true);
+
+        // Only the first module with an output file name is written.
+        final Set<SourceWalker.Source> duplicates = new HashSet<SourceWalker.Source>();
+        Set<String> seen = new HashSet<String>();
+        for (SourceWalker.Source src : sources) {
+            String relName = writer.getFileName(this.createModule(src));
+            if (!seen.add(relName)) {
+                this.getLog().warn("Module '" + relName + "' was found more than once, only the first one is written.");
+                duplicates.add(src);
+            }
+        }
+
+        pipeline.run(sources, src -> {
+            final DataWeaveFile dwf = this.parseFile(parser, src);
+            if (!duplicates.contains(src)) {
+                this.manifest.write(new File(outDir, writer.getFileName(dwf)).getPath(), out -> writer.writeDoc(dwf, out));
+            }
+            return dwf;
+        }, (i, dwf) -> {
+            DataWeaveFile summary = dwf.getSummary();
+            summaries.add(summary);
+            this.addToIndexes(i, summary, dwf, index);
+        });
+
+        if (ordered == null) {
+            ordered = this.orderModules(summaries);
         }
+        if (htmlWriter != null) {
+            ModuleOutputWriter output = new ModuleOutputWriter(pool, this.threads * 2, this.manifest, this.getLog());
+            new HtmlSiteWriter(output).write(htmlWriter, ordered, new ArrayList<DataWeaveFile>(), outDir,
+                    this.outputHeaderText, this.outputFooterText);
+            this.getLog().info(summaries.size() + " module pages and directory pages have been written to '" + this.outputDirectory + "'.");
+        } else {
+            this.writeModuleIndex(writer, ordered, outDir);
+            this.getLog().info(summaries.size() + " module documents and index have been written to '" + this.outputDirectory + "'.");
+        }
+        return summaries;
     }
 
     /**
-     * Writes the dataweave doc file.
+     * Adds a parsed module to the search index and knit-index if enabled.
+     * The search index entry added while rendering is moved to the summary.
+     * @param position is an int with the position of the module in parse order.
+     * @param summary is the dwFile object with the module summary the search index keys the module by.
+     * @param file is the parsed dwFile object.
+     * @param index is the KnitIndexWriter to add the module to or null.
+     * @throws IOException if the index temp files can't be written.
      */
-    private void writeDwFile() {
-        ArrayList<DataWeaveFile> parsedFiles = new ArrayList<DataWeaveFile>();
+    private void addToIndexes(int position, DataWeaveFile summary, DataWeaveFile file, KnitIndexWriter index) throws IOException {
+        if (this.search != null) {
+            this.search.rekey(file, summary);
+        }
+        if (index != null) {
+            index.add(position, file);
+        }
+    }
 
-        try {
-            // Parse directories
-            for (String dir : this.directories) {
-                this.parseDirectory(this.getWorkingDirectory() + "/" + dir, parsedFiles);
+    /**
+     * Creates an unparsed dwFile object with the names and module path of the provided source.
+     * @param src is the Source.
+     * @return A dwFile object.
+     */
+    private DataWeaveFile createModule(SourceWalker.Source src) {
+        return new DataWeaveFile(Utility.relativeName(src.getFileName(), src.getRootDirName()), this.dwlFileExt);
+    }
+
+    /**
+     * Orders the provided modules by moduleOrder and builds the module graph
+     * if moduleOrder or moduleImports needs it. Import cycles are reported
+     * when ordering by imports. Modules with the same qualified name as an
+     * earlier module aren't in the graph and come last.
+     * @param files is a List of dwFile objects in source order.
+     * @return A List of the same dwFile objects in output order.
+     */
+    protected List<DataWeaveFile> orderModules(List<DataWeaveFile> files) {
+        this.graph = null;
+        if (!this.needsGraph()) {
+            return files;
+        }
+
+        long start = System.nanoTime();
+        this.graph = new ModuleGraph(files);
+        if (this.order != ModuleGraph.Order.SOURCE) {
+            for (List<DataWeaveFile> cycle : this.graph.getCycles()) {
+                List<String> names = new ArrayList<String>(cycle.size());
+                for (DataWeaveFile dwf : cycle) {
+                    names.add(dwf.getQualifiedName());
+                }
+                this.getLog().warn("knit-maven-plugin modules " + Utility.join(", ", names)
+                        + " import each other, they are written in the order they were found.");
+            }
+        }
+
+        List<DataWeaveFile> ret = new ArrayList<DataWeaveFile>(this.graph.getModules(this.order));
+        if (ret.size() < files.size()) {
+            Set<DataWeaveFile> added = Collections.newSetFromMap(new IdentityHashMap<DataWeaveFile, Boolean>());
+            added.addAll(ret);
+            for (DataWeaveFile dwf : files) {
+                if (!added.contains(dwf)) {
+                    ret.add(dwf);
+                }
             }
+        }
+        this.stage("graph", start);
+        return ret;
+    }
+
+    /**
+     * Returns true if moduleOrder or moduleImports needs the module graph.
+     * @return A boolean with true if the graph is needed.
+     */
+    protected boolean needsGraph() {
+        return this.order != ModuleGraph.Order.SOURCE || this.moduleImports;
+    }
+
+    /**
+     * Writes the knit-index of the provided modules if enabled.
+     * @param parsedFiles is a List of dwFile objects to write.
+     * @throws IOException on IO exception.
+     */
+    protected void writeIndex(List<DataWeaveFile> parsedFiles) throws IOException {
+        if (!"".equals(this.indexFile)) {
+            KnitIndexWriter.write(parsedFiles, new File(this.getWorkingDirectory() + "/" + this.indexFile));
+        }
+    }
 
-            // Parse files
-            KnitParser parser = new KnitParser();
+    /**
+     * Creates a source walker with the configured directories, files and
+     * archives added. Dependency archives come last. The walker has to be
+     * closed once the sources are parsed.
+     * @param pool is the ForkJoinPool to walk on.
+     * @return A SourceWalker object.
+     */
+    protected SourceWalker createWalker(ForkJoinPool pool) {
+        SourceWalker walker = new SourceWalker(pool, dwlFileExt, this.getLog());
+        for (String dir : this.directories) {
+            walker.addDirectory(this.getWorkingDirectory() + "/" + dir);
+        }
+        if (this.files != null) {
             for (String fname : this.files) {
-                parsedFiles.add(parser.parseFile(this.getWorkingDirectory(), fname, dwlFileExt));
+                walker.addFile(this.getWorkingDirectory(), fname);
             }
+        }
+        for (String archive : this.archives) {
+            walker.addArchive(this.getWorkingDirectory() + "/" + archive);
+        }
+        for (String archive : this.getDependencyArchives()) {
+            walker.addArchive(archive);
+        }
+        return walker;
+    }
 
-            // Create the doc writer and write the doc.
-            DataWeaveDocWriter writer = new MarkdownDataWeaveDocWriterImpl();
-            String doc = "";
+    /**
+     * Returns true if any files, directories or archives to parse are configured.
+     * @return A boolean with true if there are inputs.
+     */
+    protected boolean hasInputs() {
+        return (this.files != null && this.files.length > 0) || (this.directories != null && this.directories.length > 0)
+                || this.archives.length > 0 || this.scanDependencies;
+    }
 
-            // If header text is set.
-            if (!"".equals(this.outputHeaderText)) {
-                doc += this.outputHeaderText + System.lineSeparator() + System.lineSeparator();
+    /**
+     * Gets the archive files of the resolved project dependencies if
+     * scanDependencies is set. Only jar and zip files of the groups in
+     * dependencyGroupIds, or of all groups if it's empty, are returned.
+     * @return A List of Strings with the archive file names.
+     */
+    private List<String> getDependencyArchives() {
+        List<String> ret = new ArrayList<String>();
+        if (!this.scanDependencies || this.project == null) {
+            return ret;
+        }
+        if (this.project.getArtifacts().isEmpty() && !this.project.getDependencies().isEmpty()) {
+            this.getLog().warn("knit-maven-plugin dependencies aren't resolved for this goal, run the knit-dependencies goal to scan them.");
+            return ret;
+        }
+        for (Object obj : this.project.getArtifacts()) {
+            Artifact artifact = (Artifact) obj;
+            File file = artifact.getFile();
+            if (file == null || !file.isFile() || !this.isScannedGroup(artifact.getGroupId())) {
+                continue;
+            }
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".jar") || name.endsWith(".zip")) {
+                ret.add(file.getAbsolutePath());
             }
+        }
+        return ret;
+    }
 
-            // If write header table is set.
-            if (this.writeHeaderTable) {
-                doc += writer.writeHeaderTable(parsedFiles, Arrays.asList(this.moduleList));
+    /**
+     * Returns true if dependencies of the provided group are scanned.
+     * @param groupId is a String with the dependency group id.
+     * @return A boolean with true if scanned.
+     */
+    private boolean isScannedGroup(String groupId) {
+        if (this.dependencyGroupIds.length == 0) {
+            return true;
+        }
+        for (String group : this.dependencyGroupIds) {
+            if (groupId.equals(group) || groupId.startsWith(group + ".")) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the module order from moduleOrder.
+     * @throws MojoExecutionException if moduleOrder isn't a known order.
+     */
+    protected void loadModuleOrder() throws MojoExecutionException {
+        if (ORDER_SOURCE.equals(this.moduleOrder)) {
+            this.order = ModuleGraph.Order.SOURCE;
+        } else if (ORDER_DEPENDENCIES.equals(this.moduleOrder)) {
+            this.order = ModuleGraph.Order.DEPENDENCIES_FIRST;
+        } else if (ORDER_ENTRY_POINTS.equals(this.moduleOrder)) {
+            this.order = ModuleGraph.Order.ENTRY_POINTS_FIRST;
+        } else {
+            throw new MojoExecutionException("knit-maven-plugin <moduleOrder> must be " + ORDER_SOURCE + ", " + ORDER_DEPENDENCIES
+                    + " or " + ORDER_ENTRY_POINTS + ", not '" + this.moduleOrder + "'.");
+        }
+    }
+
+    /**
+     * Compiles the templates in templateDirectory if it is set.
+     * @throws MojoExecutionException if a template can't be read or compiled.
+     */
+    protected void loadTemplates() throws MojoExecutionException {
+        this.templates = null;
+        if ("".equals(this.templateDirectory)) {
+            return;
+        }
+        if (this.isHtml()) {
+            this.getLog().warn("knit-maven-plugin <templateDirectory> only applies to the " + FORMAT_MARKDOWN + " format, it is ignored.");
+            return;
+        }
+        if (this.moduleImports) {
+            this.getLog().warn("knit-maven-plugin <moduleImports> isn't rendered by <templateDirectory> templates.");
+        }
+        try {
+            this.templates = TemplateDataWeaveDocWriterImpl.Templates.load(new File(this.getWorkingDirectory() + "/" + this.templateDirectory));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new MojoExecutionException("knit-maven-plugin <templateDirectory> is invalid. (" + e.getMessage() + ")", e);
+        }
+    }
+
+    /**
+     * Creates the doc writer to render with.
+     * @param fileLinks is a boolean with true to link header table rows to module
+     * files and false to link to anchors in the same document.
+     * @return A DataWeaveDocWriter object.
+     */
+    protected DataWeaveDocWriter createWriter(boolean fileLinks) {
+        if (this.templates != null) {
+            TemplateDataWeaveDocWriterImpl writer = new TemplateDataWeaveDocWriterImpl(this.templates, fileLinks, this.getLog());
+            writer.setSearchIndex(this.search);
+            writer.setMetrics(this.metrics);
+            return writer;
+        }
+        MarkdownDataWeaveDocWriterImpl writer = new MarkdownDataWeaveDocWriterImpl(fileLinks, this.getLog());
+        writer.setSearchIndex(this.search);
+        writer.setMetrics(this.metrics);
+        writer.setModuleGraph(this.moduleImports ? this.graph : null);
+        return writer;
+    }
+
+    /**
+     * Writes all modules into the single output file.
+     * @param parsedFiles is a List of dwFile objects to write.
+     * @throws Exception
+     */
+    protected void writeConsolidated(final List<DataWeaveFile> parsedFiles) throws Exception {
+        // Create the doc writer and stream the doc to file.
+        final DataWeaveDocWriter writer = this.createWriter(false);
+        this.manifest.write(this.getWorkingDirectory() + "/" + this.outputFile, out -> {
+            this.writeHeader(writer, parsedFiles, out);
 
             // Write the doc.
-            doc += writer.writeDoc(parsedFiles, Arrays.asList(this.moduleList));
+            writer.writeDoc(parsedFiles, Arrays.asList(this.moduleList), out);
+
+            this.writeFooter(out);
+        }, false);
+        this.getLog().info("Document has been written to '" + this.outputFile + "'.");
+    }
+
+    /**
+     * Writes one document per module into the output directory plus an
+     * index document that links to each of them.
+     * @param pool is the ExecutorService to render and write modules on.
+     * @param parsedFiles is a List of all dwFile objects, used for the index.
+     * @param modules is a List of the dwFile objects to write module documents for.
+     * @throws Exception
+     */
+    protected void writeModules(ExecutorService pool, final List<DataWeaveFile> parsedFiles, List<DataWeaveFile> modules) throws Exception {
+        String outDir = this.getWorkingDirectory() + "/" + this.outputDirectory;
+        final DataWeaveDocWriter writer = this.createWriter(true);
+
+        ModuleOutputWriter moduleWriter = new ModuleOutputWriter(pool, this.threads * 2, this.manifest, this.getLog());
+        moduleWriter.write(writer, modules, outDir);
+        this.writeModuleIndex(writer, parsedFiles, outDir);
+        this.getLog().info(modules.size() + " module documents and index have been written to '" + this.outputDirectory + "'.");
+    }
 
-            // If footer text is set.
-            if (!"".equals(this.outputFooterText)) {
-                doc += this.outputFooterText + System.lineSeparator();
+    /**
+     * Writes the index document that links to each module document.
+     * @param writer is the DataWeaveDocWriter to write the header table with.
+     * @param parsedFiles is a List of all dwFile objects.
+     * @param outDir is a String with the output directory.
+     * @throws Exception on write failure.
+     */
+    private void writeModuleIndex(final DataWeaveDocWriter writer, final List<DataWeaveFile> parsedFiles, String outDir) throws Exception {
+        this.manifest.write(outDir + "/index.md", out -> {
+            this.writeHeader(writer, parsedFiles, out);
+            if (!this.writeHeaderTable) {
+                this.writeHeaderTable(writer, parsedFiles, out);
             }
+            this.writeFooter(out);
+        });
+    }
+
+    /**
+     * Writes the HTML site with a page per module and a page per directory
+     * into the output directory.
+     * @param pool is the ExecutorService to render and write pages on.
+     * @param parsedFiles is a List of all dwFile objects, used for the directory pages.
+     * @param modules is a List of the dwFile objects to write module pages for.
+     * @throws Exception
+     */
+    protected void writeSite(ExecutorService pool, List<DataWeaveFile> parsedFiles, List<DataWeaveFile> modules) throws Exception {
+        ModuleOutputWriter output = new ModuleOutputWriter(pool, this.threads * 2, this.manifest, this.getLog());
+        new HtmlSiteWriter(output).write(this.createHtmlWriter(), parsedFiles, modules,
+                this.getWorkingDirectory() + "/" + this.outputDirectory, this.outputHeaderText, this.outputFooterText);
+        this.getLog().info(modules.size() + " module pages and directory pages have been written to '" + this.outputDirectory + "'.");
+    }
+
+    /**
+     * Creates the HTML writer to render site pages with.
+     * @return An HtmlDataWeaveDocWriterImpl object.
+     */
+    protected HtmlDataWeaveDocWriterImpl createHtmlWriter() {
+        HtmlDataWeaveDocWriterImpl writer = new HtmlDataWeaveDocWriterImpl(true, this.getLog());
+        writer.setSearchIndex(this.search);
+        writer.setMetrics(this.metrics);
+        writer.setModuleGraph(this.moduleImports ? this.graph : null);
+        return writer;
+    }
 
-            // Output to file.
-            Utility.write(
-                    this.getWorkingDirectory() + "/" + this.outputFile,
-                    doc,
-                    false
-            );
-            System.out.println("Document has been written to '" + this.outputFile + "'.");
+    /**
+     * Returns true if the output format is an HTML site.
+     * @return A boolean with true for HTML.
+     */
+    protected boolean isHtml() {
+        return FORMAT_HTML.equals(this.outputFormat);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error: knit-maven-plugin parse failed.");
+    /**
+     * Returns true if all modules are written into the single output file.
+     * @return A boolean with true for a single output file.
+     */
+    protected boolean isConsolidated() {
+        return this.consolidateOutput && !this.isHtml();
+    }
+
+    /**
+     * Gets the file name of the document of the provided module relative
+     * to the output directory.
+     * @param file is the dwFile object.
+     * @return A String with the relative file name.
+     */
+    protected String getModuleFileName(DataWeaveFile file) {
+        return this.isHtml() ? this.createHtmlWriter().getFileName(file) : ModuleOutputWriter.getRelativeFileName(file);
+    }
+
+    /**
+     * Writes the search index of the provided modules and the search page into
+     * outputDirectory if enabled. With a consolidated document the results
+     * link to it relative to outputDirectory, so nothing is written next to an
+     * outputFile like README.md. Modules are added to the index while they are
+     * rendered, so this runs after the documentation was written.
+     * @param parsedFiles is a List of all dwFile objects.
+     * @throws Exception on write failure.
+     */
+    protected void writeSearch(final List<DataWeaveFile> parsedFiles) throws Exception {
+        if (this.search == null) {
+            return;
+        }
+
+        String dir = this.getWorkingDirectory() + "/" + this.outputDirectory;
+        final Function<DataWeaveFile, String> links;
+        if (this.isHtml()) {
+            links = this.createHtmlWriter()::getFileName;
+        } else if (this.consolidateOutput) {
+            Path doc = Paths.get(this.getWorkingDirectory(), this.outputFile).toAbsolutePath().normalize();
+            final String docLink = Paths.get(dir).toAbsolutePath().normalize().relativize(doc).toString().replace('\\', '/');
+            final SymbolTable symbols = new SymbolTable(parsedFiles);
+            links = dwf -> docLink + "#" + symbols.getAnchor(dwf);
+        } else {
+            links = ModuleOutputWriter::getRelativeFileName;
+        }
+
+        this.manifest.write(dir + "/" + SearchIndex.INDEX_FILE, out -> this.search.write(parsedFiles, links, out));
+        this.manifest.write(dir + "/" + SearchIndex.PAGE_FILE, SearchIndex::writePage);
+    }
+
+    /**
+     * Drops the outputs of earlier runs that this run didn't write from the
+     * manifest. Stale generated files inside outputDirectory are deleted,
+     * any other stale output, like an earlier outputFile, is only reported.
+     * @throws IOException if a stale output can't be deleted.
+     */
+    private void pruneOutputs() throws IOException {
+        for (String fileName : this.manifest.prune(new File(this.getWorkingDirectory() + "/" + this.outputDirectory))) {
+            this.getLog().info("Output '" + fileName + "' isn't written anymore, it is left as is.");
+        }
+    }
+
+    /**
+     * Writes the configured header text and header table.
+     * @param writer is the DataWeaveDocWriter to write the header table with.
+     * @param parsedFiles is a List of dwFile objects.
+     * @param out is the Writer to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeHeader(DataWeaveDocWriter writer, List<DataWeaveFile> parsedFiles, Writer out) throws IOException {
+        // If header text is set.
+        if (!"".equals(this.outputHeaderText)) {
+            out.append(this.outputHeaderText).append(System.lineSeparator()).append(System.lineSeparator());
+        }
+
+        // If write header table is set.
+        if (this.writeHeaderTable) {
+            this.writeHeaderTable(writer, parsedFiles, out);
+        }
+    }
+
+    /**
+     * Writes the header table and records the time it took.
+     * @param writer is the DataWeaveDocWriter to write the header table with.
+     * @param parsedFiles is a List of dwFile objects.
+     * @param out is the Writer to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeHeaderTable(DataWeaveDocWriter writer, List<DataWeaveFile> parsedFiles, Writer out) throws IOException {
+        long[] timer = this.metrics != null ? this.metrics.startRender() : null;
+        writer.writeHeaderTable(parsedFiles, Arrays.asList(this.moduleList), out);
+        if (timer != null) {
+            this.metrics.endRender(KnitMetrics.Phase.RENDER_HEADER_TABLE, timer);
+        }
+    }
+
+    /**
+     * Builds the fingerprint of the provided sources, the configuration
+     * values that affect the output and the plugin version.
+     * @param sources is a List of sources to be parsed.
+     * @return A BuildFingerprint object.
+     * @throws IOException on IO exception.
+     */
+    private BuildFingerprint getFingerprint(List<SourceWalker.Source> sources) throws IOException {
+        BuildFingerprint fingerprint = new BuildFingerprint(this.getFingerprintFile());
+        fingerprint.add("pluginVersion", this.plugin != null ? this.plugin.getVersion() : null);
+        fingerprint.add("parserVersion", KnitParser.PARSER_VERSION);
+        fingerprint.add("files", this.files);
+        fingerprint.add("directories", this.directories);
+        fingerprint.add("archives", this.archives);
+        fingerprint.add("scanDependencies", String.valueOf(this.scanDependencies));
+        fingerprint.add("dependencyGroupIds", this.dependencyGroupIds);
+        fingerprint.add("consolidateOutput", String.valueOf(this.consolidateOutput));
+        fingerprint.add("outputFormat", this.outputFormat);
+        fingerprint.add("outputFile", this.outputFile);
+        fingerprint.add("outputDirectory", this.outputDirectory);
+        fingerprint.add("searchIndex", String.valueOf(this.searchIndex));
+        fingerprint.add("indexFile", this.indexFile);
+        fingerprint.add("pipeline", String.valueOf(this.pipeline));
+        fingerprint.add("templateDirectory", this.templateDirectory);
+        if (this.templates != null) {
+            for (String name : TemplateDataWeaveDocWriterImpl.TEMPLATE_NAMES) {
+                fingerprint.addFile(TemplateDataWeaveDocWriterImpl.Templates.getFile(new File(this.getWorkingDirectory() + "/" + this.templateDirectory), name).getPath());
+            }
+        }
+        fingerprint.add("indexVersion", String.valueOf(KnitIndexWriter.FORMAT_VERSION));
+        fingerprint.add("outputHeaderText", this.outputHeaderText);
+        fingerprint.add("outputFooterText", this.outputFooterText);
+        fingerprint.add("writeHeaderTable", String.valueOf(this.writeHeaderTable));
+        fingerprint.add("moduleList", this.moduleList);
+        fingerprint.add("moduleOrder", this.moduleOrder);
+        fingerprint.add("moduleImports", String.valueOf(this.moduleImports));
+        fingerprint.add("dwlFileExt", this.dwlFileExt);
+        fingerprint.add("memoryMappedRead", String.valueOf(this.memoryMappedRead));
+        fingerprint.add("lineSeparator", System.lineSeparator());
+        fingerprint.add("charset", Charset.defaultCharset().name());
+        Set<String> archiveFiles = new LinkedHashSet<String>();
+        for (SourceWalker.Source src : sources) {
+            if (src.getArchive() != null) {
+                // Entries are unchanged as long as their archive is.
+                fingerprint.add("entry", src.getFileName());
+                archiveFiles.add(src.getArchive());
+            } else {
+                fingerprint.addFile(src.getFileName());
+            }
+        }
+        for (String archive : archiveFiles) {
+            fingerprint.addFile(archive);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Gets the file the fingerprint of the last successful run is saved in.
+     * @return A File with the fingerprint file.
+     */
+    protected File getFingerprintFile() {
+        return new File(this.getWorkingDirectory() + "/" + this.cacheDirectory + "/fingerprint");
+    }
+
+    /**
+     * Returns true if the main output exists. This is the output file or
+     * the index document or page when writing to the output directory, and
+     * the knit-index if enabled.
+     * @return A boolean with true if the output exists.
+     */
+    private boolean outputExists() {
+        if (!"".equals(this.indexFile) && !new File(this.getWorkingDirectory() + "/" + this.indexFile).isFile()) {
+            return false;
+        }
+        if (this.isConsolidated()) {
+            return new File(this.getWorkingDirectory() + "/" + this.outputFile).isFile();
+        }
+        String index = this.isHtml() ? HtmlDataWeaveDocWriterImpl.INDEX_PAGE : "index.md";
+        return new File(this.getWorkingDirectory() + "/" + this.outputDirectory + "/" + index).isFile();
+    }
+
+    /**
+     * Returns true if the build context reports a change in any of the
+     * configured directories or files.
+     * @return A boolean with true if an input changed.
+     */
+    private boolean hasInputDelta() {
+        for (String dir : this.directories) {
+            if (this.buildContext.hasDelta(dir)) {
+                return true;
+            }
+        }
+        if (this.files != null) {
+            for (String fname : this.files) {
+                if (this.buildContext.hasDelta(fname)) {
+                    return true;
+                }
+            }
+        }
+        for (String archive : this.archives) {
+            if (this.buildContext.hasDelta(archive)) {
+                return true;
+            }
+        }
+        // Dependency changes aren't reported as a delta, the fingerprint catches those.
+        return this.scanDependencies;
+    }
+
+    /**
+     * Records the wall clock time of a stage since start if metrics are enabled.
+     * @param name is a String with the stage name.
+     * @param start is a long with the stage start time from System.nanoTime().
+     */
+    private void stage(String name, long start) {
+        if (this.metrics != null) {
+            this.metrics.addStage(name, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Writes the configured footer text.
+     * @param out is the Writer to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeFooter(Writer out) throws IOException {
+        // If footer text is set.
+        if (!"".equals(this.outputFooterText)) {
+            out.append(this.outputFooterText).append(System.lineSeparator());
         }
     }
 
@@ -265,7 +1334,7 @@ public class Main extends AbstractMojo {
      * directory that's the parent to 'target'.
      * @return the current working directory.
      */
-    private String getWorkingDirectory() {
+    protected String getWorkingDirectory() {
         Model model = this.project.getModel();
         Build build = model.getBuild();
         File dir = new File(build.getDirectory());
@@ -297,6 +1366,6 @@ public class Main extends AbstractMojo {
         out += "Written By Austin Lehman" + System.lineSeparator();
         out += "austin@rosevillecode.com" + System.lineSeparator();
         out += "Copyright 2020 Roseville Code Inc." + System.lineSeparator();
-        System.out.println(out);
+        this.getLog().info(System.lineSeparator() + out);
     }
 }
\ No newline at end of file
@@ -17,14 +17,105 @@
 
 package com.lehman.knit;
 
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Markdown implementation of the dwDocWriter interface. This class
- * provides support for writing docs in Markdown format.
+ * provides support for writing docs in Markdown format. All output is
+ * streamed to an Appendable; the String returning methods just collect
+ * the stream in a StringBuilder.
  */
 public class MarkdownDataWeaveDocWriterImpl implements DataWeaveDocWriter {
+    /**
+     * Line separator shorthand.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * Flag to link header table rows to per module files instead of anchors.
+     */
+    private final boolean fileLinks;
+
+    /**
+     * The log to report unknown module names to.
+     */
+    private final Log log;
+
+    /**
+     * The search index to add rendered modules to or null.
+     */
+    private SearchIndex searchIndex = null;
+
+    /**
+     * The module graph to write import sections with or null.
+     */
+    private ModuleGraph moduleGraph = null;
+
+    /**
+     * The metrics to record render timings in or null if not recorded.
+     */
+    private KnitMetrics metrics = null;
+
+    /**
+     * Default constructor. Header table rows link to anchors in the same document.
+     */
+    public MarkdownDataWeaveDocWriterImpl() {
+        this(false);
+    }
+
+    /**
+     * Constructor with the header table link mode.
+     * @param FileLinks is a boolean with true to link header table rows to
+     * per module files (modulePath.md) and false to link to anchors in the
+     * same document.
+     */
+    public MarkdownDataWeaveDocWriterImpl(boolean FileLinks) {
+        this(FileLinks, new SystemStreamLog());
+    }
+
+    /**
+     * Constructor with the header table link mode and log.
+     * @param FileLinks is a boolean with true to link header table rows to the
+     * module files written by ModuleOutputWriter and false to link to anchors.
+     * @param Log is the Log to report unknown module names to.
+     */
+    public MarkdownDataWeaveDocWriterImpl(boolean FileLinks, Log Log) {
+        this.fileLinks = FileLinks;
+        this.log = Log;
+    }
+
+    /**
+     * Sets the search index each module is added to when it is rendered.
+     * @param SearchIndex is the SearchIndex object or null to not index.
+     */
+    public void setSearchIndex(SearchIndex SearchIndex) {
+        this.searchIndex = SearchIndex;
+    }
+
+    /**
+     * Sets the module graph each module document lists its imports and
+     * importing modules from.
+     * @param ModuleGraph is the ModuleGraph object or null to not list them.
+     */
+    public void setModuleGraph(ModuleGraph ModuleGraph) {
+        this.moduleGraph = ModuleGraph;
+    }
+
+    /**
+     * Sets the metrics to record the render time of each module section in.
+     * @param Metrics is the KnitMetrics object or null to not record timings.
+     */
+    public void setMetrics(KnitMetrics Metrics) {
+        this.metrics = Metrics;
+    }
+
     /**
      * Writes a Markdown formatted document with the provided dwFile object and
      * returns a String with the result.
@@ -33,32 +124,56 @@ public class MarkdownDataWeaveDocWriterImpl implements DataWeaveDocWriter {
      */
     @Override
     public String writeDoc(DataWeaveFile file) {
-        String ret = "# " + file.name + System.lineSeparator();
-        //ret += "###### " + Utility.join("::", file.modulePath) + System.lineSeparator();
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeDoc(file, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a Markdown formatted document with the provided dwFile object
+     * to the provided output.
+     * @param file is a dwFile object to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeDoc(DataWeaveFile file, Appendable out) throws IOException {
+        long[] timer = this.startRender();
+        if (this.searchIndex != null) {
+            this.searchIndex.add(file);
+        }
+        out.append("# ").append(file.name).append(NL);
         if (!file.getComment().getText().equals("")) {
-            ret += file.getComment().getText() + System.lineSeparator();
+            out.append(file.getComment().getText()).append(NL);
         }
-        ret += System.lineSeparator();
+        out.append(NL);
 
-        String vars = this.writeVariables(file);
-        if (!vars.equals("")) {
-            ret += "## Variables" + System.lineSeparator() + System.lineSeparator();
-            ret += vars + System.lineSeparator();
+        if (this.moduleGraph != null) {
+            this.writeImports(file, out);
         }
 
-        String functs = this.writeFunctions(file);
-        if (!functs.equals("")) {
-            ret += "## Functions" + System.lineSeparator() + System.lineSeparator();
-            ret += functs + System.lineSeparator();
+        if (!file.getVariables().isEmpty()) {
+            out.append("## Variables").append(NL).append(NL);
+            this.writeVariables(file, out);
+            out.append(NL);
         }
 
-        String tables = this.writeTables(file);
-        if (!tables.equals("")) {
-            ret += "## Mapping Tables" + System.lineSeparator() + System.lineSeparator();
-            ret += tables + System.lineSeparator();
+        if (!file.getFunctions().isEmpty()) {
+            out.append("## Functions").append(NL).append(NL);
+            this.writeFunctions(file, out);
+            out.append(NL);
         }
 
-        return ret;
+        if (!file.getTables().isEmpty()) {
+            out.append("## Mapping Tables").append(NL).append(NL);
+            this.writeTables(file, out);
+            out.append(NL);
+        }
+        this.endRender(KnitMetrics.Phase.RENDER_MODULE, timer);
     }
 
     /**
@@ -81,26 +196,58 @@ public class MarkdownDataWeaveDocWriterImpl implements DataWeaveDocWriter {
      */
     @Override
     public String writeDoc(List<DataWeaveFile> files, List<String> moduleNameList) {
-        String ret = "";
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeDoc(files, moduleNameList, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a doc with the provided dwFile list and moduleNameList to
+     * the provided output.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeDoc(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        SymbolTable symbols = new SymbolTable(files);
 
         // Go through the module list first and add them in order.
-        for (String modName : moduleNameList) {
-            DataWeaveFile modFile = this.getFileByModuleName(files, modName);
-            if (modFile != null) {
-                ret += this.writeDoc(modFile) + System.lineSeparator();
-            } else {
-                System.err.println("Warning: Module name '" + modName + "' was supplied in moduleNameList but was not found parsed file list.");
-            }
+        Set<DataWeaveFile> listed = symbols.findModules(moduleNameList, this.log);
+        for (DataWeaveFile modFile : listed) {
+            this.writeModuleDoc(symbols, modFile, out);
+            out.append(NL);
         }
 
         // Iterate the rest.
         for (DataWeaveFile dwf : files) {
-            if (!moduleNameList.contains(dwf.getName())) {
-                ret += this.writeDoc(dwf);
+            if (!listed.contains(dwf)) {
+                this.writeModuleDoc(symbols, dwf, out);
             }
         }
+    }
 
-        return ret;
+    /**
+     * Writes the doc of a module as part of a document with several modules.
+     * If another module has the same name an explicit anchor with the
+     * qualified name is written first so header table links stay unique.
+     * @param symbols is the SymbolTable of the document.
+     * @param file is the dwFile object to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeModuleDoc(SymbolTable symbols, DataWeaveFile file, Appendable out) throws IOException {
+        if (!symbols.hasUniqueName(file)) {
+            out.append("<a id=\"").append(symbols.getAnchor(file)).append("\"></a>").append(NL).append(NL);
+        }
+        this.writeDoc(file, out);
     }
 
     /**
@@ -124,166 +271,302 @@ public class MarkdownDataWeaveDocWriterImpl implements DataWeaveDocWriter {
      */
     @Override
     public String writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList) {
-        String ret = "";
-        ret += "| Module | Description |" + System.lineSeparator();
-        ret += "|-|-|" + System.lineSeparator();
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeHeaderTable(files, moduleNameList, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a header table with the provided dwFile list to the provided
+     * output. This table will link to each module further down in the document.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules in the table.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        out.append("| Module | Description |").append(NL);
+        out.append("|-|-|").append(NL);
+
+        SymbolTable symbols = new SymbolTable(files);
 
         // Go through the module list first and add them in order.
-        for (String modName : moduleNameList) {
-            DataWeaveFile modFile = this.getFileByModuleName(files, modName);
-            if (modFile != null) {
-                ret += "| [" + modFile.getName() + "](#" + modFile.getName() + ") | " + Utility.stripNewLines(modFile.getComment().getText()) + " |" + System.lineSeparator();
-            } else {
-                System.err.println("Warning: Module name '" + modName + "' was supplied in moduleNameList but was not found parsed file list.");
-            }
+        Set<DataWeaveFile> listed = symbols.findModules(moduleNameList, this.log);
+        for (DataWeaveFile modFile : listed) {
+            this.writeHeaderTableRow(symbols, modFile, out);
         }
 
         // Iterate the rest.
         for (DataWeaveFile dwf : files) {
-            if (!moduleNameList.contains(dwf.getName())) {
-                ret += "| [" + dwf.getName() + "](#" + dwf.getName() + ") | " + Utility.stripNewLines(dwf.getComment().getText()) + " |" + System.lineSeparator();
+            if (!listed.contains(dwf)) {
+                this.writeHeaderTableRow(symbols, dwf, out);
             }
         }
 
-        ret += System.lineSeparator();
+        out.append(NL);
+    }
+
+    /**
+     * Writes a single header table row linking to the provided module. Modules
+     * that share their name with another module are listed by qualified name.
+     * @param symbols is the SymbolTable of the document.
+     * @param file is the dwFile object to write the row for.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeHeaderTableRow(SymbolTable symbols, DataWeaveFile file, Appendable out) throws IOException {
+        String label = symbols.hasUniqueName(file) ? file.getName() : file.getQualifiedName();
+        out.append("| [").append(label).append("](").append(this.getLink(symbols, file)).append(") | ");
+        TextNormalizer.appendTableCell(file.getComment().getText(), out);
+        out.append(" |").append(NL);
+    }
+
+    /**
+     * Gets the link target for the provided module.
+     * @param symbols is the SymbolTable of the document.
+     * @param file is the dwFile object to link to.
+     * @return A String with the link target.
+     */
+    private String getLink(SymbolTable symbols, DataWeaveFile file) {
+        if (this.fileLinks) {
+            return ModuleOutputWriter.getRelativeFileName(file);
+        }
+        return "#" + symbols.getAnchor(file);
+    }
+
+    /**
+     * Writes the imports and imported by sections of the provided module.
+     * Imported modules that weren't parsed, like dw::core::Strings, are
+     * listed without a link.
+     * @param file is the dwFile object to write the sections for.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeImports(DataWeaveFile file, Appendable out) throws IOException {
+        if (!file.getImports().isEmpty()) {
+            out.append("## Imports").append(NL).append(NL);
+            for (String name : file.getImports()) {
+                DataWeaveFile dep = this.moduleGraph.getModule(name);
+                if (dep != null) {
+                    this.writeModuleLink(file, dep, out);
+                } else {
+                    out.append("- `").append(name).append("`").append(NL);
+                }
+            }
+            out.append(NL);
+        }
 
-        return ret;
+        List<DataWeaveFile> importedBy = this.moduleGraph.getImportedBy(file);
+        if (!importedBy.isEmpty()) {
+            out.append("## Imported By").append(NL).append(NL);
+            for (DataWeaveFile dwf : importedBy) {
+                this.writeModuleLink(file, dwf, out);
+            }
+            out.append(NL);
+        }
     }
 
-    private DataWeaveFile getFileByModuleName(List<DataWeaveFile> files, String name) {
-        DataWeaveFile ret = null;
-        for(DataWeaveFile dwf : files) {
-            if (dwf.getName().equals(name)) {
-                ret = dwf;
-                break;
+    /**
+     * Writes a list item linking from one module document to another.
+     * @param from is the dwFile object of the document written.
+     * @param to is the dwFile object to link to.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeModuleLink(DataWeaveFile from, DataWeaveFile to, Appendable out) throws IOException {
+        out.append("- [").append(to.getQualifiedName()).append("](");
+        if (this.fileLinks) {
+            for (int i = 1; i < from.getModulePath().size(); i++) {
+                out.append("../");
             }
+            out.append(ModuleOutputWriter.getRelativeFileName(to));
+        } else {
+            out.append("#").append(this.moduleGraph.getSymbols().getAnchor(to));
         }
-        return ret;
+        out.append(")").append(NL);
     }
 
     /**
      * Writes the variables section with the provided dwFile
      * object.
      * @param file is the dwObject file to write variables for.
-     * @return A String with the variables section.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
      */
-    private String writeVariables(DataWeaveFile file) {
-        String ret = "";
-
+    private void writeVariables(DataWeaveFile file, Appendable out) throws IOException {
+        long[] timer = this.startRender();
         for(DataWeaveVariable var : file.getVariables()) {
-            ret += "__var__ `" + var.getName() + "`" + System.lineSeparator();
-            ret += "> " + var.getComment().getText().replaceAll(System.lineSeparator(), "  " + System.lineSeparator()) + System.lineSeparator();
+            out.append("__var__ `").append(var.getName()).append("`").append(NL);
+            out.append("> ");
+            TextNormalizer.appendBreaks(var.getComment().getText(), out);
+            out.append(NL);
         }
-
-        return ret;
+        this.endRender(KnitMetrics.Phase.RENDER_VARIABLES, timer);
     }
 
     /**
      * Writes the functions section with the provided dwFile
      * object.
      * @param file is the dwObject file to write functions for.
-     * @return A String with the functions section.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
      */
-    private String writeFunctions(DataWeaveFile file) {
-        String ret = "";
-
+    private void writeFunctions(DataWeaveFile file, Appendable out) throws IOException {
+        long[] timer = this.startRender();
         for(DataWeaveFunction fun : file.getFunctions()) {
-            ret += "__fun__ `" + fun.getName() + "` ( " + this.writeFunctArgs(fun) + ")" + System.lineSeparator() + System.lineSeparator();
-            ret += this.writeFunctAnnotations(fun) + System.lineSeparator();
-            ret += "> " + Utility.stripNewLines(fun.getComment().getText()) + System.lineSeparator();
+            out.append("__fun__ `").append(fun.getName()).append("` ( ");
+            this.writeFunctArgs(fun, out);
+            out.append(")").append(NL).append(NL);
+            this.writeFunctAnnotations(fun, out);
+            out.append(NL);
+            out.append("> ");
+            TextNormalizer.appendOneLine(fun.getComment().getText(), out);
+            out.append(NL);
             if (fun.getTable() != null) {
-                ret += writeAnnotationTable(fun.getTable()) + System.lineSeparator();
+                this.writeAnnotationTable(fun.getTable(), out);
+                out.append(NL);
             }
         }
-
-        return ret;
+        this.endRender(KnitMetrics.Phase.RENDER_FUNCTIONS, timer);
     }
 
     /**
      * Writes the function args with the provided dwFunction object.
      * @param fun is a dwFunction object to write the args for.
-     * @return A String with the function args.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
      */
-    private String writeFunctArgs(DataWeaveFunction fun) {
-        String ret = "";
-
+    private void writeFunctArgs(DataWeaveFunction fun, Appendable out) throws IOException {
         for (int i = 0; i < fun.getArguments().size(); i++) {
-            if (i > 0) ret += ", ";
+            if (i > 0) out.append(", ");
             DataWeaveArgument arg = fun.getArguments().get(i);
             if (arg.getDatatype().equals("")) {
                 if (!arg.getName().equals("")) {
-                    ret += "__" + arg.getName() + "__";
+                    out.append("__").append(arg.getName()).append("__");
                 }
             } else {
-                ret += "__" + arg.getName() + "__:_" + arg.getDatatype() + "_";
+                out.append("__").append(arg.getName()).append("__:_").append(arg.getDatatype()).append("_");
             }
         }
-
-        return ret;
     }
 
     /**
      * Writes the function annotations with the provided dwFunction object.
      * @param fun is a dwFunction object to write annotations for.
-     * @return A String with the annotations section.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
      */
-    private String writeFunctAnnotations(DataWeaveFunction fun) {
-        String ret = "";
+    private void writeFunctAnnotations(DataWeaveFunction fun, Appendable out) throws IOException {
+        boolean started = false;
 
         DataWeaveCommentAnnotation retAnn = null;
         for (DataWeaveCommentAnnotation ann : fun.getComment().getAnnotations()) {
             if (ann.getName().toLowerCase().equals("return")) {
                 retAnn = ann;
             } else if (ann.getName().toLowerCase().equals("param")) {
-                ret += "__param__ `" + ann.getKey() + "` " + Utility.stripNewLines(ann.getValue()) + "  " + System.lineSeparator();
+                if (!started) {
+                    out.append("> ");
+                    started = true;
+                }
+                out.append("__param__ `").append(ann.getKey()).append("` ");
+                TextNormalizer.appendOneLine(ann.getValue(), out);
+                out.append("  ").append(NL);
             }
         }
 
         if (retAnn != null) {
-            ret += "__return__ " + Utility.stripNewLines(retAnn.getValue()) + "  " + System.lineSeparator();
+            if (!started) {
+                out.append("> ");
+                started = true;
+            }
+            out.append("__return__ ");
+            TextNormalizer.appendOneLine(retAnn.getValue(), out);
+            out.append("  ").append(NL);
         }
 
-        if (!ret.equals("")) {
-            ret = "> " + ret + "> ";
+        if (started) {
+            out.append("> ");
         }
-
-        return ret;
     }
 
     /**
      * Writes the mappings table section with the provided dwFile
      * object.
      * @param file is the dwObject file to write tables for.
-     * @return A String with the tables section.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
      */
-    private String writeTables(DataWeaveFile file) {
-        String ret = "";
-
+    private void writeTables(DataWeaveFile file, Appendable out) throws IOException {
+        long[] timer = this.startRender();
         for(DataWeaveTable table : file.getTables()) {
-            ret += Utility.stripNewLines(table.getComment().getText()) + System.lineSeparator() + System.lineSeparator();
-        	ret += writeAnnotationTable(table.getTable()) + System.lineSeparator();
+            TextNormalizer.appendOneLine(table.getComment().getText(), out);
+            out.append(NL).append(NL);
+            this.writeAnnotationTable(table.getTable(), out);
+            out.append(NL);
         }
-
-        return ret;
+        this.endRender(KnitMetrics.Phase.RENDER_TABLES, timer);
     }
 
     /**
-     * Writes the annotation table to string.
+     * Writes the annotation table.
      * @param tbl is an annotationTable object to write.
-     * @return A String with the annotation table.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
      */
-    private String writeAnnotationTable(AnnotationTable tbl) {
-        String ret = "";
-        ret += "> | " + Utility.join(" | ", tbl.getColumns()) + " | " + System.lineSeparator();
+    private void writeAnnotationTable(AnnotationTable tbl, Appendable out) throws IOException {
+        long[] timer = this.startRender();
+        out.append("> | ");
+        this.writeJoined(tbl.getColumns(), out);
+        out.append(" | ").append(NL);
         // divider
-        ret += "> | ";
+        out.append("> | ");
         for (int i = 0; i < tbl.getColumns().size(); i++) {
-            ret += "---- |";
+            out.append("---- |");
         }
-        ret += System.lineSeparator();
+        out.append(NL);
         for (AnnotationRow row : tbl.getRows()) {
-            ret += "> | " + Utility.join(" | ", row.getFields()) + " | " + System.lineSeparator();
+            out.append("> | ");
+            this.writeJoined(row.getFields(), out);
+            out.append(" | ").append(NL);
+        }
+        this.endRender(KnitMetrics.Phase.RENDER_ANNOTATION_TABLES, timer);
+    }
+
+    /**
+     * Starts timing a render phase if metrics are recorded.
+     * @return A long array with the timer state or null.
+     */
+    private long[] startRender() {
+        return this.metrics != null ? this.metrics.startRender() : null;
+    }
+
+    /**
+     * Records the render phase started with startRender().
+     * @param phase is the Phase to record.
+     * @param timer is the long array startRender() returned or null.
+     */
+    private void endRender(KnitMetrics.Phase phase, long[] timer) {
+        if (timer != null) {
+            this.metrics.endRender(phase, timer);
+        }
+    }
+
+    /**
+     * Writes the provided strings as table cells separated by " | ".
+     * @param parts is a List of Strings to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private void writeJoined(List<String> parts, Appendable out) throws IOException {
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) out.append(" | ");
+            TextNormalizer.appendTableCell(parts.get(i), out);
         }
-        return ret;
     }
 }
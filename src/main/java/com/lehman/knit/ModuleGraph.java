@@ -0,0 +1,287 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The import graph of a list of parsed files. Modules are the nodes and each
+ * import of another module in the list is an edge from the importing module
+ * to the imported one. Imports of modules that aren't in the list, like
+ * dw::core::Strings, aren't edges. Like the SymbolTable, modules are matched
+ * by qualified name, so a graph built from module summaries serves the fully
+ * parsed modules as well. The graph is built and ordered in time linear in
+ * the number of modules and imports, apart from sorting the modules of each
+ * import cycle, and isn't changed after it is built.
+ */
+public class ModuleGraph {
+    /**
+     * The output orders.
+     */
+    public enum Order {
+        /** The order the modules were found in. */
+        SOURCE,
+        /** Imported modules before the modules that import them. */
+        DEPENDENCIES_FIRST,
+        /** Importing modules before the modules they import. */
+        ENTRY_POINTS_FIRST
+    }
+
+    /**
+     * The modules in the provided order, without duplicate qualified names.
+     */
+    private final List<DataWeaveFile> modules = new ArrayList<DataWeaveFile>();
+
+    /**
+     * Module positions by qualified name.
+     */
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+    /**
+     * The positions of the modules each module imports, in import order.
+     */
+    private final int[][] imports;
+
+    /**
+     * The positions of the modules that import each module, in module order.
+     */
+    private final int[][] importedBy;
+
+    /**
+     * The symbol table of the modules, for anchors and labels.
+     */
+    private final SymbolTable symbols;
+
+    /**
+     * The modules in dependencies first order.
+     */
+    private final List<DataWeaveFile> dependencyOrder = new ArrayList<DataWeaveFile>();
+
+    /**
+     * The start of each component in the dependencies first order.
+     */
+    private final List<Integer> componentStarts = new ArrayList<Integer>();
+
+    /**
+     * The modules of each import cycle in module order.
+     */
+    private final List<List<DataWeaveFile>> cycles = new ArrayList<List<DataWeaveFile>>();
+
+    /**
+     * Builds the graph of the provided files. If two files have the same
+     * qualified name the first one wins.
+     * @param files is a List of dwFile objects.
+     */
+    public ModuleGraph(List<DataWeaveFile> files) {
+        for (DataWeaveFile dwf : files) {
+            if (this.positions.putIfAbsent(dwf.getQualifiedName(), this.modules.size()) == null) {
+                this.modules.add(dwf);
+            }
+        }
+        this.symbols = new SymbolTable(this.modules);
+
+        int count = this.modules.size();
+        this.imports = new int[count][];
+        int[] importedByCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            List<String> names = this.modules.get(i).getImports();
+            int[] edges = new int[names.size()];
+            int edgeCount = 0;
+            for (String name : names) {
+                Integer pos = this.positions.get(name);
+                if (pos != null) {
+                    edges[edgeCount++] = pos;
+                    importedByCounts[pos]++;
+                }
+            }
+            this.imports[i] = edgeCount == edges.length ? edges : Arrays.copyOf(edges, edgeCount);
+        }
+
+        this.importedBy = new int[count][];
+        for (int i = 0; i < count; i++) {
+            this.importedBy[i] = new int[importedByCounts[i]];
+            importedByCounts[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int pos : this.imports[i]) {
+                this.importedBy[pos][importedByCounts[pos]++] = i;
+            }
+        }
+
+        this.sort();
+    }
+
+    /**
+     * Orders the modules dependencies first and finds the import cycles
+     * with Tarjan's strongly connected components algorithm. Components
+     * are completed after every component they import, so completion order
+     * is dependencies first. The modules of a cycle are kept in module order.
+     * The walk uses an explicit stack so deep import chains can't overflow
+     * the thread stack.
+     */
+    private void sort() {
+        int count = this.modules.size();
+        int[] index = new int[count];
+        int[] low = new int[count];
+        int[] next = new int[count];
+        boolean[] onStack = new boolean[count];
+        Arrays.fill(index, -1);
+        int[] stack = new int[count];
+        int stackSize = 0;
+        int[] path = new int[count];
+        int counter = 0;
+
+        for (int root = 0; root < count; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            path[depth++] = root;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth > 0) {
+                int node = path[depth - 1];
+                if (next[node] < this.imports[node].length) {
+                    int dep = this.imports[node][next[node]++];
+                    if (index[dep] < 0) {
+                        index[dep] = low[dep] = counter++;
+                        stack[stackSize++] = dep;
+                        onStack[dep] = true;
+                        path[depth++] = dep;
+                    } else if (onStack[dep]) {
+                        low[node] = Math.min(low[node], index[dep]);
+                    }
+                    continue;
+                }
+
+                depth--;
+                if (depth > 0) {
+                    int parent = path[depth - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == index[node]) {
+                    // Node is the root of a component, pop it off the stack.
+                    int start = stackSize;
+                    do {
+                        start--;
+                        onStack[stack[start]] = false;
+                    } while (stack[start] != node);
+                    int[] component = Arrays.copyOfRange(stack, start, stackSize);
+                    stackSize = start;
+                    Arrays.sort(component);
+
+                    List<DataWeaveFile> members = new ArrayList<DataWeaveFile>(component.length);
+                    for (int pos : component) {
+                        members.add(this.modules.get(pos));
+                    }
+                    this.componentStarts.add(this.dependencyOrder.size());
+                    this.dependencyOrder.addAll(members);
+                    if (component.length > 1 || this.importsItself(node)) {
+                        this.cycles.add(Collections.unmodifiableList(members));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the module at the provided position imports itself.
+     */
+    private boolean importsItself(int pos) {
+        for (int dep : this.imports[pos]) {
+            if (dep == pos) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the modules in the provided order. Modules in an import cycle
+     * can't be ordered by their imports and are kept in module order.
+     * @param order is the Order to get the modules in.
+     * @return A List of dwFile objects.
+     */
+    public List<DataWeaveFile> getModules(Order order) {
+        if (order == Order.DEPENDENCIES_FIRST) {
+            return Collections.unmodifiableList(this.dependencyOrder);
+        } else if (order == Order.ENTRY_POINTS_FIRST) {
+            // Reverse the components, but keep the module order within a cycle.
+            List<DataWeaveFile> ret = new ArrayList<DataWeaveFile>(this.dependencyOrder.size());
+            int end = this.dependencyOrder.size();
+            for (int i = this.componentStarts.size() - 1; i >= 0; i--) {
+                int start = this.componentStarts.get(i);
+                ret.addAll(this.dependencyOrder.subList(start, end));
+                end = start;
+            }
+            return ret;
+        }
+        return Collections.unmodifiableList(this.modules);
+    }
+
+    /**
+     * Gets the import cycles. Each cycle is a list of the modules that
+     * import each other, directly or through one another.
+     * @return A List of Lists of dwFile objects.
+     */
+    public List<List<DataWeaveFile>> getCycles() {
+        return Collections.unmodifiableList(this.cycles);
+    }
+
+    /**
+     * Gets the module with the provided qualified name.
+     * @param qualifiedName is a String with the qualified module name.
+     * @return A dwFile object or null if it isn't in the graph.
+     */
+    public DataWeaveFile getModule(String qualifiedName) {
+        Integer pos = this.positions.get(qualifiedName);
+        return pos != null ? this.modules.get(pos) : null;
+    }
+
+    /**
+     * Gets the modules that import the provided module.
+     * @param file is the dwFile object.
+     * @return A List of dwFile objects in module order, empty if the module isn't in the graph.
+     */
+    public List<DataWeaveFile> getImportedBy(DataWeaveFile file) {
+        Integer pos = this.positions.get(file.getQualifiedName());
+        if (pos == null) {
+            return Collections.emptyList();
+        }
+        List<DataWeaveFile> ret = new ArrayList<DataWeaveFile>(this.importedBy[pos].length);
+        for (int importer : this.importedBy[pos]) {
+            ret.add(this.modules.get(importer));
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the symbol table of the modules in the graph.
+     * @return A SymbolTable object.
+     */
+    public SymbolTable getSymbols() {
+        return this.symbols;
+    }
+}
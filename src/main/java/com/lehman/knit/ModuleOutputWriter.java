@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes one document per module into an output directory tree that mirrors
+ * the module paths. (dw/color/palette.dwl -> dw/color/palette.md) Modules are
+ * rendered and written concurrently on the provided executor with at most
+ * maxInFlight writes outstanding at a time.
+ */
+public class ModuleOutputWriter {
+    /**
+     * The executor to render and write on.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * The maximum number of outstanding module writes.
+     */
+    private final int maxInFlight;
+
+    /**
+     * The output manifest used to skip unchanged module files.
+     */
+    private final OutputManifest manifest;
+
+    /**
+     * The log to report duplicate modules to.
+     */
+    private final Log log;
+
+    /**
+     * Constructor with the executor, in flight limit, output manifest and log.
+     * @param Pool is the ExecutorService to render and write on.
+     * @param MaxInFlight is an int with the maximum number of outstanding writes.
+     * @param Manifest is the OutputManifest to write module files through.
+     * @param Log is the Log to report duplicate modules to.
+     */
+    public ModuleOutputWriter(ExecutorService Pool, int MaxInFlight, OutputManifest Manifest, Log Log) {
+        this.pool = Pool;
+        this.maxInFlight = Math.max(1, MaxInFlight);
+        this.manifest = Manifest;
+        this.log = Log;
+    }
+
+    /**
+     * Gets the output file name of the provided module relative to the
+     * output directory.
+     * @param file is the dwFile object.
+     * @return A String with the relative file name.
+     */
+    public static String getRelativeFileName(DataWeaveFile file) {
+        return Utility.join("/", file.getModulePath()) + ".md";
+    }
+
+    /**
+     * Renders and writes each of the provided modules to its own file in
+     * the provided output directory. The file name of each module is
+     * provided by the writer.
+     * @param writer is the DataWeaveDocWriter to render with.
+     * @param files is a List of dwFile objects to write.
+     * @param outputDir is a String with the output directory.
+     * @throws Exception on the first render or write failure.
+     */
+    public void write(final DataWeaveDocWriter writer, List<DataWeaveFile> files, String outputDir) throws Exception {
+        Map<String, OutputManifest.Content> outputs = new LinkedHashMap<String, OutputManifest.Content>();
+        Set<String> seen = new HashSet<String>();
+        for (final DataWeaveFile dwf : files) {
+            final String relName = writer.getFileName(dwf);
+            if (!seen.add(relName)) {
+                this.log.warn("Module '" + relName + "' was found more than once, only the first one is written.");
+                continue;
+            }
+            outputs.put(new File(outputDir, relName).getPath(), out -> writer.writeDoc(dwf, out));
+        }
+        this.write(outputs);
+    }
+
+    /**
+     * Renders and writes the provided output files concurrently.
+     * @param outputs is a Map with the output file names and the Content that streams each of them.
+     * @throws Exception on the first render or write failure.
+     */
+    public void write(Map<String, OutputManifest.Content> outputs) throws Exception {
+        final Semaphore inFlight = new Semaphore(this.maxInFlight);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        for (final Map.Entry<String, OutputManifest.Content> output : outputs.entrySet()) {
+            inFlight.acquire();
+            if (failure.get() != null) {
+                inFlight.release();
+                break;
+            }
+
+            this.pool.execute(() -> {
+                try {
+                    this.manifest.write(output.getKey(), output.getValue());
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        // Wait for the remaining writes.
+        inFlight.acquire(this.maxInFlight);
+        inFlight.release(this.maxInFlight);
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
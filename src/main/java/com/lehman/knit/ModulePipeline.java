@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Bounded pipeline over a list of sources. Each source is processed (read,
+ * parsed and possibly rendered and written) on the provided executor and
+ * the results are handed to a sink on the calling thread in source order.
+ * At most window sources are submitted ahead of the sink, so only that
+ * many parsed modules are held in memory at any time no matter how many
+ * sources there are.
+ */
+public class ModulePipeline {
+    /**
+     * A stage that runs concurrently for each source.
+     */
+    public interface Stage {
+        /**
+         * Processes the provided source.
+         * @param src is the Source to process.
+         * @return A dwFile object with the parsed module.
+         * @throws Exception on failure.
+         */
+        DataWeaveFile process(SourceWalker.Source src) throws Exception;
+    }
+
+    /**
+     * The sink that receives the stage results in source order.
+     */
+    public interface Sink {
+        /**
+         * Accepts the result of the source at the provided index.
+         * @param index is an int with the index of the source.
+         * @param file is the dwFile object returned by the stage.
+         * @throws Exception on failure.
+         */
+        void accept(int index, DataWeaveFile file) throws Exception;
+    }
+
+    /**
+     * The executor to run the stage on.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * The maximum number of sources submitted ahead of the sink.
+     */
+    private final int window;
+
+    /**
+     * Constructor with the executor and window size.
+     * @param Pool is the ExecutorService to run the stage on.
+     * @param Window is an int with the maximum number of sources submitted ahead of the sink.
+     */
+    public ModulePipeline(ExecutorService Pool, int Window) {
+        this.pool = Pool;
+        this.window = Math.max(1, Window);
+    }
+
+    /**
+     * Runs the stage for each of the provided sources and hands the results
+     * to the sink in source order. Sources still pending when the stage or
+     * sink fails are cancelled.
+     * @param sources is a List of sources to process.
+     * @param stage is the Stage to run for each source.
+     * @param sink is the Sink to hand the results to.
+     * @throws Exception on the first stage or sink failure.
+     */
+    public void run(List<SourceWalker.Source> sources, final Stage stage, Sink sink) throws Exception {
+        ArrayDeque<Future<DataWeaveFile>> pending = new ArrayDeque<Future<DataWeaveFile>>();
+        int next = 0;
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                while (next < sources.size() && pending.size() < this.window) {
+                    final SourceWalker.Source src = sources.get(next++);
+                    pending.add(this.pool.submit(() -> stage.process(src)));
+                }
+                sink.accept(i, pending.poll().get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            for (Future<DataWeaveFile> res : pending) {
+                res.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a sidecar manifest with the content hash of each output file so
+ * that outputs whose content didn't change are left untouched. Output is
+ * streamed to a temp file next to the target while being hashed. Once the
+ * content is complete the temp file is either discarded (same hash as the
+ * manifest and the target is intact) or atomically moved over the target.
+ * Generated outputs of an earlier run that weren't written again can be
+ * pruned. Only outputs written as prunable inside the output directory are
+ * ever deleted, files like a consolidated outputFile that may be a file the
+ * user owns are only reported.
+ */
+public class OutputManifest {
+    /**
+     * Callback that streams the content of an output file.
+     */
+    public interface Content {
+        /**
+         * Writes the output file content.
+         * @param out is the Writer to write the content to.
+         * @throws Exception on failure. Nothing is committed in that case.
+         */
+        void write(Writer out) throws Exception;
+    }
+
+    /**
+     * The manifest file.
+     */
+    private final File manifestFile;
+
+    /**
+     * Suffix of the entries of prunable outputs.
+     */
+    private static final String PRUNABLE = ":p";
+
+    /**
+     * The output file entries. (absolute path -> size:hash, PRUNABLE appended if prunable)
+     */
+    private final Map<String, String> entries = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The output files written or left unchanged in this run.
+     */
+    private final Set<String> current = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Count of files written.
+     */
+    private final AtomicInteger written = new AtomicInteger();
+
+    /**
+     * Count of files left unchanged.
+     */
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    /**
+     * Count of stale files removed.
+     */
+    private int removed = 0;
+
+    /**
+     * The metrics to record render and write timings in or null if not recorded.
+     */
+    private KnitMetrics metrics = null;
+
+    /**
+     * Constructor with the manifest file. The manifest is loaded if it exists.
+     * @param ManifestFile is a File with the manifest to load and save.
+     * @throws IOException on IO exception.
+     */
+    public OutputManifest(File ManifestFile) throws IOException {
+        this.manifestFile = ManifestFile;
+        if (ManifestFile.isFile()) {
+            Properties props = new Properties();
+            InputStream in = new FileInputStream(ManifestFile);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            for (String key : props.stringPropertyNames()) {
+                this.entries.put(key, props.getProperty(key));
+            }
+        }
+    }
+
+    /**
+     * Sets the metrics to record render and write timings in.
+     * @param Metrics is the KnitMetrics object or null to not record timings.
+     */
+    public void setMetrics(KnitMetrics Metrics) {
+        this.metrics = Metrics;
+    }
+
+    /**
+     * Writes the provided prunable output file. (See write(String, Content, boolean))
+     * @param FileName is a String with the output file name.
+     * @param content is the Content callback that streams the file content.
+     * @throws Exception on failure.
+     */
+    public void write(String FileName, Content content) throws Exception {
+        this.write(FileName, content, true);
+    }
+
+    /**
+     * Writes the provided output file. The content is streamed to a temp file and
+     * the target is only replaced when the content differs from the last write.
+     * If the content callback fails, the target is left as is. Text is encoded
+     * with the platform default charset, the same as Utility.write().
+     * @param FileName is a String with the output file name.
+     * @param content is the Content callback that streams the file content.
+     * @param Prunable is a boolean with true if prune() may delete the file once
+     * it isn't written anymore and false if it is only reported.
+     * @throws Exception on failure.
+     */
+    public void write(String FileName, Content content, boolean Prunable) throws Exception {
+        ManifestWriter out = this.open(FileName, Prunable);
+        boolean ok = false;
+        long[] timer = this.metrics != null ? this.metrics.startRender() : null;
+        try {
+            content.write(out);
+            ok = true;
+        } finally {
+            if (timer != null) {
+                this.metrics.endRender(KnitMetrics.Phase.RENDER, timer);
+            }
+            long rendered = System.nanoTime();
+            out.finish(ok);
+            if (this.metrics != null) {
+                this.metrics.add(KnitMetrics.Phase.WRITE, System.nanoTime() - rendered);
+            }
+        }
+    }
+
+    /**
+     * Opens a temp file writer for the provided output file.
+     */
+    private ManifestWriter open(String FileName, boolean Prunable) throws IOException {
+        File target = new File(FileName).getAbsoluteFile();
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create output directory '" + parent + "'.");
+        }
+
+        File tmp = File.createTempFile("." + target.getName(), ".tmp", parent);
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        OutputStream os = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024), md);
+        return new ManifestWriter(new BufferedWriter(new OutputStreamWriter(os, Charset.defaultCharset()), 64 * 1024), target, tmp, md, Prunable);
+    }
+
+    /**
+     * Drops the entries of outputs of earlier runs that weren't written in this
+     * run. Stale prunable outputs inside the provided output directory, like
+     * the page of a module that was removed, are deleted. Other stale outputs
+     * are left as they are and returned so they can be reported. Only call it
+     * once all outputs of a complete run are written.
+     * @param OutputDirectory is a File with the directory of the generated outputs.
+     * @return A List of Strings with the stale output files that weren't deleted.
+     * @throws IOException if a stale output can't be deleted.
+     */
+    public List<String> prune(File OutputDirectory) throws IOException {
+        Path dir = OutputDirectory.getAbsoluteFile().toPath().normalize();
+        List<String> kept = new ArrayList<String>();
+        for (Map.Entry<String, String> ent : this.entries.entrySet()) {
+            String fileName = ent.getKey();
+            if (this.current.contains(fileName)) {
+                continue;
+            }
+            Path file = new File(fileName).toPath().normalize();
+            if (ent.getValue().endsWith(PRUNABLE) && file.startsWith(dir) && !file.equals(dir)) {
+                if (Files.deleteIfExists(file)) {
+                    this.removed++;
+                }
+            } else if (Files.isRegularFile(file)) {
+                kept.add(fileName);
+            }
+            this.entries.remove(fileName);
+        }
+        Collections.sort(kept);
+        return kept;
+    }
+
+    /**
+     * Saves the manifest. Entries for outputs that no longer exist are dropped.
+     * The manifest is written to a temp file first and then moved into place,
+     * so an interrupted save doesn't leave a partial manifest.
+     * @throws IOException on IO exception.
+     */
+    public void save() throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String, String> ent : this.entries.entrySet()) {
+            if (new File(ent.getKey()).isFile()) {
+                props.setProperty(ent.getKey(), ent.getValue());
+            }
+        }
+
+        File parent = this.manifestFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory '" + parent + "'.");
+        }
+        File tmp = File.createTempFile("." + this.manifestFile.getName(), ".tmp", parent);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                props.store(out, "knit output manifest");
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp.toPath(), this.manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), this.manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Returns true if the manifest has entries and all of the output files
+     * in it still exist.
+     * @return A boolean with true if all outputs exist and false if not.
+     */
+    public boolean outputsExist() {
+        if (this.entries.isEmpty()) {
+            return false;
+        }
+        for (String fileName : this.entries.keySet()) {
+            if (!new File(fileName).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of output files written.
+     * @return An int with the written count.
+     */
+    public int getWritten() {
+        return this.written.get();
+    }
+
+    /**
+     * Gets the number of output files left unchanged.
+     * @return An int with the unchanged count.
+     */
+    public int getUnchanged() {
+        return this.unchanged.get();
+    }
+
+    /**
+     * Gets the number of stale output files removed by prune().
+     * @return An int with the removed count.
+     */
+    public int getRemoved() {
+        return this.removed;
+    }
+
+    /**
+     * Commits a finished temp file.
+     */
+    private void commit(File target, File tmp, byte[] digest, boolean prunable) throws IOException {
+        String entry = tmp.length() + ":" + toHex(digest) + (prunable ? PRUNABLE : "");
+        String key = target.getPath();
+        this.current.add(key);
+
+        if (entry.equals(this.entries.get(key)) && target.isFile() && target.length() == tmp.length()) {
+            Files.delete(tmp.toPath());
+            this.unchanged.incrementAndGet();
+            return;
+        }
+
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.entries.put(key, entry);
+        this.written.incrementAndGet();
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writer on the temp file of an output. The temp file is committed or
+     * discarded by finish().
+     */
+    private class ManifestWriter extends FilterWriter {
+        private final File target;
+        private final File tmp;
+        private final MessageDigest md;
+        private final boolean prunable;
+
+        ManifestWriter(Writer Out, File Target, File Tmp, MessageDigest Md, boolean Prunable) {
+            super(Out);
+            this.target = Target;
+            this.tmp = Tmp;
+            this.md = Md;
+            this.prunable = Prunable;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Closed by finish().
+            this.flush();
+        }
+
+        void finish(boolean commit) throws IOException {
+            try {
+                this.out.close();
+                if (commit) {
+                    OutputManifest.this.commit(this.target, this.tmp, this.md.digest(), this.prunable);
+                }
+            } finally {
+                if (this.tmp.exists()) {
+                    this.tmp.delete();
+                }
+            }
+        }
+    }
+}
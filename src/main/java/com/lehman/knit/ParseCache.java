@@ -0,0 +1,352 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent parse cache. Parsed dwFile objects are stored serialized in the
+ * cache directory keyed by a hash of the parser version and file contents.
+ * An index of file path, size and modified time to content hash lets
+ * unchanged files skip reading and parsing entirely. The index records the
+ * parser version it was written with and is ignored after a version change.
+ */
+public class ParseCache {
+    /**
+     * The name of the index file in the cache directory.
+     */
+    private static final String INDEX_FILE = "index.properties";
+
+    /**
+     * The file extension of the cache entries.
+     */
+    private static final String ENTRY_EXT = ".ser";
+
+    /**
+     * The index key of the parser version. It can't clash with a file path.
+     */
+    private static final String VERSION_KEY = "@parserVersion";
+
+    /**
+     * The cache directory.
+     */
+    private final File dir;
+
+    /**
+     * The index loaded from the previous run. (path -> size:mtime:mode:hash)
+     */
+    private final Map<String, String> previous = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The index entries seen in this run. (path -> size:mtime:mode:hash)
+     */
+    private final Map<String, String> current = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Cache hit count.
+     */
+    private final AtomicInteger hits = new AtomicInteger();
+
+    /**
+     * Cache miss count.
+     */
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Constructor with the cache directory. The index from a previous run is
+     * loaded if it exists.
+     * @param Dir is a File with the cache directory.
+     * @throws IOException on IO exception.
+     */
+    public ParseCache(File Dir) throws IOException {
+        this.dir = Dir;
+        File index = new File(Dir, INDEX_FILE);
+        if (index.isFile()) {
+            Properties props = new Properties();
+            InputStream in = new FileInputStream(index);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            // Entries of another parser version have another model, so only
+            // their content hash lookups can hit.
+            if (KnitParser.PARSER_VERSION.equals(props.getProperty(VERSION_KEY))) {
+                props.remove(VERSION_KEY);
+                for (String key : props.stringPropertyNames()) {
+                    this.previous.put(key, props.getProperty(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a DW file with the provided parser, root directory name and file
+     * name. If the file is unchanged since the last run or a file with the same
+     * contents has been parsed before, the cached result is returned instead.
+     * @param parser is the KnitParser to use on a cache miss.
+     * @param rootDirName is a String with the root directory of the file to parse.
+     * @param fileName is a String with the file name to parse.
+     * @param dwlFileExt is a String with the DataWeave file extension.
+     * @return A dwFile object with the result.
+     * @throws IOException on IO exception.
+     */
+    public DataWeaveFile parseFile(KnitParser parser, String rootDirName, String fileName, String dwlFileExt) throws IOException {
+        File file = new File(fileName);
+        return this.parse(parser, rootDirName, fileName, dwlFileExt, file.getAbsolutePath(),
+                file.length() + ":" + file.lastModified(), () -> Utility.map(fileName));
+    }
+
+    /**
+     * Parses a DW archive entry with the provided parser. (See parseFile())
+     * Entries are unchanged as long as the archive is, so only a changed
+     * archive has its entries read again.
+     * @param parser is the KnitParser to use on a cache miss.
+     * @param src is the Source of the archive entry.
+     * @param dwlFileExt is a String with the DataWeave file extension.
+     * @return A dwFile object with the result.
+     * @throws IOException on IO exception.
+     */
+    public DataWeaveFile parseEntry(KnitParser parser, SourceWalker.Source src, String dwlFileExt) throws IOException {
+        File archive = new File(src.getArchive());
+        return this.parse(parser, src.getRootDirName(), src.getFileName(), dwlFileExt, archive.getAbsolutePath() + "!" + src.getEntry(),
+                archive.length() + ":" + archive.lastModified(), src::readEntry);
+    }
+
+    /**
+     * Parses a DW file or returns the cached result.
+     * @param parser is the KnitParser to use on a cache miss.
+     * @param rootDirName is a String with the root directory of the file to parse.
+     * @param fileName is a String with the file name to parse.
+     * @param dwlFileExt is a String with the DataWeave file extension.
+     * @param path is a String with the index key of the file.
+     * @param fileStat is a String with the size and modified time that tell if the file changed.
+     * @param contents reads the raw file contents.
+     * @return A dwFile object with the result.
+     * @throws IOException on IO exception.
+     */
+    private DataWeaveFile parse(KnitParser parser, String rootDirName, String fileName, String dwlFileExt, String path, String fileStat,
+                                Contents contents) throws IOException {
+        String stat = fileStat + ":" + (parser.isMemoryMapped() ? "m" : "r") + (parser.isCompact() ? "c" : "")
+                + (parser.isMemoryMapped() ? "" : "@" + parser.getCharset().name());
+
+        // Unchanged since the last run, no need to read the file.
+        String prev = this.previous.get(path);
+        if (prev != null && prev.startsWith(stat + ":")) {
+            String hash = prev.substring(stat.length() + 1);
+            DataWeaveFile cached = this.load(hash, rootDirName, fileName, dwlFileExt);
+            if (cached != null) {
+                this.current.put(path, prev);
+                this.hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        // Changed on disk, but the contents may still be known.
+        long start = System.nanoTime();
+        ByteBuffer data = contents.read();
+        String hash = hash(parser, data);
+        if (parser.getMetrics() != null) {
+            parser.getMetrics().add(KnitMetrics.Phase.READ, System.nanoTime() - start);
+        }
+        this.current.put(path, stat + ":" + hash);
+        DataWeaveFile cached = this.load(hash, rootDirName, fileName, dwlFileExt);
+        if (cached != null) {
+            this.hits.incrementAndGet();
+            return cached;
+        }
+
+        this.misses.incrementAndGet();
+        DataWeaveFile ret = new DataWeaveFile(Utility.relativeName(fileName, rootDirName), dwlFileExt);
+        start = System.nanoTime();
+        CharSequence text = parser.decode(data);
+        if (parser.getMetrics() != null) {
+            parser.getMetrics().add(KnitMetrics.Phase.READ, System.nanoTime() - start);
+        }
+        parser.parseText(text, ret);
+        this.store(hash, ret);
+        return ret;
+    }
+
+    /**
+     * Writes the index for this run and removes entries that are no
+     * longer referenced.
+     * @throws IOException on IO exception.
+     */
+    public void save() throws IOException {
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("Failed to create cache directory '" + this.dir + "'.");
+        }
+
+        Properties props = new Properties();
+        Set<String> live = new HashSet<String>();
+        for (Map.Entry<String, String> ent : this.current.entrySet()) {
+            props.setProperty(ent.getKey(), ent.getValue());
+            String val = ent.getValue();
+            live.add(val.substring(val.lastIndexOf(':') + 1) + ENTRY_EXT);
+        }
+        props.setProperty(VERSION_KEY, KnitParser.PARSER_VERSION);
+
+        File tmp = new File(this.dir, INDEX_FILE + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            props.store(out, "knit parse cache index");
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), new File(this.dir, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        File[] entries = this.dir.listFiles();
+        if (entries != null) {
+            for (File f : entries) {
+                if (f.getName().endsWith(ENTRY_EXT) && !live.contains(f.getName())) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cache hits.
+     * @return An int with the hit count.
+     */
+    public int getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Gets the number of cache misses.
+     * @return An int with the miss count.
+     */
+    public int getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Loads a cache entry and sets the file name information for the provided
+     * file. Entries with the same contents can come from different paths.
+     * @return A dwFile object or null if not found or unreadable.
+     */
+    private DataWeaveFile load(String hash, String rootDirName, String fileName, String dwlFileExt) {
+        File entry = new File(this.dir, hash + ENTRY_EXT);
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        DataWeaveFile cached;
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            try {
+                cached = (DataWeaveFile) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // Stale or corrupt entry, treat as a miss.
+            return null;
+        }
+
+        DataWeaveFile ret = new DataWeaveFile(Utility.relativeName(fileName, rootDirName), dwlFileExt);
+        ret.setCommentString(cached.getCommentString());
+        ret.setComment(cached.getComment());
+        ret.setVariables(cached.getVariables());
+        ret.setFunctions(cached.getFunctions());
+        ret.setTables(cached.getTables());
+        if (cached.getImports() != null) {
+            ret.setImports(cached.getImports());
+        }
+        ret.setLineIndex(cached.getLineIndex());
+        return ret;
+    }
+
+    /**
+     * Stores a cache entry. The entry is written to a temp file first so
+     * concurrent or interrupted builds never see a partial entry.
+     */
+    private void store(String hash, DataWeaveFile file) throws IOException {
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("Failed to create cache directory '" + this.dir + "'.");
+        }
+
+        File tmp = File.createTempFile(hash, ".tmp", this.dir);
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeObject(file);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), new File(this.dir, hash + ENTRY_EXT).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Hashes the parser version, read mode, model mode and the provided file
+     * contents. Files that aren't memory mapped are decoded with the platform
+     * default charset, so its name is hashed too.
+     * @return A String with the hex SHA-256 digest.
+     */
+    private static String hash(KnitParser parser, ByteBuffer data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            // Compact entries get their own keys, other keys are unchanged.
+            String version = KnitParser.PARSER_VERSION + (parser.isCompact() ? "c" : "");
+            md.update(version.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update((byte) (parser.isMemoryMapped() ? 1 : 0));
+            if (!parser.isMemoryMapped()) {
+                md.update(parser.getCharset().name().getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            md.update(data.duplicate());
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the raw contents of a file to parse.
+     */
+    private interface Contents {
+        ByteBuffer read() throws IOException;
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Inverted full text index of modules, functions and variables for the
+ * static search page. Doc writers add each module while rendering it, which
+ * may happen on several threads, and the index is written once all modules
+ * are rendered. Terms are taken from names, comment text, annotations,
+ * arguments and mapping table cells, lower cased and with camel case names
+ * also split into their parts. Terms are sorted so the search page finds
+ * all terms with a prefix by binary search. Each posting list holds the
+ * ascending document ids as base 36 deltas. Each distinct term is held
+ * once in a shared dictionary and documents keep only the term ids, so the
+ * index stays small when many modules are added before it is written.
+ */
+public class SearchIndex {
+    /**
+     * Line separator shorthand.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * The file name of the index script.
+     */
+    public static final String INDEX_FILE = "search-index.js";
+
+    /**
+     * The file name of the search page.
+     */
+    public static final String PAGE_FILE = "search.html";
+
+    /**
+     * The format version of the index script.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Document kinds.
+     */
+    static final int KIND_MODULE = 0;
+    static final int KIND_FUNCTION = 1;
+    static final int KIND_VARIABLE = 2;
+
+    /**
+     * Shorter terms aren't indexed.
+     */
+    private static final int MIN_TERM_LENGTH = 2;
+
+    /**
+     * Longer terms aren't indexed.
+     */
+    private static final int MAX_TERM_LENGTH = 40;
+
+    /**
+     * The maximum length of document summaries.
+     */
+    private static final int SUMMARY_LENGTH = 120;
+
+    /**
+     * The indexed documents of each module.
+     */
+    private final Map<DataWeaveFile, Doc[]> docs = new ConcurrentHashMap<DataWeaveFile, Doc[]>();
+
+    /**
+     * The term ids by term.
+     */
+    private final Map<String, Integer> termIds = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * The next term id.
+     */
+    private final AtomicInteger nextTermId = new AtomicInteger();
+
+    /**
+     * Adds the provided module to the index or replaces it.
+     * @param file is the dwFile object to add.
+     */
+    public void add(DataWeaveFile file) {
+        this.docs.put(file, this.index(file));
+    }
+
+    /**
+     * Moves the provided module to another key, indexing it first if it
+     * wasn't added yet. This lets the index be written with module summaries
+     * once the parsed modules are dropped.
+     * @param file is the dwFile object to move.
+     * @param key is the dwFile object the module is written as.
+     */
+    public void rekey(DataWeaveFile file, DataWeaveFile key) {
+        Doc[] mdocs = this.docs.remove(file);
+        this.docs.put(key, mdocs != null ? mdocs : this.index(file));
+    }
+
+    /**
+     * Drops all modules that aren't in the provided set.
+     * @param live is a Set of the dwFile objects to keep.
+     */
+    public void retain(Set<DataWeaveFile> live) {
+        this.docs.keySet().retainAll(live);
+    }
+
+    /**
+     * Writes the index script of the provided modules. Modules that weren't
+     * added yet are indexed first.
+     * @param files is a List of dwFile objects in document order.
+     * @param links is a Function that returns the link of a module relative to the search page.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    public void write(List<DataWeaveFile> files, Function<DataWeaveFile, String> links, Appendable out) throws IOException {
+        IntList[] postings = new IntList[this.termIds.size()];
+
+        out.append("var KNIT_SEARCH_INDEX = {\"version\":").append(String.valueOf(FORMAT_VERSION)).append(",").append(NL);
+        out.append("\"modules\":[");
+        for (int i = 0; i < files.size(); i++) {
+            if (i > 0) out.append(",");
+            Utility.writeJsonString(links.apply(files.get(i)), out);
+        }
+        out.append("],").append(NL);
+
+        out.append("\"docs\":[");
+        int id = 0;
+        for (int i = 0; i < files.size(); i++) {
+            DataWeaveFile dwf = files.get(i);
+            Doc[] mdocs = this.docs.get(dwf);
+            if (mdocs == null) {
+                mdocs = this.index(dwf);
+            }
+            for (Doc doc : mdocs) {
+                if (id > 0) out.append(",");
+                out.append(NL).append("[").append(String.valueOf(doc.kind)).append(",");
+                Utility.writeJsonString(doc.name, out);
+                out.append(",").append(String.valueOf(i)).append(",");
+                Utility.writeJsonString(doc.summary, out);
+                out.append("]");
+                for (int term : doc.terms) {
+                    if (term >= postings.length) {
+                        postings = Arrays.copyOf(postings, Math.max(term + 1, postings.length * 2));
+                    }
+                    if (postings[term] == null) {
+                        postings[term] = new IntList();
+                    }
+                    postings[term].add(id);
+                }
+                id++;
+            }
+        }
+        out.append("],").append(NL);
+
+        // Terms of dropped modules have no postings.
+        List<String> terms = new ArrayList<String>();
+        for (Map.Entry<String, Integer> entry : this.termIds.entrySet()) {
+            int term = entry.getValue();
+            if (term < postings.length && postings[term] != null) {
+                terms.add(entry.getKey());
+            }
+        }
+        Collections.sort(terms);
+        out.append("\"terms\":[");
+        for (int i = 0; i < terms.size(); i++) {
+            if (i > 0) out.append(",");
+            Utility.writeJsonString(terms.get(i), out);
+        }
+        out.append("],").append(NL);
+
+        out.append("\"postings\":[");
+        for (int i = 0; i < terms.size(); i++) {
+            if (i > 0) out.append(",");
+            IntList ids = postings[this.termIds.get(terms.get(i))];
+            out.append('"');
+            int last = 0;
+            for (int j = 0; j < ids.size; j++) {
+                if (j > 0) out.append('.');
+                out.append(Integer.toString(ids.values[j] - last, 36));
+                last = ids.values[j];
+            }
+            out.append('"');
+        }
+        out.append("]};").append(NL);
+    }
+
+    /**
+     * Writes the search page. It loads the index script from the same directory.
+     * @param out is the Appendable to write to.
+     * @throws IOException on IO exception.
+     */
+    public static void writePage(Appendable out) throws IOException {
+        InputStream in = SearchIndex.class.getResourceAsStream("search.html");
+        if (in == null) {
+            throw new IOException("Search page resource not found.");
+        }
+        Reader rdr = new InputStreamReader(in, StandardCharsets.UTF_8);
+        try {
+            char[] buff = new char[4096];
+            int len;
+            while ((len = rdr.read(buff)) > 0) {
+                out.append(CharBuffer.wrap(buff, 0, len));
+            }
+        } finally {
+            rdr.close();
+        }
+    }
+
+    /**
+     * Builds the documents of the provided module.
+     * @param file is the dwFile object to index.
+     * @return An array of Doc objects, the module first.
+     */
+    private Doc[] index(DataWeaveFile file) {
+        Doc[] ret = new Doc[1 + file.getFunctions().size() + file.getVariables().size()];
+        String qualifiedName = file.getQualifiedName();
+        String prefix = qualifiedName + SymbolTable.SEPARATOR;
+
+        Set<String> terms = new HashSet<String>();
+        for (String part : file.getModulePath()) {
+            addTerms(part, terms);
+        }
+        addComment(file.getComment(), terms);
+        for (DataWeaveTable table : file.getTables()) {
+            addComment(table.getComment(), terms);
+            addTable(table.getTable(), terms);
+        }
+        ret[0] = new Doc(KIND_MODULE, qualifiedName, summary(file.getComment()), this.ids(terms));
+
+        int i = 1;
+        for (DataWeaveFunction fun : file.getFunctions()) {
+            terms = new HashSet<String>();
+            addTerms(file.getName(), terms);
+            addTerms(fun.getName(), terms);
+            for (DataWeaveArgument arg : fun.getArguments()) {
+                addTerms(arg.getName(), terms);
+                addTerms(arg.getDatatype(), terms);
+            }
+            addComment(fun.getComment(), terms);
+            addTable(fun.getTable(), terms);
+            ret[i++] = new Doc(KIND_FUNCTION, prefix + fun.getName(), summary(fun.getComment()), this.ids(terms));
+        }
+
+        for (DataWeaveVariable var : file.getVariables()) {
+            terms = new HashSet<String>();
+            addTerms(file.getName(), terms);
+            addTerms(var.getName(), terms);
+            addComment(var.getComment(), terms);
+            ret[i++] = new Doc(KIND_VARIABLE, prefix + var.getName(), summary(var.getComment()), this.ids(terms));
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the dictionary ids of the provided terms, adding new terms.
+     * @param terms is a Set of terms.
+     * @return An array with the term ids.
+     */
+    private int[] ids(Set<String> terms) {
+        int[] ret = new int[terms.size()];
+        int i = 0;
+        for (String term : terms) {
+            ret[i++] = this.termIds.computeIfAbsent(term, t -> this.nextTermId.getAndIncrement());
+        }
+        return ret;
+    }
+
+    private static void addComment(DataWeaveComment comment, Set<String> terms) {
+        if (comment == null) {
+            return;
+        }
+        addTerms(comment.getText(), terms);
+        for (DataWeaveCommentAnnotation ann : comment.getAnnotations()) {
+            addTerms(ann.getKey(), terms);
+            addTerms(ann.getValue(), terms);
+        }
+    }
+
+    private static void addTable(AnnotationTable table, Set<String> terms) {
+        if (table == null) {
+            return;
+        }
+        for (String col : table.getColumns()) {
+            addTerms(col, terms);
+        }
+        for (AnnotationRow row : table.getRows()) {
+            for (String field : row.getFields()) {
+                addTerms(field, terms);
+            }
+        }
+    }
+
+    /**
+     * Adds the terms of the provided text. A term is a run of letters and
+     * digits. Runs with camel case or letter digit boundaries are added
+     * whole and as their parts. (mapPalette, map, palette)
+     * @param text is the String to add terms of or null.
+     * @param terms is the Set to add terms to.
+     */
+    static void addTerms(String text, Set<String> terms) {
+        if (text == null) {
+            return;
+        }
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < len && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i == start) {
+                continue;
+            }
+
+            addTerm(text, start, i, terms);
+            int partStart = start;
+            for (int j = start + 1; j < i; j++) {
+                if (isBoundary(text, j, i)) {
+                    addTerm(text, partStart, j, terms);
+                    partStart = j;
+                }
+            }
+            if (partStart > start) {
+                addTerm(text, partStart, i, terms);
+            }
+        }
+    }
+
+    /**
+     * Returns true if a new word part starts at the provided position.
+     */
+    private static boolean isBoundary(String text, int pos, int end) {
+        char prev = text.charAt(pos - 1);
+        char cur = text.charAt(pos);
+        if (Character.isDigit(prev) != Character.isDigit(cur)) {
+            return true;
+        }
+        if (Character.isLowerCase(prev) && Character.isUpperCase(cur)) {
+            return true;
+        }
+        // The last capital of an acronym starts the next word. (JSONParser)
+        return Character.isUpperCase(prev) && Character.isUpperCase(cur)
+                && pos + 1 < end && Character.isLowerCase(text.charAt(pos + 1));
+    }
+
+    private static void addTerm(String text, int start, int end, Set<String> terms) {
+        int len = end - start;
+        if (len >= MIN_TERM_LENGTH && len <= MAX_TERM_LENGTH) {
+            terms.add(text.substring(start, end).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Gets the first line of the comment text, shortened to SUMMARY_LENGTH.
+     */
+    private static String summary(DataWeaveComment comment) {
+        if (comment == null || comment.getText() == null) {
+            return "";
+        }
+        String text = comment.getText().trim();
+        int end = 0;
+        while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') end++;
+        if (end > SUMMARY_LENGTH) {
+            return text.substring(0, SUMMARY_LENGTH - 3).trim() + "...";
+        }
+        return text.substring(0, end).trim();
+    }
+
+    /**
+     * A searchable module, function or variable.
+     */
+    private static class Doc {
+        private final int kind;
+        private final String name;
+        private final String summary;
+        private final int[] terms;
+
+        Doc(int Kind, String Name, String Summary, int[] Terms) {
+            this.kind = Kind;
+            this.name = Name;
+            this.summary = Summary;
+            this.terms = Terms;
+        }
+    }
+
+    /**
+     * Growable list of ints.
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        void add(int val) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = val;
+        }
+    }
+}
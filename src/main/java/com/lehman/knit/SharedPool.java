@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the ForkJoinPool shared by all knit executions in the same JVM.
+ * In a parallel reactor build (mvn -T) each module runs its own knit
+ * execution, so sharing one bounded pool keeps them from oversubscribing
+ * the cores. The pool is created by the first execution that asks for it
+ * and lives as long as the JVM. Its worker threads are daemon threads.
+ */
+public final class SharedPool {
+    /**
+     * The shared pool or null until first requested.
+     */
+    private static ForkJoinPool pool = null;
+
+    private SharedPool() { }
+
+    /**
+     * Gets the shared pool, creating it with the provided parallelism if
+     * it doesn't exist yet. The parallelism of an existing pool isn't changed.
+     * @param Threads is an int with the parallelism to create the pool with.
+     * @return The shared ForkJoinPool. Don't shut it down.
+     */
+    public static synchronized ForkJoinPool get(int Threads) {
+        if (pool == null) {
+            pool = new ForkJoinPool(Math.max(1, Threads));
+        }
+        return pool;
+    }
+}
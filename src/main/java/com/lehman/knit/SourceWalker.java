@@ -0,0 +1,418 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.zip.ZipError;
+
+/**
+ * Walks the configured DW directories and files and returns the list of
+ * sources to parse. Directories are listed in parallel on the provided
+ * pool, but the result is always in the same order as a sequential depth
+ * first walk. Symbolic link loops are skipped and files reachable more than
+ * once (through overlapping directories, links or the files list) are only
+ * returned the first time.
+ *
+ * Archives (jar and zip files) are opened as zip file systems and their
+ * DataWeave entries are read from there without extracting them. The
+ * module path of an entry is its path in the archive. The archive file
+ * systems stay open until the walker is closed, so the walker has to be
+ * closed once the sources are parsed.
+ */
+public class SourceWalker implements Closeable {
+    /**
+     * Class models a single source file to parse.
+     */
+    public static class Source {
+        private final String rootDirName;
+        private final String fileName;
+        private final String key;
+        private final String archive;
+        private final Path entry;
+
+        /**
+         * Constructor with the root directory and file name.
+         * @param RootDirName is a String with the root directory of the file.
+         * @param FileName is a String with the file name.
+         * @param Key is a String that uniquely identifies the file on disk.
+         */
+        public Source(String RootDirName, String FileName, String Key) {
+            this(RootDirName, FileName, Key, null, null);
+        }
+
+        /**
+         * Constructor for an entry of an archive. The root directory is the
+         * archive file name followed by ! and the file name is the root
+         * directory followed by the path of the entry.
+         * @param RootDirName is a String with the root directory of the file.
+         * @param FileName is a String with the file name.
+         * @param Key is a String that uniquely identifies the entry on disk.
+         * @param Archive is a String with the archive file name.
+         * @param Entry is the Path of the entry in the archive file system.
+         */
+        public Source(String RootDirName, String FileName, String Key, String Archive, Path Entry) {
+            this.rootDirName = RootDirName;
+            this.fileName = FileName;
+            this.key = Key;
+            this.archive = Archive;
+            this.entry = Entry;
+        }
+
+        /**
+         * Gets the root directory of the file.
+         * @return A String with the root directory.
+         */
+        public String getRootDirName() {
+            return rootDirName;
+        }
+
+        /**
+         * Gets the file name.
+         * @return A String with the file name.
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Gets the key that uniquely identifies the file on disk.
+         * @return A String with the key.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the file name of the archive the source is in.
+         * @return A String with the archive file name or null if the source is a file.
+         */
+        public String getArchive() {
+            return archive;
+        }
+
+        /**
+         * Gets the path of the source in the archive file system.
+         * @return A Path in the archive or null if the source is a file.
+         */
+        public Path getEntry() {
+            return entry;
+        }
+
+        /**
+         * Gets the size of the source in bytes. For archive entries this is
+         * the uncompressed size.
+         * @return A long with the size.
+         * @throws IOException on IO exception.
+         */
+        public long getSize() throws IOException {
+            return this.entry != null ? Files.size(this.entry) : new File(this.fileName).length();
+        }
+
+        /**
+         * Reads an archive entry in full.
+         * @return A ByteBuffer with the entry contents.
+         * @throws IOException on IO exception.
+         */
+        public ByteBuffer readEntry() throws IOException {
+            return ByteBuffer.wrap(Files.readAllBytes(this.entry));
+        }
+    }
+
+    /**
+     * The pool to list directories on.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The DataWeave file extension.
+     */
+    private final String dwlFileExt;
+
+    /**
+     * The log to report problems with directories to.
+     */
+    private final Log log;
+
+    /**
+     * The directory walk tasks and single files in the order they were added.
+     */
+    private final List<Object> roots = new ArrayList<Object>();
+
+    /**
+     * The archive file systems opened by the walk.
+     */
+    private final Queue<FileSystem> archives = new ConcurrentLinkedQueue<FileSystem>();
+
+    /**
+     * Constructor with the pool and file extension.
+     * @param Pool is the ForkJoinPool to walk directories on.
+     * @param DwlFileExt is a String with the DataWeave file extension.
+     */
+    public SourceWalker(ForkJoinPool Pool, String DwlFileExt) {
+        this(Pool, DwlFileExt, new SystemStreamLog());
+    }
+
+    /**
+     * Constructor with the pool, file extension and log.
+     * @param Pool is the ForkJoinPool to walk directories on.
+     * @param DwlFileExt is a String with the DataWeave file extension.
+     * @param Log is the Log to report problems with directories to.
+     */
+    public SourceWalker(ForkJoinPool Pool, String DwlFileExt, Log Log) {
+        this.pool = Pool;
+        this.dwlFileExt = DwlFileExt;
+        this.log = Log;
+    }
+
+    /**
+     * Adds a directory to walk.
+     * @param dirName is a String with the directory name.
+     */
+    public void addDirectory(String dirName) {
+        Path dir = Paths.get(dirName);
+        if (Files.exists(dir)) {
+            if (Files.isDirectory(dir)) {
+                this.roots.add(new DirectoryTask(dirName, dirName, new HashSet<Path>()));
+            } else {
+                this.log.error("Provided directory '" + dirName + "' isn't a directory.");
+            }
+        } else {
+            this.log.error("Provided directory '" + dirName + "' doesn't exist.");
+        }
+    }
+
+    /**
+     * Adds a single file.
+     * @param rootDirName is a String with the root directory of the file.
+     * @param fileName is a String with the file name.
+     */
+    public void addFile(String rootDirName, String fileName) {
+        this.roots.add(new Source(rootDirName, fileName, key(Paths.get(fileName))));
+    }
+
+    /**
+     * Adds an archive to read the DataWeave entries of.
+     * @param archiveName is a String with the archive file name.
+     */
+    public void addArchive(String archiveName) {
+        if (Files.isRegularFile(Paths.get(archiveName))) {
+            this.roots.add(new ArchiveTask(archiveName));
+        } else {
+            this.log.error("Provided archive '" + archiveName + "' doesn't exist.");
+        }
+    }
+
+    /**
+     * Walks all added directories and archives and returns the sources in
+     * order with duplicates removed. Directories and archives are all walked
+     * at the same time.
+     * @return A List of Source objects.
+     * @throws IOException on IO exception.
+     */
+    public List<Source> walk() throws IOException {
+        List<Object> tasks = new ArrayList<Object>();
+        for (Object root : this.roots) {
+            tasks.add(root instanceof ForkJoinTask ? this.pool.submit((ForkJoinTask<?>) root) : root);
+        }
+
+        List<Source> found = new ArrayList<Source>();
+        try {
+            for (Object task : tasks) {
+                if (task instanceof Source) {
+                    found.add((Source) task);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<Source> res = ((ForkJoinTask<List<Source>>) task).join();
+                    found.addAll(res);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        List<Source> ret = new ArrayList<Source>();
+        Set<String> seen = new HashSet<String>();
+        for (Source src : found) {
+            if (seen.add(src.key)) {
+                ret.add(src);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Closes the archive file systems opened by the walk. Sources of archive
+     * entries can't be read after this.
+     * @throws IOException on IO exception.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        FileSystem fs;
+        while ((fs = this.archives.poll()) != null) {
+            try {
+                fs.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Gets a key that identifies the file on disk regardless of the
+     * path it was reached through.
+     * @param path is the Path of the file.
+     * @return A String with the key.
+     */
+    public static String key(Path path) {
+        try {
+            return path.toRealPath().toString();
+        } catch (IOException e) {
+            return path.toAbsolutePath().normalize().toString();
+        }
+    }
+
+    /**
+     * Task lists a single directory. Subdirectories are forked and joined in
+     * listing order so that the result matches a sequential walk. Files are
+     * returned relative to the directory the walk started at, so the module
+     * path of each file mirrors the directory tree.
+     */
+    private class DirectoryTask extends RecursiveTask<List<Source>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String rootDirName;
+        private final String dirName;
+        private final Set<Path> ancestors;
+
+        DirectoryTask(String RootDirName, String DirName, Set<Path> Ancestors) {
+            this.rootDirName = RootDirName;
+            this.dirName = DirName;
+            this.ancestors = Ancestors;
+        }
+
+        @Override
+        protected List<Source> compute() {
+            Path dir = Paths.get(this.dirName);
+            Set<Path> chain = new HashSet<Path>(this.ancestors);
+            try {
+                if (!chain.add(dir.toRealPath())) {
+                    // Symbolic link loop back into one of our parents.
+                    return new ArrayList<Source>();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            List<Object> entries = new ArrayList<Object>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    String relName = this.dirName + "/" + entry.getFileName().toString();
+                    if (Files.isRegularFile(entry) && relName.endsWith("." + dwlFileExt)) {
+                        entries.add(new Source(this.rootDirName, relName, key(entry)));
+                    } else if (Files.isDirectory(entry)) {
+                        DirectoryTask sub = new DirectoryTask(this.rootDirName, relName, chain);
+                        sub.fork();
+                        entries.add(sub);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            List<Source> ret = new ArrayList<Source>();
+            for (Object entry : entries) {
+                if (entry instanceof Source) {
+                    ret.add((Source) entry);
+                } else {
+                    ret.addAll(((DirectoryTask) entry).join());
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Task lists the DataWeave entries of a single archive. The archive is
+     * opened as a zip file system that stays open for reading the entries.
+     * Files that aren't zip archives are skipped with a warning.
+     */
+    private class ArchiveTask extends RecursiveTask<List<Source>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String archiveName;
+
+        ArchiveTask(String ArchiveName) {
+            this.archiveName = ArchiveName;
+        }
+
+        @Override
+        protected List<Source> compute() {
+            List<Source> ret = new ArrayList<Source>();
+            Path file = Paths.get(this.archiveName);
+            FileSystem fs;
+            try {
+                fs = FileSystems.newFileSystem(file, (ClassLoader) null);
+            } catch (ProviderNotFoundException | IOException | ZipError e) {
+                // Java 8 reports a file that isn't a zip archive with ZipError.
+                log.warn("Archive '" + this.archiveName + "' can't be read as a zip file, it is skipped.");
+                return ret;
+            }
+            archives.add(fs);
+
+            String rootDirName = this.archiveName + "!";
+            String archiveKey = key(file) + "!";
+            for (Path root : fs.getRootDirectories()) {
+                try (Stream<Path> stream = Files.walk(root)) {
+                    stream.filter(entry -> entry.toString().endsWith("." + dwlFileExt) && Files.isRegularFile(entry))
+                            .forEach(entry -> ret.add(new Source(rootDirName, rootDirName + entry, archiveKey + entry, this.archiveName, entry)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return ret;
+        }
+    }
+}
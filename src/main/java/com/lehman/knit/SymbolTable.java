@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed table of the modules, functions and variables of a list of
+ * parsed files keyed by fully qualified name. Modules are keyed by their
+ * module path (dw::color::palette) and functions and variables by the
+ * module name plus the symbol name (dw::color::palette::mapPalette), so
+ * a/util.dwl and b/util.dwl don't collide. It also hands out the anchor
+ * of each module, which is the module name unless another module has the
+ * same name. Name lookups and anchors only depend on module names and paths,
+ * so a table built from module summaries serves the fully parsed modules as
+ * well. The table isn't changed after it is built, so it can be shared
+ * between threads.
+ */
+public class SymbolTable {
+    /**
+     * Separator of qualified name parts.
+     */
+    public static final String SEPARATOR = "::";
+
+    /**
+     * Modules by qualified name.
+     */
+    private final Map<String, DataWeaveFile> modules = new HashMap<String, DataWeaveFile>();
+
+    /**
+     * The first module with each module name.
+     */
+    private final Map<String, DataWeaveFile> names = new HashMap<String, DataWeaveFile>();
+
+    /**
+     * The number of modules with each module name.
+     */
+    private final Map<String, Integer> nameCounts = new HashMap<String, Integer>();
+
+    /**
+     * Functions by qualified name. A list since functions can be overloaded.
+     */
+    private final Map<String, List<DataWeaveFunction>> functions = new HashMap<String, List<DataWeaveFunction>>();
+
+    /**
+     * Variables by qualified name.
+     */
+    private final Map<String, DataWeaveVariable> variables = new HashMap<String, DataWeaveVariable>();
+
+    /**
+     * Builds the symbol table of the provided files. If two files have the
+     * same qualified name the first one wins.
+     * @param files is a List of dwFile objects to add.
+     */
+    public SymbolTable(List<DataWeaveFile> files) {
+        for (DataWeaveFile dwf : files) {
+            String qualifiedName = dwf.getQualifiedName();
+            if (this.modules.putIfAbsent(qualifiedName, dwf) != null) {
+                continue;
+            }
+            this.names.putIfAbsent(dwf.getName(), dwf);
+            this.nameCounts.merge(dwf.getName(), 1, Integer::sum);
+
+            String prefix = qualifiedName + SEPARATOR;
+            for (DataWeaveFunction fun : dwf.getFunctions()) {
+                this.functions.computeIfAbsent(prefix + fun.getName(), k -> new ArrayList<DataWeaveFunction>(1)).add(fun);
+            }
+            for (DataWeaveVariable var : dwf.getVariables()) {
+                this.variables.putIfAbsent(prefix + var.getName(), var);
+            }
+        }
+    }
+
+    /**
+     * Gets the module with the provided qualified name.
+     * @param qualifiedName is a String with the qualified module name. (dw::color::palette)
+     * @return A dwFile object or null if not found.
+     */
+    public DataWeaveFile getModule(String qualifiedName) {
+        return this.modules.get(qualifiedName);
+    }
+
+    /**
+     * Finds a module by qualified name or, if there is no such module, by
+     * module name. A module name shared by several modules resolves to the
+     * first of them.
+     * @param name is a String with the qualified module name or module name.
+     * @return A dwFile object or null if not found.
+     */
+    public DataWeaveFile findModule(String name) {
+        DataWeaveFile ret = this.modules.get(name);
+        return ret != null ? ret : this.names.get(name);
+    }
+
+    /**
+     * Resolves the provided module names with findModule(). Unknown names are
+     * reported to the provided log.
+     * @param moduleNameList is a List of qualified module names or module names.
+     * @param log is the Log to report unknown names to.
+     * @return A Set with the found dwFile objects in list order.
+     */
+    public Set<DataWeaveFile> findModules(List<String> moduleNameList, Log log) {
+        Set<DataWeaveFile> ret = new LinkedHashSet<DataWeaveFile>();
+        for (String modName : moduleNameList) {
+            DataWeaveFile modFile = this.findModule(modName);
+            if (modFile != null) {
+                ret.add(modFile);
+            } else {
+                log.warn("Module name '" + modName + "' was supplied in moduleNameList but was not found parsed file list.");
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the functions with the provided qualified name.
+     * @param qualifiedName is a String with the qualified function name. (dw::color::palette::mapPalette)
+     * @return A List of dwFunction objects, empty if not found.
+     */
+    public List<DataWeaveFunction> getFunctions(String qualifiedName) {
+        List<DataWeaveFunction> ret = this.functions.get(qualifiedName);
+        return ret != null ? Collections.unmodifiableList(ret) : Collections.<DataWeaveFunction>emptyList();
+    }
+
+    /**
+     * Gets the variable with the provided qualified name.
+     * @param qualifiedName is a String with the qualified variable name. (dw::color::palette::myVar)
+     * @return A dwVariable object or null if not found.
+     */
+    public DataWeaveVariable getVariable(String qualifiedName) {
+        return this.variables.get(qualifiedName);
+    }
+
+    /**
+     * Gets the number of modules in the table.
+     * @return An int with the module count.
+     */
+    public int getModuleCount() {
+        return this.modules.size();
+    }
+
+    /**
+     * Returns true if no other module in the table has the module name of
+     * the provided module.
+     * @param file is the dwFile object to check.
+     * @return A boolean with true if the module name is unique.
+     */
+    public boolean hasUniqueName(DataWeaveFile file) {
+        Integer count = this.nameCounts.get(file.getName());
+        return count == null || count < 2;
+    }
+
+    /**
+     * Gets the anchor of the provided module. This is the module name if it
+     * is unique and otherwise the qualified name with the parts joined by -.
+     * (a-util)
+     * @param file is the dwFile object to get the anchor for.
+     * @return A String with the anchor without the leading #.
+     */
+    public String getAnchor(DataWeaveFile file) {
+        return this.hasUniqueName(file) ? file.getName() : Utility.join("-", file.getModulePath());
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A text template compiled into a render tree. The syntax is a small
+ * subset of Mustache:
+ * <pre>
+ * {{name}}            the text value of name
+ * {{name|oneline}}    the text value with new lines removed
+ * {{name|breaks}}     the text value with Markdown hard line breaks
+ * {{name|cell}}       the text value as a Markdown table cell
+ * {{list}}            each item of list rendered with the template of list
+ * {{#name}}..{{/name}} renders the body for each item of a list, once with
+ *                     the object if not null, or once if a flag is set or a
+ *                     text value isn't empty
+ * {{^name}}..{{/name}} renders the body if the list is empty, the object is
+ *                     null, the flag isn't set or the text value is empty
+ * {{.}}               the current item of a list of Strings
+ * {{#@first}}, {{#@last}} the first and last item of the current list
+ * {{! comment }}      ignored
+ * </pre>
+ * Names are resolved against the Scope of the template when it is compiled,
+ * so rendering doesn't look anything up by name, parse or reflect. Lines
+ * with only section tags or comments are dropped, and new lines are written
+ * as the platform line separator. A compiled template isn't changed, so it
+ * can be shared between threads.
+ * @param <T> is the type of object the template renders.
+ */
+public class Template<T> {
+    /**
+     * Line separator shorthand.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * The scope of a list of Strings, with {{.}} as the only name.
+     */
+    public static final Scope<String> STRINGS = new Scope<String>().text(".", s -> s);
+
+    /**
+     * The template name used in error messages.
+     */
+    private final String name;
+
+    /**
+     * The root nodes of the render tree.
+     */
+    private final Node[] nodes;
+
+    /**
+     * Constructor with the template name and root nodes.
+     * @param Name is a String with the template name.
+     * @param Nodes is an array of root nodes.
+     */
+    private Template(String Name, Node[] Nodes) {
+        this.name = Name;
+        this.nodes = Nodes;
+    }
+
+    /**
+     * Compiles the provided template text against the provided scope.
+     * @param name is a String with the template name used in error messages.
+     * @param text is a String with the template text.
+     * @param scope is the Scope with the names the template can use.
+     * @param <T> is the type of object the template renders.
+     * @return A compiled Template object.
+     * @throws IllegalArgumentException if the template has a syntax error or an unknown name.
+     */
+    public static <T> Template<T> compile(String name, String text, Scope<T> scope) {
+        return new Template<T>(name, new Compiler(name, text.replace("\r\n", "\n")).compile(scope));
+    }
+
+    /**
+     * Gets the template name.
+     * @return A String with the template name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Renders the provided object to the provided output.
+     * @param obj is the object to render.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    public void render(T obj, Appendable out) throws IOException {
+        renderAll(this.nodes, obj, 0, 1, out);
+    }
+
+    /**
+     * Renders the provided nodes.
+     * @param nodes is an array of nodes to render.
+     * @param obj is the current object.
+     * @param index is an int with the index of the current object in its list.
+     * @param count is an int with the size of the list of the current object.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    private static void renderAll(Node[] nodes, Object obj, int index, int count, Appendable out) throws IOException {
+        for (Node node : nodes) {
+            node.render(obj, index, count, out);
+        }
+    }
+
+    /**
+     * The names a template can use for an object type. Each name is bound
+     * to an accessor function; templates look the names up once when they
+     * are compiled.
+     * @param <T> is the object type.
+     */
+    public static final class Scope<T> {
+        /**
+         * The entries by name.
+         */
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        /**
+         * Adds a text value.
+         * @param name is a String with the name.
+         * @param get is the Function that gets the text of an object.
+         * @return This Scope.
+         */
+        public Scope<T> text(String name, Function<T, String> get) {
+            return this.add(name, new Entry(Kind.TEXT, get, null, null));
+        }
+
+        /**
+         * Adds a flag.
+         * @param name is a String with the name.
+         * @param test is the Predicate that tests an object.
+         * @return This Scope.
+         */
+        public Scope<T> flag(String name, Predicate<T> test) {
+            return this.add(name, new Entry(Kind.FLAG, (Function<T, Boolean>) test::test, null, null));
+        }
+
+        /**
+         * Adds a list that sections iterate with the provided item scope.
+         * @param name is a String with the name.
+         * @param get is the Function that gets the list of an object.
+         * @param item is the Scope of the list items.
+         * @param <U> is the item type.
+         * @return This Scope.
+         */
+        public <U> Scope<T> list(String name, Function<T, List<U>> get, Scope<U> item) {
+            return this.add(name, new Entry(Kind.LIST, get, item, null));
+        }
+
+        /**
+         * Adds a list that is rendered with the provided template, and that
+         * sections iterate with the scope of the template.
+         * @param name is a String with the name.
+         * @param get is the Function that gets the list of an object.
+         * @param template is the Template to render each item with.
+         * @param item is the Scope the template was compiled with.
+         * @param <U> is the item type.
+         * @return This Scope.
+         */
+        public <U> Scope<T> list(String name, Function<T, List<U>> get, Template<U> template, Scope<U> item) {
+            return this.add(name, new Entry(Kind.LIST, get, item, template));
+        }
+
+        /**
+         * Adds an object that may be null and is rendered with the provided
+         * template.
+         * @param name is a String with the name.
+         * @param get is the Function that gets the object.
+         * @param template is the Template to render the object with.
+         * @param item is the Scope the template was compiled with.
+         * @param <U> is the object type.
+         * @return This Scope.
+         */
+        public <U> Scope<T> object(String name, Function<T, U> get, Template<U> template, Scope<U> item) {
+            return this.add(name, new Entry(Kind.OBJECT, get, item, template));
+        }
+
+        private Scope<T> add(String name, Entry entry) {
+            this.entries.put(name, entry);
+            return this;
+        }
+    }
+
+    /**
+     * The kinds of scope entries.
+     */
+    private enum Kind { TEXT, FLAG, LIST, OBJECT }
+
+    /**
+     * A named scope entry. The accessor takes the object of the scope.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final class Entry {
+        private final Kind kind;
+        private final Function get;
+        private final Scope item;
+        private final Template template;
+
+        Entry(Kind Kind, Function Get, Scope Item, Template Template) {
+            this.kind = Kind;
+            this.get = Get;
+            this.item = Item;
+            this.template = Template;
+        }
+
+        Object get(Object obj) {
+            return this.get.apply(obj);
+        }
+
+        /**
+         * Returns true if the value of the provided object is set. That is
+         * a non empty text or list, a set flag or a non null object.
+         */
+        boolean isSet(Object obj) {
+            Object val = this.get.apply(obj);
+            switch (this.kind) {
+                case TEXT: return val != null && !((String) val).isEmpty();
+                case FLAG: return (Boolean) val;
+                case LIST: return val != null && !((List) val).isEmpty();
+                default: return val != null;
+            }
+        }
+    }
+
+    /**
+     * A filter that writes a text value.
+     */
+    private interface Filter {
+        void append(CharSequence val, Appendable out) throws IOException;
+    }
+
+    /**
+     * A node of the render tree.
+     */
+    private interface Node {
+        void render(Object obj, int index, int count, Appendable out) throws IOException;
+    }
+
+    /**
+     * Literal text.
+     */
+    private static final class Literal implements Node {
+        private final String text;
+
+        Literal(String Text) { this.text = Text; }
+
+        @Override
+        public void render(Object obj, int index, int count, Appendable out) throws IOException {
+            out.append(this.text);
+        }
+    }
+
+    /**
+     * A text value with an optional filter.
+     */
+    private static final class Value implements Node {
+        private final Entry entry;
+        private final Filter filter;
+
+        Value(Entry Entry, Filter Filter) {
+            this.entry = Entry;
+            this.filter = Filter;
+        }
+
+        @Override
+        public void render(Object obj, int index, int count, Appendable out) throws IOException {
+            String val = (String) this.entry.get(obj);
+            if (val == null) {
+                return;
+            }
+            if (this.filter != null) {
+                this.filter.append(val, out);
+            } else {
+                out.append(val);
+            }
+        }
+    }
+
+    /**
+     * A list or object rendered with its template.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final class Partial implements Node {
+        private final Entry entry;
+
+        Partial(Entry Entry) { this.entry = Entry; }
+
+        @Override
+        public void render(Object obj, int index, int count, Appendable out) throws IOException {
+            Object val = this.entry.get(obj);
+            if (val == null) {
+                return;
+            }
+            if (this.entry.kind == Kind.LIST) {
+                for (Object item : (List) val) {
+                    this.entry.template.render(item, out);
+                }
+            } else {
+                this.entry.template.render(val, out);
+            }
+        }
+    }
+
+    /**
+     * A section over a list or object, rendered with the items as scope.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final class Each implements Node {
+        private final Entry entry;
+        private final Node[] body;
+
+        Each(Entry Entry, Node[] Body) {
+            this.entry = Entry;
+            this.body = Body;
+        }
+
+        @Override
+        public void render(Object obj, int index, int count, Appendable out) throws IOException {
+            Object val = this.entry.get(obj);
+            if (val == null) {
+                return;
+            }
+            if (this.entry.kind == Kind.LIST) {
+                List items = (List) val;
+                int size = items.size();
+                for (int i = 0; i < size; i++) {
+                    renderAll(this.body, items.get(i), i, size, out);
+                }
+            } else {
+                renderAll(this.body, val, 0, 1, out);
+            }
+        }
+    }
+
+    /**
+     * A section rendered in the same scope if a value is set, or not set
+     * when inverted.
+     */
+    private static final class If implements Node {
+        private final Entry entry;
+        private final boolean inverted;
+        private final Node[] body;
+
+        If(Entry Entry, boolean Inverted, Node[] Body) {
+            this.entry = Entry;
+            this.inverted = Inverted;
+            this.body = Body;
+        }
+
+        @Override
+        public void render(Object obj, int index, int count, Appendable out) throws IOException {
+            if (this.entry.isSet(obj) != this.inverted) {
+                renderAll(this.body, obj, index, count, out);
+            }
+        }
+    }
+
+    /**
+     * A section rendered for the first or last item of the current list.
+     */
+    private static final class Position implements Node {
+        private final boolean first;
+        private final boolean inverted;
+        private final Node[] body;
+
+        Position(boolean First, boolean Inverted, Node[] Body) {
+            this.first = First;
+            this.inverted = Inverted;
+            this.body = Body;
+        }
+
+        @Override
+        public void render(Object obj, int index, int count, Appendable out) throws IOException {
+            boolean at = this.first ? index == 0 : index == count - 1;
+            if (at != this.inverted) {
+                renderAll(this.body, obj, index, count, out);
+            }
+        }
+    }
+
+    /**
+     * Compiles template text into nodes. Tags are read left to right and
+     * sections are compiled recursively with the scope they render in.
+     */
+    private static final class Compiler {
+        private final String name;
+        private final String text;
+        private int pos = 0;
+
+        Compiler(String Name, String Text) {
+            this.name = Name;
+            this.text = Text;
+        }
+
+        Node[] compile(Scope<?> scope) {
+            return this.compileBody(scope, null);
+        }
+
+        /**
+         * Compiles nodes until the close tag of the provided section or the
+         * end of the text.
+         */
+        private Node[] compileBody(Scope<?> scope, String section) {
+            List<Node> nodes = new ArrayList<Node>();
+            StringBuilder lit = new StringBuilder();
+            while (true) {
+                int open = this.text.indexOf("{{", this.pos);
+                if (open < 0) {
+                    lit.append(this.text, this.pos, this.text.length());
+                    this.pos = this.text.length();
+                    if (section != null) {
+                        throw this.error(open, "Section '" + section + "' isn't closed.");
+                    }
+                    this.flush(lit, nodes);
+                    return nodes.toArray(new Node[0]);
+                }
+                int close = this.text.indexOf("}}", open + 2);
+                if (close < 0) {
+                    throw this.error(open, "Tag isn't closed.");
+                }
+                String tag = this.text.substring(open + 2, close).trim();
+                char type = tag.isEmpty() ? ' ' : tag.charAt(0);
+                boolean block = type == '#' || type == '^' || type == '/' || type == '!';
+                String tagName = block ? tag.substring(1).trim() : tag;
+
+                lit.append(this.text, this.pos, open);
+                this.pos = close + 2;
+                if (block) {
+                    this.standalone(lit, open);
+                }
+
+                if (type == '!') {
+                    continue;
+                }
+                if (type == '/') {
+                    if (!tagName.equals(section)) {
+                        throw this.error(open, "Unexpected close tag '" + tagName + "'.");
+                    }
+                    this.flush(lit, nodes);
+                    return nodes.toArray(new Node[0]);
+                }
+
+                this.flush(lit, nodes);
+                if (type == '#' || type == '^') {
+                    nodes.add(this.compileSection(scope, tagName, type == '^', open));
+                } else {
+                    nodes.add(this.compileValue(scope, tagName, open));
+                }
+            }
+        }
+
+        /**
+         * Compiles a section with the provided name.
+         */
+        private Node compileSection(Scope<?> scope, String tagName, boolean inverted, int at) {
+            if ("@first".equals(tagName) || "@last".equals(tagName)) {
+                return new Position("@first".equals(tagName), inverted, this.compileBody(scope, tagName));
+            }
+            Entry entry = this.lookup(scope, tagName, at);
+            if (inverted || entry.kind == Kind.TEXT || entry.kind == Kind.FLAG) {
+                return new If(entry, inverted, this.compileBody(scope, tagName));
+            }
+            return new Each(entry, this.compileBody(entry.item, tagName));
+        }
+
+        /**
+         * Compiles a value tag with an optional filter.
+         */
+        private Node compileValue(Scope<?> scope, String tag, int at) {
+            String tagName = tag;
+            Filter filter = null;
+            int bar = tag.indexOf('|');
+            if (bar >= 0) {
+                tagName = tag.substring(0, bar).trim();
+                String filterName = tag.substring(bar + 1).trim();
+                if ("oneline".equals(filterName)) {
+                    filter = TextNormalizer::appendOneLine;
+                } else if ("breaks".equals(filterName)) {
+                    filter = TextNormalizer::appendBreaks;
+                } else if ("cell".equals(filterName)) {
+                    filter = TextNormalizer::appendTableCell;
+                } else {
+                    throw this.error(at, "Unknown filter '" + filterName + "'.");
+                }
+            }
+
+            Entry entry = this.lookup(scope, tagName, at);
+            if (entry.kind == Kind.TEXT) {
+                return new Value(entry, filter);
+            }
+            if (entry.template != null && filter != null) {
+                throw this.error(at, "Filter '" + tag.substring(bar + 1).trim() + "' only applies to text values.");
+            }
+            if (entry.template != null) {
+                return new Partial(entry);
+            }
+            throw this.error(at, "'" + tagName + "' can only be used in a section.");
+        }
+
+        private Entry lookup(Scope<?> scope, String tagName, int at) {
+            Entry ret = scope.entries.get(tagName);
+            if (ret == null) {
+                throw this.error(at, "Unknown name '" + tagName + "'.");
+            }
+            return ret;
+        }
+
+        /**
+         * Drops the line of the block tag that just ended at pos if the tag
+         * is the only thing on it.
+         */
+        private void standalone(StringBuilder lit, int open) {
+            int lineStart = open;
+            while (lineStart > 0 && isBlank(this.text.charAt(lineStart - 1))) {
+                lineStart--;
+            }
+            if (lineStart > 0 && this.text.charAt(lineStart - 1) != '\n') {
+                return;
+            }
+            int end = this.pos;
+            while (end < this.text.length() && isBlank(this.text.charAt(end))) {
+                end++;
+            }
+            if (end == this.text.length() || this.text.charAt(end) == '\n') {
+                lit.setLength(lit.length() - (open - lineStart));
+                this.pos = Math.min(end + 1, this.text.length());
+            }
+        }
+
+        private static boolean isBlank(char c) {
+            return c == ' ' || c == '\t';
+        }
+
+        /**
+         * Adds the pending literal text as a node with platform new lines.
+         */
+        private void flush(StringBuilder lit, List<Node> nodes) {
+            if (lit.length() > 0) {
+                nodes.add(new Literal("\n".equals(NL) ? lit.toString() : lit.toString().replace("\n", NL)));
+                lit.setLength(0);
+            }
+        }
+
+        private IllegalArgumentException error(int at, String message) {
+            int line = 1;
+            int end = at < 0 ? this.text.length() : at;
+            for (int i = 0; i < end; i++) {
+                if (this.text.charAt(i) == '\n') {
+                    line++;
+                }
+            }
+            return new IllegalArgumentException("Template '" + this.name + "' line " + line + ": " + message);
+        }
+    }
+}
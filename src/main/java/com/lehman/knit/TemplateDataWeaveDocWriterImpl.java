@@ -0,0 +1,511 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Template driven implementation of the dwDocWriter interface. The module,
+ * variable, function, mapping table, annotation table and header table
+ * layouts each come from a Template, so the layout can be changed without
+ * changing the plugin. The default templates produce the same Markdown as
+ * MarkdownDataWeaveDocWriterImpl.
+ */
+public class TemplateDataWeaveDocWriterImpl implements DataWeaveDocWriter {
+    /**
+     * Line separator shorthand.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * The template names. Each is read from the file name plus .md.
+     */
+    public static final String[] TEMPLATE_NAMES = { "module", "variable", "function", "table", "annotation-table", "header-table" };
+
+    /**
+     * The compiled templates.
+     */
+    private final Templates templates;
+
+    /**
+     * Flag to link header table rows to per module files instead of anchors.
+     */
+    private final boolean fileLinks;
+
+    /**
+     * The log to report unknown module names to.
+     */
+    private final Log log;
+
+    /**
+     * The search index to add rendered modules to or null.
+     */
+    private SearchIndex searchIndex = null;
+
+    /**
+     * The metrics to record render timings in or null if not recorded.
+     */
+    private KnitMetrics metrics = null;
+
+    /**
+     * Constructor with the templates, header table link mode and log.
+     * @param Templates is the Templates object to render with.
+     * @param FileLinks is a boolean with true to link header table rows to the
+     * module files written by ModuleOutputWriter and false to link to anchors.
+     * @param Log is the Log to report unknown module names to.
+     */
+    public TemplateDataWeaveDocWriterImpl(Templates Templates, boolean FileLinks, Log Log) {
+        this.templates = Templates;
+        this.fileLinks = FileLinks;
+        this.log = Log;
+    }
+
+    /**
+     * Sets the search index each module is added to when it is rendered.
+     * @param SearchIndex is the SearchIndex object or null to not index.
+     */
+    public void setSearchIndex(SearchIndex SearchIndex) {
+        this.searchIndex = SearchIndex;
+    }
+
+    /**
+     * Sets the metrics to record the render time of each module in. The
+     * module template renders the other templates, so their time is part
+     * of the module time.
+     * @param Metrics is the KnitMetrics object or null to not record timings.
+     */
+    public void setMetrics(KnitMetrics Metrics) {
+        this.metrics = Metrics;
+    }
+
+    /**
+     * Writes a document with the provided dwFile object and returns a String
+     * with the result.
+     * @param file is a dwFile object to write.
+     * @return A String with the doc contents.
+     */
+    @Override
+    public String writeDoc(DataWeaveFile file) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeDoc(file, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a document with the provided dwFile object to the provided
+     * output using the module template.
+     * @param file is a dwFile object to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeDoc(DataWeaveFile file, Appendable out) throws IOException {
+        long[] timer = this.metrics != null ? this.metrics.startRender() : null;
+        if (this.searchIndex != null) {
+            this.searchIndex.add(file);
+        }
+        this.templates.module.render(file, out);
+        if (timer != null) {
+            this.metrics.endRender(KnitMetrics.Phase.RENDER_MODULE, timer);
+        }
+    }
+
+    /**
+     * Writes a document with the provided list of dwFile objects and returns
+     * a String with the result.
+     * @param files is a List of dwFile objects to write.
+     * @return A String with the doc contents.
+     */
+    @Override
+    public String writeDoc(List<DataWeaveFile> files) {
+        return this.writeDoc(files, new ArrayList<String>());
+    }
+
+    /**
+     * Writes a doc with the provided dwFile list and moduleNameList.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules.
+     * @return A String with the document text.
+     */
+    @Override
+    public String writeDoc(List<DataWeaveFile> files, List<String> moduleNameList) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeDoc(files, moduleNameList, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a doc with the provided dwFile list and moduleNameList to
+     * the provided output.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeDoc(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        SymbolTable symbols = new SymbolTable(files);
+
+        // Go through the module list first and add them in order.
+        Set<DataWeaveFile> listed = symbols.findModules(moduleNameList, this.log);
+        for (DataWeaveFile modFile : listed) {
+            this.writeModuleDoc(symbols, modFile, out);
+            out.append(NL);
+        }
+
+        // Iterate the rest.
+        for (DataWeaveFile dwf : files) {
+            if (!listed.contains(dwf)) {
+                this.writeModuleDoc(symbols, dwf, out);
+            }
+        }
+    }
+
+    /**
+     * Writes the doc of a module as part of a document with several modules.
+     * If another module has the same name an explicit anchor with the
+     * qualified name is written first so header table links stay unique.
+     * @param symbols is the SymbolTable of the document.
+     * @param file is the dwFile object to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeModuleDoc(SymbolTable symbols, DataWeaveFile file, Appendable out) throws IOException {
+        if (!symbols.hasUniqueName(file)) {
+            out.append("<a id=\"").append(symbols.getAnchor(file)).append("\"></a>").append(NL).append(NL);
+        }
+        this.writeDoc(file, out);
+    }
+
+    /**
+     * Writes a header table with the provided dwFile list. This
+     * table will link to each module further down in the document.
+     * @param files is a List of dwFile objects to write.
+     * @return A String with the header table text.
+     */
+    @Override
+    public String writeHeaderTable(List<DataWeaveFile> files) {
+        return this.writeHeaderTable(files, new ArrayList<String>());
+    }
+
+    /**
+     * Writes a header table with the provided dwFile list. This
+     * table will link to each module further down in the document.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules in the table.
+     * @return A String with the header table text.
+     */
+    @Override
+    public String writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.writeHeaderTable(files, moduleNameList, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams a header table with the provided dwFile list to the provided
+     * output using the header table template. Modules that share their name
+     * with another module are labeled with the qualified name.
+     * @param files is a List of dwFile objects to write.
+     * @param moduleNameList is an optional list of module names that can
+     * be provided to specify the order of modules in the table.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    @Override
+    public void writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+        SymbolTable symbols = new SymbolTable(files);
+        List<HeaderRow> rows = new ArrayList<HeaderRow>(files.size());
+
+        // Go through the module list first and add them in order.
+        Set<DataWeaveFile> listed = symbols.findModules(moduleNameList, this.log);
+        for (DataWeaveFile modFile : listed) {
+            rows.add(this.createRow(symbols, modFile));
+        }
+
+        // Iterate the rest.
+        for (DataWeaveFile dwf : files) {
+            if (!listed.contains(dwf)) {
+                rows.add(this.createRow(symbols, dwf));
+            }
+        }
+
+        this.templates.headerTable.render(rows, out);
+    }
+
+    /**
+     * Creates the header table row of the provided module.
+     * @param symbols is the SymbolTable of the document.
+     * @param file is the dwFile object to create the row for.
+     * @return A HeaderRow object.
+     */
+    private HeaderRow createRow(SymbolTable symbols, DataWeaveFile file) {
+        String label = symbols.hasUniqueName(file) ? file.getName() : file.getQualifiedName();
+        String link = this.fileLinks ? ModuleOutputWriter.getRelativeFileName(file) : "#" + symbols.getAnchor(file);
+        return new HeaderRow(file, label, link);
+    }
+
+    /**
+     * A row of the header table.
+     */
+    private static final class HeaderRow {
+        private final DataWeaveFile file;
+        private final String label;
+        private final String link;
+
+        HeaderRow(DataWeaveFile File, String Label, String Link) {
+            this.file = File;
+            this.label = Label;
+            this.link = Link;
+        }
+    }
+
+    /**
+     * The compiled set of templates. The scope of each template, that is
+     * the names it can use, is defined here. Templates are compiled once
+     * and can be shared by any number of writers and threads.
+     */
+    public static final class Templates {
+        /**
+         * The module template.
+         */
+        private final Template<DataWeaveFile> module;
+
+        /**
+         * The header table template.
+         */
+        private final Template<List<HeaderRow>> headerTable;
+
+        /**
+         * Compiles the templates. Templates are provided by name
+         * (TEMPLATE_NAMES) and the default is used for missing ones.
+         * @param sources is the TemplateSource that gets the template text by name or null for the default.
+         * @throws IOException if a default template can't be read.
+         * @throws IllegalArgumentException if a template has a syntax error or an unknown name.
+         */
+        private Templates(TemplateSource sources) throws IOException {
+            Template.Scope<AnnotationRow> rowScope = new Template.Scope<AnnotationRow>()
+                    .list("fields", AnnotationRow::getFields, Template.STRINGS);
+            Template.Scope<AnnotationTable> annTableScope = new Template.Scope<AnnotationTable>()
+                    .list("columns", AnnotationTable::getColumns, Template.STRINGS)
+                    .list("rows", AnnotationTable::getRows, rowScope);
+            Template<AnnotationTable> annTable = compile(sources, "annotation-table", annTableScope);
+
+            Template.Scope<DataWeaveVariable> varScope = new Template.Scope<DataWeaveVariable>()
+                    .text("name", DataWeaveVariable::getName)
+                    .text("comment", var -> var.getComment().getText());
+            Template<DataWeaveVariable> var = compile(sources, "variable", varScope);
+
+            Template.Scope<DataWeaveArgument> argScope = new Template.Scope<DataWeaveArgument>()
+                    .text("name", DataWeaveArgument::getName)
+                    .text("datatype", DataWeaveArgument::getDatatype);
+            Template.Scope<DataWeaveCommentAnnotation> annScope = new Template.Scope<DataWeaveCommentAnnotation>()
+                    .text("name", DataWeaveCommentAnnotation::getName)
+                    .text("key", DataWeaveCommentAnnotation::getKey)
+                    .text("value", DataWeaveCommentAnnotation::getValue);
+            Template.Scope<DataWeaveFunction> funScope = new Template.Scope<DataWeaveFunction>()
+                    .text("name", DataWeaveFunction::getName)
+                    .text("comment", fun -> fun.getComment().getText())
+                    .list("arguments", DataWeaveFunction::getArguments, argScope)
+                    .list("annotations", fun -> fun.getComment().getAnnotations(), annScope)
+                    .list("params", Templates::getParams, annScope)
+                    .text("return", fun -> {
+                        DataWeaveCommentAnnotation ret = getReturn(fun);
+                        return ret != null ? ret.getValue() : "";
+                    })
+                    .flag("hasReturn", fun -> getReturn(fun) != null)
+                    .flag("documented", Templates::isDocumented)
+                    .flag("hasTable", fun -> fun.getTable() != null)
+                    .object("table", DataWeaveFunction::getTable, annTable, annTableScope);
+            Template<DataWeaveFunction> fun = compile(sources, "function", funScope);
+
+            Template.Scope<DataWeaveTable> tableScope = new Template.Scope<DataWeaveTable>()
+                    .text("comment", tbl -> tbl.getComment().getText())
+                    .object("table", DataWeaveTable::getTable, annTable, annTableScope);
+            Template<DataWeaveTable> table = compile(sources, "table", tableScope);
+
+            Template.Scope<DataWeaveFile> moduleScope = new Template.Scope<DataWeaveFile>()
+                    .text("name", DataWeaveFile::getName)
+                    .text("qualifiedName", DataWeaveFile::getQualifiedName)
+                    .text("fileName", DataWeaveFile::getFileName)
+                    .text("path", DataWeaveFile::getFileNameAndPath)
+                    .text("comment", dwf -> dwf.getComment().getText())
+                    .flag("hasVariables", dwf -> !dwf.getVariables().isEmpty())
+                    .flag("hasFunctions", dwf -> !dwf.getFunctions().isEmpty())
+                    .flag("hasTables", dwf -> !dwf.getTables().isEmpty())
+                    .list("variables", DataWeaveFile::getVariables, var, varScope)
+                    .list("functions", DataWeaveFile::getFunctions, fun, funScope)
+                    .list("tables", DataWeaveFile::getTables, table, tableScope);
+            this.module = compile(sources, "module", moduleScope);
+
+            Template.Scope<HeaderRow> headerRowScope = new Template.Scope<HeaderRow>()
+                    .text("label", row -> row.label)
+                    .text("link", row -> row.link)
+                    .text("name", row -> row.file.getName())
+                    .text("qualifiedName", row -> row.file.getQualifiedName())
+                    .text("comment", row -> row.file.getComment().getText());
+            Template.Scope<List<HeaderRow>> headerScope = new Template.Scope<List<HeaderRow>>()
+                    .list("modules", rows -> rows, headerRowScope);
+            this.headerTable = compile(sources, "header-table", headerScope);
+        }
+
+        /**
+         * Gets the default templates.
+         * @return A Templates object.
+         * @throws IOException if a default template can't be read.
+         */
+        public static Templates getDefaults() throws IOException {
+            return new Templates(name -> null);
+        }
+
+        /**
+         * Loads the templates from the provided directory. Each template is
+         * read from its name plus .md (function.md) as UTF-8, templates
+         * without a file use the default.
+         * @param dir is the File with the template directory.
+         * @return A Templates object.
+         * @throws IOException if the directory doesn't exist or a template can't be read.
+         * @throws IllegalArgumentException if a template has a syntax error or an unknown name.
+         */
+        public static Templates load(final File dir) throws IOException {
+            if (!dir.isDirectory()) {
+                throw new IOException("Template directory '" + dir + "' doesn't exist.");
+            }
+            return new Templates(name -> {
+                File f = getFile(dir, name);
+                return f.isFile() ? Utility.readMapped(f.getPath()).toString() : null;
+            });
+        }
+
+        /**
+         * Gets the file of the template with the provided name.
+         * @param dir is the File with the template directory.
+         * @param name is a String with the template name.
+         * @return A File with the template file.
+         */
+        public static File getFile(File dir, String name) {
+            return new File(dir, name + ".md");
+        }
+
+        private static <T> Template<T> compile(TemplateSource sources, String name, Template.Scope<T> scope) throws IOException {
+            String text = sources.get(name);
+            return Template.compile(name, text != null ? text : readDefault(name), scope);
+        }
+
+        /**
+         * Reads the default template with the provided name from the
+         * templates resource directory.
+         */
+        private static String readDefault(String name) throws IOException {
+            InputStream in = TemplateDataWeaveDocWriterImpl.class.getResourceAsStream("templates/" + name + ".md");
+            if (in == null) {
+                throw new IOException("Template resource '" + name + "' not found.");
+            }
+            StringBuilder sb = new StringBuilder();
+            Reader rdr = new InputStreamReader(in, StandardCharsets.UTF_8);
+            try {
+                char[] buff = new char[4096];
+                int len;
+                while ((len = rdr.read(buff)) > 0) {
+                    sb.append(buff, 0, len);
+                }
+            } finally {
+                rdr.close();
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Gets the param annotations of the provided function.
+         */
+        private static List<DataWeaveCommentAnnotation> getParams(DataWeaveFunction fun) {
+            List<DataWeaveCommentAnnotation> ret = new ArrayList<DataWeaveCommentAnnotation>();
+            for (DataWeaveCommentAnnotation ann : fun.getComment().getAnnotations()) {
+                if (ann.getName().equalsIgnoreCase("param")) {
+                    ret.add(ann);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Returns true if the provided function has a param or return annotation.
+         */
+        private static boolean isDocumented(DataWeaveFunction fun) {
+            for (DataWeaveCommentAnnotation ann : fun.getComment().getAnnotations()) {
+                if (ann.getName().equalsIgnoreCase("param") || ann.getName().equalsIgnoreCase("return")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Gets the last return annotation of the provided function or null.
+         */
+        private static DataWeaveCommentAnnotation getReturn(DataWeaveFunction fun) {
+            DataWeaveCommentAnnotation ret = null;
+            for (DataWeaveCommentAnnotation ann : fun.getComment().getAnnotations()) {
+                if (ann.getName().equalsIgnoreCase("return")) {
+                    ret = ann;
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Gets the text of a template by name.
+     */
+    private interface TemplateSource {
+        /**
+         * Gets the text of the template with the provided name.
+         * @param name is a String with the template name.
+         * @return A String with the template text or null for the default.
+         * @throws IOException on IO exception.
+         */
+        String get(String name) throws IOException;
+    }
+}
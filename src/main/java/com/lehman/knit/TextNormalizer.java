@@ -0,0 +1,388 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Single pass, character level text normalization for comments and table
+ * cells. The parser side builds its results in a per thread reusable buffer,
+ * so the only allocation is the resulting String. The writer side streams
+ * straight to the output without building anything. No regular expressions
+ * are used; each method documents the regex based code it replaces and
+ * gives the same result.
+ */
+public final class TextNormalizer {
+    /**
+     * Line separator shorthand.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * Buffers larger than this aren't kept for reuse.
+     */
+    private static final int MAX_KEPT_BUFFER = 1024 * 1024;
+
+    /**
+     * Per thread reusable build buffer.
+     */
+    private static final ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>();
+
+    private TextNormalizer() { }
+
+    /**
+     * Removes the leading whitespace, * and whitespace of each line of a doc
+     * comment and trims the result. Lines are separated by the platform line
+     * separator. Lines without a leading * are kept as they are. This is the
+     * same as replacing ^\s*\*\s* on each line and trimming.
+     * @param text is a CharSequence with the comment block.
+     * @return A String with the comment text.
+     */
+    public static String destar(CharSequence text) {
+        StringBuilder sb = getBuffer();
+        int len = text.length();
+        int i = 0;
+        while (true) {
+            int eol = indexOf(text, NL, i);
+            if (eol < 0) {
+                eol = len;
+            }
+            sb.append(text, contentStart(text, i, eol), eol).append(NL);
+            if (eol == len) {
+                break;
+            }
+            i = eol + NL.length();
+        }
+
+        // Trim like String.trim() without creating the untrimmed String.
+        int from = 0;
+        int to = sb.length();
+        while (from < to && sb.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && sb.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return release(sb, sb.substring(from, to));
+    }
+
+    /**
+     * Gets the offset in the source of each line of the comment text
+     * destar() returns for the provided comment block. Offsets in the
+     * comment text map to the source by line and column through it.
+     * @param text is a CharSequence with the comment block.
+     * @param base is an int with the source offset of the comment block.
+     * @return An int array with the source offset of each comment text line.
+     */
+    public static int[] destarLineStarts(CharSequence text, int base) {
+        int[] ret = new int[8];
+        int count = 0;
+        boolean leading = true;
+        int len = text.length();
+        int i = 0;
+        while (true) {
+            int eol = indexOf(text, NL, i);
+            if (eol < 0) {
+                eol = len;
+            }
+            int start = contentStart(text, i, eol);
+            if (leading) {
+                // Blank lines and white space before the text are trimmed.
+                while (start < eol && text.charAt(start) <= ' ') {
+                    start++;
+                }
+                leading = start == eol;
+            }
+            if (!leading) {
+                if (count == ret.length) {
+                    ret = Arrays.copyOf(ret, count * 2);
+                }
+                ret[count++] = base + start;
+            }
+            if (eol == len) {
+                break;
+            }
+            i = eol + NL.length();
+        }
+        return Arrays.copyOf(ret, count);
+    }
+
+    /**
+     * Gets the start of the text of a comment line, after the leading
+     * white space, * and white space if the line has a leading *.
+     */
+    private static int contentStart(CharSequence text, int start, int eol) {
+        int j = start;
+        while (j < eol && isSpace(text.charAt(j))) {
+            j++;
+        }
+        if (j == eol || text.charAt(j) != '*') {
+            return start;
+        }
+        j++;
+        while (j < eol && isSpace(text.charAt(j))) {
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * Replaces every run of whitespace, new lines included, with a single
+     * space. This is the same as replacing \n and \r with a space and then
+     * \s+ with a space. The provided String is returned if nothing changes.
+     * @param in is the String to normalize.
+     * @return A String on a single line.
+     */
+    public static String oneLine(String in) {
+        if (isOneLine(in)) {
+            return in;
+        }
+        StringBuilder sb = getBuffer();
+        try {
+            appendOneLine(in, sb);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw.
+        }
+        return release(sb, sb.toString());
+    }
+
+    /**
+     * Streams the provided text on a single line. (See oneLine())
+     * @param in is the CharSequence to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    public static void appendOneLine(CharSequence in, Appendable out) throws IOException {
+        int len = in.length();
+        int start = 0;
+        int i = 0;
+        while (i < len) {
+            char c = in.charAt(i);
+            if (!isSpace(c)) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < len && isSpace(in.charAt(end))) {
+                end++;
+            }
+            if (c != ' ' || end - i > 1) {
+                out.append(in, start, i).append(' ');
+                start = end;
+            }
+            i = end;
+        }
+        out.append(in, start, len);
+    }
+
+    /**
+     * Streams the provided text with two spaces before each line separator,
+     * which makes each new line a Markdown hard line break.
+     * @param in is the CharSequence to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    public static void appendBreaks(CharSequence in, Appendable out) throws IOException {
+        int start = 0;
+        int eol;
+        while ((eol = indexOf(in, NL, start)) >= 0) {
+            out.append(in, start, eol).append("  ").append(NL);
+            start = eol + NL.length();
+        }
+        out.append(in, start, in.length());
+    }
+
+    /**
+     * Streams the provided text as a Markdown table cell. The text is written
+     * on a single line (see oneLine()) and | is escaped so it doesn't end the cell.
+     * @param in is the CharSequence to write.
+     * @param out is the Appendable to write to.
+     * @throws IOException on output failure.
+     */
+    public static void appendTableCell(CharSequence in, Appendable out) throws IOException {
+        int len = in.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            if (in.charAt(i) == '|' && (i == 0 || in.charAt(i - 1) != '\\')) {
+                appendOneLine(in.subSequence(start, i), out);
+                out.append("\\|");
+                start = i + 1;
+            }
+        }
+        appendOneLine(start == 0 ? in : in.subSequence(start, len), out);
+    }
+
+    /**
+     * Splits an annotation table value into cells. Cells are separated by
+     * commas that aren't escaped with two backslashes, and line separators
+     * are removed from each cell. Trailing empty cells are dropped. This is
+     * the same as splitting with (?&lt;!\\\\), and replacing the line separator.
+     * @param value is a String with the annotation value.
+     * @param unescape is a boolean with true to replace escaped commas with a comma.
+     * @param skipBlank is a boolean with true to drop blank cells.
+     * @return An ArrayList of Strings with the cells.
+     */
+    public static ArrayList<String> splitCells(String value, boolean unescape, boolean skipBlank) {
+        ArrayList<String> ret = new ArrayList<String>();
+        if (value.isEmpty()) {
+            if (!skipBlank) {
+                ret.add(value);
+            }
+            return ret;
+        }
+
+        StringBuilder sb = getBuffer();
+        int len = value.length();
+        int start = 0;
+        int keep = 0;
+        for (int i = 0; i <= len; i++) {
+            if (i < len && (value.charAt(i) != ',' || (i >= 2 && value.charAt(i - 1) == '\\' && value.charAt(i - 2) == '\\'))) {
+                continue;
+            }
+            if (!skipBlank || !isBlank(value, start, i)) {
+                ret.add(cell(value, start, i, unescape, sb));
+                if (i > start) {
+                    keep = ret.size();
+                }
+            }
+            start = i + 1;
+        }
+        release(sb, null);
+
+        // Trailing empty cells are dropped.
+        while (ret.size() > keep) {
+            ret.remove(ret.size() - 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the cell between the provided offsets with line separators removed
+     * and escaped commas replaced if requested.
+     */
+    private static String cell(String value, int start, int end, boolean unescape, StringBuilder sb) {
+        sb.setLength(0);
+        int copied = start;
+        int i = start;
+        while (i < end) {
+            if (value.startsWith(NL, i) && i + NL.length() <= end) {
+                sb.append(value, copied, i);
+                i += NL.length();
+                copied = i;
+            } else if (unescape && i + 3 <= end && value.charAt(i) == '\\' && value.charAt(i + 1) == '\\' && value.charAt(i + 2) == ',') {
+                sb.append(value, copied, i).append(',');
+                i += 3;
+                copied = i;
+            } else {
+                i++;
+            }
+        }
+        if (copied == start) {
+            return value.substring(start, end);
+        }
+        sb.append(value, copied, end);
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if the provided String doesn't change on a single line.
+     */
+    private static boolean isOneLine(String in) {
+        boolean prevSpace = false;
+        for (int i = 0; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (isSpace(c)) {
+                if (c != ' ' || prevSpace) {
+                    return false;
+                }
+                prevSpace = true;
+            } else {
+                prevSpace = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the range only has characters String.trim() removes.
+     */
+    private static boolean isBlank(String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true for the characters matched by the regex \s.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Finds the provided String in the provided CharSequence.
+     */
+    private static int indexOf(CharSequence text, String str, int from) {
+        if (text instanceof String) {
+            return ((String) text).indexOf(str, from);
+        }
+        char first = str.charAt(0);
+        int max = text.length() - str.length();
+        for (int i = from; i <= max; i++) {
+            if (text.charAt(i) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < str.length() && text.charAt(i + j) == str.charAt(j)) {
+                j++;
+            }
+            if (j == str.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the empty reusable buffer of the current thread.
+     */
+    private static StringBuilder getBuffer() {
+        StringBuilder sb = buffer.get();
+        if (sb == null) {
+            sb = new StringBuilder(256);
+            buffer.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
+    /**
+     * Drops the buffer if it grew too large to keep and returns the result.
+     */
+    private static <T> T release(StringBuilder sb, T result) {
+        if (sb.capacity() > MAX_KEPT_BUFFER) {
+            buffer.remove();
+        }
+        return result;
+    }
+}
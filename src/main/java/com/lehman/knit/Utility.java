@@ -21,6 +21,17 @@ import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +39,16 @@ import java.util.List;
  * This class provides utility functions.
  */
 public class Utility {
+	/**
+	 * Per thread reusable decode buffer for decode().
+	 */
+	private static final ThreadLocal<CharBuffer> decodeBuffer = new ThreadLocal<CharBuffer>();
+
+	/**
+	 * Larger decode buffers are allocated for the call and not kept, so a
+	 * single huge file doesn't pin its buffer on the thread.
+	 */
+	private static final int MAX_KEPT_BUFFER = 1024 * 1024;
 
 	/**
 	 * Joins a list of strings provided using the provided delimiter into a single string.
@@ -60,6 +81,17 @@ public class Utility {
         return ret;
     }
 
+	/**
+	 * Gets the provided file name relative to its root directory. The root is
+	 * matched as plain text, so names with characters like +, ( or [ work.
+	 * @param fileName is a String with the file name.
+	 * @param rootDirName is a String with the root directory name the file name starts with.
+	 * @return A String with the rest of the file name, or the file name if it doesn't start with the root.
+	 */
+	public static String relativeName(String fileName, String rootDirName) {
+		return fileName.startsWith(rootDirName) ? fileName.substring(rootDirName.length()) : fileName;
+	}
+
     /**
 	 * Reads a file with the provided file name and returns it as
 	 * a String.
@@ -89,6 +121,68 @@ public class Utility {
 	    }
 	}
 
+	/**
+	 * Memory maps the file with the provided file name read only.
+	 * @param FileName is a String with the file name to map.
+	 * @return A ByteBuffer with the file contents.
+	 * @throws IOException on IO exception.
+	 */
+	public static ByteBuffer map(String FileName) throws IOException {
+		FileChannel ch = FileChannel.open(Paths.get(FileName), StandardOpenOption.READ);
+		try {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Decodes the provided bytes with the provided charset into a per thread
+	 * reusable buffer and returns it. Malformed input is replaced. The returned
+	 * CharSequence is only valid until the next call to decode() on the same
+	 * thread, so callers must be done with it (or copy what they need) first.
+	 * Buffers larger than MAX_KEPT_BUFFER chars aren't reused.
+	 * @param Data is a ByteBuffer with the bytes to decode.
+	 * @param Cs is the Charset to decode with.
+	 * @return A CharSequence with the decoded text.
+	 * @throws CharacterCodingException on decoder failure.
+	 */
+	public static CharSequence decode(ByteBuffer Data, Charset Cs) throws CharacterCodingException {
+		CharsetDecoder decoder = Cs.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer in = Data.duplicate();
+		int needed = (int) Math.ceil(in.remaining() * (double) decoder.maxCharsPerByte());
+
+		CharBuffer out = decodeBuffer.get();
+		if (out == null || out.capacity() < needed) {
+			out = CharBuffer.allocate(Math.max(needed, 4096));
+			if (out.capacity() <= MAX_KEPT_BUFFER) {
+				decodeBuffer.set(out);
+			}
+		}
+		out.clear();
+
+		CoderResult res = decoder.decode(in, out, true);
+		if (res.isError()) res.throwException();
+		res = decoder.flush(out);
+		if (res.isError()) res.throwException();
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * Reads a file with the provided file name by memory mapping it and
+	 * decoding it as UTF-8. No intermediate String of the file is created.
+	 * The result is only valid until the next read on the same thread. (See decode())
+	 * @param FileName is a String with the file name to read.
+	 * @return A CharSequence with the file contents.
+	 * @throws IOException on IO exception.
+	 */
+	public static CharSequence readMapped(String FileName) throws IOException {
+		return decode(map(FileName), StandardCharsets.UTF_8);
+	}
+
 	/**
 	 * Writes the provided String to file. If append is set to true, it will append
 	 * the text to file, otherwise it will replace it if the file already exists.
@@ -114,14 +208,40 @@ public class Utility {
 
 	/**
 	 * Strips all newline characters and replaces with a space. If there are multiple
-	 * spaces in a row it also makes them a single space.
+	 * spaces in a row it also makes them a single space. (See TextNormalizer.oneLine())
 	 * @param in is the String to fix.
 	 * @return A String with newline replaced.
 	 */
 	public static String stripNewLines(String in) {
-		return
-				in.replaceAll("\n", " ")
-						.replaceAll("\r", " ")
-						.replaceAll("\\s+", " ");
+		return TextNormalizer.oneLine(in);
+	}
+
+	/**
+	 * Writes the provided String as a quoted JSON string to the provided
+	 * output. Control and non ASCII characters are written as unicode escapes,
+	 * so the output is the same in any ASCII compatible charset.
+	 * @param str is the String to write.
+	 * @param out is the Appendable to write to.
+	 * @throws IOException on output failure.
+	 */
+	public static void writeJsonString(String str, Appendable out) throws IOException {
+		out.append('"');
+		int start = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '"' || c == '\\' || c < 0x20 || c > 0x7e) {
+				out.append(str, start, i);
+				if (c == '"' || c == '\\') {
+					out.append('\\').append(c);
+				} else {
+					out.append("\\u");
+					String hex = Integer.toHexString(c);
+					for (int j = hex.length(); j < 4; j++) out.append('0');
+					out.append(hex);
+				}
+				start = i + 1;
+			}
+		}
+		out.append(str, start, str.length()).append('"');
 	}
 }
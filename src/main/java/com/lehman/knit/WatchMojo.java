@@ -0,0 +1,463 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The watch goal generates the documentation once and then keeps running,
+ * regenerating it whenever a DataWeave file changes. Parsed files are kept
+ * in memory, so only changed files are parsed again. With
+ * consolidateOutput == false or the html format only the changed module
+ * documents and the index or directory pages are rewritten. Since all
+ * parsed files are kept, the pipeline setting doesn't apply. Archives are
+ * parsed once and aren't watched. Run it with mvn knit:watch and stop it with Ctrl+C.
+ */
+@Mojo(name = "watch", threadSafe = true)
+public class WatchMojo extends Main {
+    /**
+     * Maven config value watchDebounce.
+     * The time in milliseconds to wait for more file events before
+     * regenerating. Editors often write a file in several steps.
+     */
+    @Parameter(property = "watchDebounce")
+    int watchDebounce = 25;
+
+    /**
+     * The caching doc writers by header table link mode.
+     */
+    private final Map<Boolean, CachingWriter> writers = new HashMap<Boolean, CachingWriter>();
+
+    /**
+     * The watched directories by watch key.
+     */
+    private final Map<WatchKey, Path> watched = new HashMap<WatchKey, Path>();
+
+    /**
+     * The parsed files by source key.
+     */
+    private Map<String, DataWeaveFile> parsed = new HashMap<String, DataWeaveFile>();
+
+    /**
+     * The current sources in walk order.
+     */
+    private List<SourceWalker.Source> sources = new ArrayList<SourceWalker.Source>();
+
+    /**
+     * The entry point of the watch goal. Only returns on failure or interrupt.
+     * @throws MojoExecutionException if the configuration is invalid or the initial generation fails.
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (!this.hasInputs()) {
+            throw new MojoExecutionException("knit-maven-plugin <files>, <directories> or <archives> aren't specified.");
+        }
+        this.pipeline = false;
+        this.loadModuleOrder();
+        this.loadTemplates();
+
+        ForkJoinPool pool = this.sharedPool ? SharedPool.get(this.threads) : new ForkJoinPool(this.threads);
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            // The output no longer matches the last knit run once watch rewrites it.
+            new BuildFingerprint(this.getFingerprintFile()).invalidate();
+
+            if (this.useCache) {
+                this.cache = new ParseCache(new File(this.getWorkingDirectory() + "/" + this.cacheDirectory));
+            }
+            this.manifest = new OutputManifest(new File(this.getWorkingDirectory() + "/" + this.cacheDirectory + "/outputs.properties"));
+            if (this.searchIndex) {
+                this.search = new SearchIndex();
+            }
+
+            // Full initial run.
+            ArrayList<DataWeaveFile> all = new ArrayList<DataWeaveFile>();
+            try (SourceWalker walker = this.createWalker(pool)) {
+                this.sources = walker.walk();
+                this.parseSources(pool, this.sources, all);
+            }
+            for (int i = 0; i < all.size(); i++) {
+                this.parsed.put(this.sources.get(i).getKey(), all.get(i));
+            }
+            if (this.cache != null) {
+                // Changed files miss the cache anyway, parse them directly from here on.
+                this.cache.save();
+                this.cache = null;
+            }
+            this.write(pool, all, all);
+            this.writeSearch(all);
+            this.manifest.save();
+            this.writeIndex(all);
+
+            this.register(watcher);
+            this.getLog().info("Watching " + this.sources.size() + " DataWeave files for changes, press Ctrl+C to stop.");
+
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<Path> changed = new HashSet<Path>();
+                boolean structural = false;
+
+                // Collect events until no more arrive within the debounce time.
+                while (key != null) {
+                    structural |= this.collect(key, changed);
+                    key = watcher.poll(this.watchDebounce, TimeUnit.MILLISECONDS);
+                }
+
+                try {
+                    this.update(pool, watcher, changed, structural);
+                } catch (Exception e) {
+                    this.getLog().error("knit-maven-plugin failed to update the documentation, waiting for the next change.", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            throw new MojoExecutionException("Bad news, the knit plugin ran into trouble. If it continues please report it at https://github.com/rsv-code/knit. ("
+                    + e.getMessage() + ")", e);
+        } finally {
+            if (!this.sharedPool) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Collects the changed DataWeave files of a watch key. Whether a created or
+     * deleted DataWeave file was really added or removed is decided in update(),
+     * since editors often save by replacing the file.
+     * Other files, like editor temp files, are ignored.
+     * @return A boolean with true if directories were added or removed.
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        boolean structural = false;
+        Path dir = this.watched.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                structural = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (path.toString().endsWith("." + this.dwlFileExt)) {
+                changed.add(path);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE ? Files.isDirectory(path)
+                    : event.kind() == StandardWatchEventKinds.ENTRY_DELETE && this.watched.containsValue(path)) {
+                // Directory added or removed.
+                structural = true;
+            }
+        }
+        if (!key.reset()) {
+            this.watched.remove(key);
+            structural = true;
+        }
+        return structural;
+    }
+
+    /**
+     * Parses the changed and new files again and rewrites the affected output.
+     */
+    private void update(ForkJoinPool pool, WatchService watcher, Set<Path> changed, boolean structural) throws Exception {
+        long start = System.nanoTime();
+
+        Set<String> changedKeys = new HashSet<String>();
+        for (Path path : changed) {
+            String key = SourceWalker.key(path);
+            changedKeys.add(key);
+            if (!Files.exists(path) || !this.parsed.containsKey(key)) {
+                // Added or removed, not just saved.
+                structural = true;
+            }
+        }
+
+        ArrayList<DataWeaveFile> modules = new ArrayList<DataWeaveFile>();
+        List<SourceWalker.Source> toParse = new ArrayList<SourceWalker.Source>();
+        try (SourceWalker walker = this.createWalker(pool)) {
+            if (structural) {
+                this.sources = walker.walk();
+                this.register(watcher);
+            }
+
+            // Parse new and changed sources.
+            for (SourceWalker.Source src : this.sources) {
+                if (!this.parsed.containsKey(src.getKey()) || changedKeys.contains(src.getKey())) {
+                    toParse.add(src);
+                }
+            }
+            this.parseSources(pool, toParse, modules);
+        }
+        Map<String, DataWeaveFile> reparsed = new HashMap<String, DataWeaveFile>();
+        for (int i = 0; i < toParse.size(); i++) {
+            reparsed.put(toParse.get(i).getKey(), modules.get(i));
+        }
+
+        // Rebuild the file list in walk order.
+        Map<String, DataWeaveFile> next = new HashMap<String, DataWeaveFile>();
+        List<DataWeaveFile> all = new ArrayList<DataWeaveFile>();
+        for (SourceWalker.Source src : this.sources) {
+            DataWeaveFile dwf = reparsed.containsKey(src.getKey()) ? reparsed.get(src.getKey()) : this.parsed.get(src.getKey());
+            next.put(src.getKey(), dwf);
+            all.add(dwf);
+        }
+
+        List<DataWeaveFile> removed = new ArrayList<DataWeaveFile>();
+        for (Map.Entry<String, DataWeaveFile> ent : this.parsed.entrySet()) {
+            if (!next.containsKey(ent.getKey())) {
+                removed.add(ent.getValue());
+            }
+        }
+        this.parsed = next;
+
+        // Drop rendered documents and search entries of replaced and removed files.
+        Set<DataWeaveFile> live = Collections.newSetFromMap(new IdentityHashMap<DataWeaveFile, Boolean>());
+        live.addAll(all);
+        for (CachingWriter writer : this.writers.values()) {
+            writer.retain(live);
+        }
+        if (this.search != null) {
+            this.search.retain(live);
+        }
+
+        if (modules.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        if (!this.isConsolidated()) {
+            for (DataWeaveFile dwf : removed) {
+                Files.deleteIfExists(Paths.get(this.getWorkingDirectory() + "/" + this.outputDirectory, this.getModuleFileName(dwf)));
+            }
+        }
+        this.write(pool, all, modules);
+        this.writeSearch(all);
+        this.manifest.save();
+        this.writeIndex(all);
+
+        this.getLog().info("Updated " + modules.size() + " changed and " + removed.size() + " removed DataWeave files in "
+                + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+
+    /**
+     * Creates the doc writer to render with. The watch goal keeps the
+     * rendered document of each module, so unchanged modules aren't
+     * rendered again when the consolidated document is rewritten. The
+     * documents are rendered by the writer knit would use, which is
+     * created again on each call so it sees the current module graph.
+     * @param fileLinks is a boolean with true to link header table rows to module
+     * files and false to link to anchors in the same document.
+     * @return A DataWeaveDocWriter object.
+     */
+    @Override
+    protected DataWeaveDocWriter createWriter(boolean fileLinks) {
+        CachingWriter writer = this.writers.get(fileLinks);
+        if (writer == null) {
+            writer = new CachingWriter();
+            this.writers.put(fileLinks, writer);
+        }
+        writer.delegate = super.createWriter(fileLinks);
+        return writer;
+    }
+
+    /**
+     * Writes the consolidated document, or the provided module documents
+     * and the index or directory pages. With moduleImports any change can
+     * change the imported by section of other modules, so all modules are
+     * rendered and written again.
+     */
+    private void write(ForkJoinPool pool, List<DataWeaveFile> all, List<DataWeaveFile> modules) throws Exception {
+        all = this.orderModules(all);
+        if (this.moduleImports) {
+            modules = all;
+            for (CachingWriter writer : this.writers.values()) {
+                writer.retain(Collections.<DataWeaveFile>emptySet());
+            }
+        }
+        if (this.isHtml()) {
+            this.writeSite(pool, all, modules);
+        } else if (this.consolidateOutput) {
+            this.writeConsolidated(all);
+        } else {
+            this.writeModules(pool, all, modules);
+        }
+    }
+
+    /**
+     * Registers all directories under the configured directories and the
+     * parent directories of the configured files. Directories that are
+     * already registered are skipped.
+     */
+    private void register(WatchService watcher) throws IOException {
+        Set<Path> dirs = new HashSet<Path>();
+        for (String dir : this.directories) {
+            Path root = Paths.get(this.getWorkingDirectory() + "/" + dir);
+            if (Files.isDirectory(root)) {
+                try (Stream<Path> stream = Files.walk(root)) {
+                    stream.filter(Files::isDirectory).forEach(dirs::add);
+                }
+            }
+        }
+        if (this.files != null) {
+            for (String fname : this.files) {
+                Path parent = Paths.get(fname).toAbsolutePath().getParent();
+                if (parent != null && Files.isDirectory(parent)) {
+                    dirs.add(parent);
+                }
+            }
+        }
+
+        dirs.removeAll(this.watched.values());
+        for (Path dir : dirs) {
+            WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            this.watched.put(key, dir);
+        }
+    }
+
+    /**
+     * Doc writer that keeps the rendered document of each module and renders
+     * with the provided writer otherwise. Parsed files are replaced by new
+     * objects when they change, so the cache is keyed by identity. A module
+     * document in a document with several modules starts with an anchor if
+     * its name isn't unique, so it is rendered again when that changes.
+     */
+    private class CachingWriter implements DataWeaveDocWriter {
+        private final Map<DataWeaveFile, String> docs = new ConcurrentHashMap<DataWeaveFile, String>();
+        private final Map<DataWeaveFile, String> uniqueDocs = new ConcurrentHashMap<DataWeaveFile, String>();
+        private final Map<DataWeaveFile, String> anchoredDocs = new ConcurrentHashMap<DataWeaveFile, String>();
+        private volatile DataWeaveDocWriter delegate;
+
+        @Override
+        public String writeDoc(DataWeaveFile file) {
+            StringBuilder sb = new StringBuilder();
+            try {
+                this.writeDoc(file, sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void writeDoc(DataWeaveFile file, Appendable out) throws IOException {
+            String doc = this.docs.get(file);
+            if (doc == null) {
+                StringBuilder sb = new StringBuilder();
+                this.delegate.writeDoc(file, sb);
+                doc = sb.toString();
+                this.docs.put(file, doc);
+            }
+            out.append(doc);
+        }
+
+        @Override
+        public String writeDoc(List<DataWeaveFile> files) {
+            return this.writeDoc(files, new ArrayList<String>());
+        }
+
+        @Override
+        public String writeDoc(List<DataWeaveFile> files, List<String> moduleNameList) {
+            StringBuilder sb = new StringBuilder();
+            try {
+                this.writeDoc(files, moduleNameList, sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void writeDoc(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+            SymbolTable symbols = new SymbolTable(files);
+
+            // Go through the module list first and add them in order.
+            Set<DataWeaveFile> listed = symbols.findModules(moduleNameList, WatchMojo.this.getLog());
+            for (DataWeaveFile modFile : listed) {
+                this.writeModuleDoc(symbols, modFile, out);
+                out.append(System.lineSeparator());
+            }
+
+            // Iterate the rest.
+            for (DataWeaveFile dwf : files) {
+                if (!listed.contains(dwf)) {
+                    this.writeModuleDoc(symbols, dwf, out);
+                }
+            }
+        }
+
+        @Override
+        public void writeModuleDoc(SymbolTable symbols, DataWeaveFile file, Appendable out) throws IOException {
+            Map<DataWeaveFile, String> cache = symbols.hasUniqueName(file) ? this.uniqueDocs : this.anchoredDocs;
+            String doc = cache.get(file);
+            if (doc == null) {
+                StringBuilder sb = new StringBuilder();
+                this.delegate.writeModuleDoc(symbols, file, sb);
+                doc = sb.toString();
+                cache.put(file, doc);
+            }
+            out.append(doc);
+        }
+
+        @Override
+        public String writeHeaderTable(List<DataWeaveFile> files) {
+            return this.delegate.writeHeaderTable(files);
+        }
+
+        @Override
+        public String writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList) {
+            return this.delegate.writeHeaderTable(files, moduleNameList);
+        }
+
+        @Override
+        public void writeHeaderTable(List<DataWeaveFile> files, List<String> moduleNameList, Appendable out) throws IOException {
+            this.delegate.writeHeaderTable(files, moduleNameList, out);
+        }
+
+        @Override
+        public String getFileName(DataWeaveFile file) {
+            return this.delegate.getFileName(file);
+        }
+
+        void retain(Set<DataWeaveFile> live) {
+            this.docs.keySet().retainAll(live);
+            this.uniqueDocs.keySet().retainAll(live);
+            this.anchoredDocs.keySet().retainAll(live);
+        }
+    }
+}
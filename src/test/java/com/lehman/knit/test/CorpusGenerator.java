@@ -0,0 +1,345 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic DataWeave corpora for scale testing. The same
+ * seed and settings always produce the same corpus and each module only
+ * depends on the seed and its index, so modules can be generated on demand.
+ *
+ * Run it from the command line to write a corpus to disk:
+ * CorpusGenerator outputDir [modules=1000] [depth=3] [seed=1] [functions=20] ...
+ * Any of the setters below can be used as a key.
+ */
+public class CorpusGenerator extends Object {
+    private static final String NL = System.lineSeparator();
+
+    private static final String[] WORDS = new String[] {
+        "maps", "the", "provided", "customer", "order", "object", "to", "a", "result", "value",
+        "with", "and", "returns", "payload", "field", "record", "list", "of", "each", "item",
+        "color", "palette", "product", "account", "address", "status", "when", "is", "not", "null"
+    };
+
+    private static final String[] TYPES = new String[] {
+        "", "", "String", "Number", "Object", "Array<String>", "Boolean"
+    };
+
+    private long seed = 1;
+    private int modules = 100;
+    private int depth = 2;
+    private int functions = 10;
+    private int variables = 5;
+    private int commentLines = 3;
+    private double paramDensity = 1.0;
+    private double returnDensity = 1.0;
+    private double functionTableDensity = 0.2;
+    private int tableRows = 10;
+    private boolean adversarial = false;
+
+    /**
+     * Sets the random seed.
+     * @param Seed is a long with the seed.
+     * @return This generator.
+     */
+    public CorpusGenerator setSeed(long Seed) { this.seed = Seed; return this; }
+
+    /**
+     * Sets the number of modules in the corpus.
+     * @param Modules is an int with the module count.
+     * @return This generator.
+     */
+    public CorpusGenerator setModules(int Modules) { this.modules = Modules; return this; }
+
+    /**
+     * Sets the directory depth modules are spread over. (10 modules per directory)
+     * @param Depth is an int with the directory depth.
+     * @return This generator.
+     */
+    public CorpusGenerator setDepth(int Depth) { this.depth = Depth; return this; }
+
+    /**
+     * Sets the number of documented functions per module.
+     * @param Functions is an int with the function count.
+     * @return This generator.
+     */
+    public CorpusGenerator setFunctions(int Functions) { this.functions = Functions; return this; }
+
+    /**
+     * Sets the number of documented variables per module.
+     * @param Variables is an int with the variable count.
+     * @return This generator.
+     */
+    public CorpusGenerator setVariables(int Variables) { this.variables = Variables; return this; }
+
+    /**
+     * Sets the number of text lines of each comment.
+     * @param CommentLines is an int with the comment line count.
+     * @return This generator.
+     */
+    public CorpusGenerator setCommentLines(int CommentLines) { this.commentLines = CommentLines; return this; }
+
+    /**
+     * Sets the probability that a function argument has a @param annotation.
+     * @param ParamDensity is a double between 0 and 1.
+     * @return This generator.
+     */
+    public CorpusGenerator setParamDensity(double ParamDensity) { this.paramDensity = ParamDensity; return this; }
+
+    /**
+     * Sets the probability that a function has a @return annotation.
+     * @param ReturnDensity is a double between 0 and 1.
+     * @return This generator.
+     */
+    public CorpusGenerator setReturnDensity(double ReturnDensity) { this.returnDensity = ReturnDensity; return this; }
+
+    /**
+     * Sets the probability that a function has a small @table mapping table.
+     * @param FunctionTableDensity is a double between 0 and 1.
+     * @return This generator.
+     */
+    public CorpusGenerator setFunctionTableDensity(double FunctionTableDensity) { this.functionTableDensity = FunctionTableDensity; return this; }
+
+    /**
+     * Sets the number of @row lines of the mapping table in each module body.
+     * 0 writes no body mapping table.
+     * @param TableRows is an int with the row count.
+     * @return This generator.
+     */
+    public CorpusGenerator setTableRows(int TableRows) { this.tableRows = TableRows; return this; }
+
+    /**
+     * Sets adversarial mode. Comments then contain dense @ characters, e-mail
+     * addresses, URLs and escaped commas, and the code contains keywords and
+     * separators inside strings and regular comments.
+     * @param Adversarial is a boolean with true for adversarial input.
+     * @return This generator.
+     */
+    public CorpusGenerator setAdversarial(boolean Adversarial) { this.adversarial = Adversarial; return this; }
+
+    /**
+     * Gets the module path of the module with the provided index relative
+     * to the corpus root. (p3/p2/module123.dwl)
+     * @param index is an int with the module index.
+     * @return A String with the module path.
+     */
+    public String getModulePath(int index) {
+        StringBuilder sb = new StringBuilder();
+        int div = 10;
+        for (int l = 0; l < this.depth; l++) {
+            sb.append("p").append((index / div) % 10).append("/");
+            div *= 10;
+        }
+        return sb.append("module").append(index).append(".dwl").toString();
+    }
+
+    /**
+     * Generates the source of the module with the provided index.
+     * @param index is an int with the module index.
+     * @return A String with the module source.
+     */
+    public String module(int index) {
+        Random rnd = new Random(this.seed * 1000003L + index);
+        StringBuilder sb = new StringBuilder();
+
+        this.commentStart(sb, rnd, "Module " + index + " generated with seed " + this.seed + ".");
+        sb.append(" */").append(NL);
+        sb.append("%dw 2.0").append(NL);
+        if (index > 0) {
+            String imp = this.getModulePath(index / 2);
+            sb.append("import * from ").append(imp.substring(0, imp.length() - 4).replace("/", "::")).append(NL);
+        }
+        sb.append(NL);
+
+        for (int i = 0; i < this.variables; i++) {
+            this.commentStart(sb, rnd, "Variable " + i + ".");
+            sb.append(" */").append(NL);
+            sb.append("var var").append(i).append(" = \"").append(this.adversarial ? "fun notAFunction(x) ---" : "value").append("\"").append(NL).append(NL);
+        }
+
+        for (int i = 0; i < this.functions; i++) {
+            int args = 1 + rnd.nextInt(3);
+            this.commentStart(sb, rnd, "Function " + i + ".");
+            for (int a = 0; a < args; a++) {
+                if (rnd.nextDouble() < this.paramDensity) {
+                    sb.append(" * @param arg").append(a).append(" ").append(this.sentence(rnd)).append(NL);
+                }
+            }
+            if (rnd.nextDouble() < this.returnDensity) {
+                sb.append(" * @return ").append(this.sentence(rnd)).append(NL);
+            }
+            if (rnd.nextDouble() < this.functionTableDensity) {
+                this.table(sb, rnd, 3 + rnd.nextInt(8));
+            }
+            sb.append(" */").append(NL);
+            sb.append("fun fun").append(i).append("(");
+            for (int a = 0; a < args; a++) {
+                if (a > 0) sb.append(", ");
+                sb.append("arg").append(a);
+                String type = TYPES[rnd.nextInt(TYPES.length)];
+                if (!type.equals("")) sb.append(": ").append(type);
+            }
+            sb.append(") = do {").append(NL);
+            if (this.adversarial) {
+                sb.append("    // fun commented(x) = x").append(NL);
+                sb.append("    /* var commented = \"/*\" fun other(y) = y */").append(NL);
+                sb.append("    var inner = \"---\"").append(NL);
+                sb.append("    ---").append(NL);
+            }
+            sb.append("    { result: arg0 }").append(NL);
+            sb.append("}").append(NL).append(NL);
+        }
+
+        sb.append("---").append(NL);
+        if (this.tableRows > 0) {
+            sb.append("/**").append(NL);
+            sb.append(" * ").append(this.sentence(rnd)).append(NL);
+            this.table(sb, rnd, this.tableRows);
+            sb.append(" */").append(NL);
+        }
+        sb.append("payload").append(NL);
+        return sb.toString();
+    }
+
+    /**
+     * Writes the corpus to the provided directory.
+     * @param dir is the File with the corpus root directory.
+     * @return A long with the total number of bytes written.
+     * @throws IOException on IO exception.
+     */
+    public long write(File dir) throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < this.modules; i++) {
+            File f = new File(dir, this.getModulePath(i));
+            f.getParentFile().mkdirs();
+            byte[] data = this.module(i).getBytes(StandardCharsets.UTF_8);
+            Files.write(f.toPath(), data);
+            bytes += data.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Builds a module with a single module comment made of the provided line
+     * repeated the provided number of times. Used for worst case comment input.
+     * @param line is a String with the comment line to repeat.
+     * @param lines is an int with the number of lines.
+     * @return A String with the module source.
+     */
+    public static String commentModule(String line, int lines) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/**").append(NL);
+        sb.append(" * Adversarial comment block.").append(NL);
+        sb.append(" * @table Source Field, Target Field, Comments").append(NL);
+        for (int i = 0; i < lines; i++) {
+            sb.append(" * ").append(line).append(NL);
+        }
+        sb.append(" */").append(NL);
+        sb.append("%dw 2.0").append(NL);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the start of a doc comment with the configured number of lines.
+     */
+    private void commentStart(StringBuilder sb, Random rnd, String first) {
+        sb.append("/**").append(NL);
+        sb.append(" * ").append(first).append(NL);
+        for (int i = 1; i < this.commentLines; i++) {
+            sb.append(" * ").append(this.sentence(rnd)).append(NL);
+        }
+    }
+
+    /**
+     * Appends a @table with the provided number of rows.
+     */
+    private void table(StringBuilder sb, Random rnd, int rows) {
+        sb.append(" * @table Source Field, Target Field, Comments").append(NL);
+        for (int r = 0; r < rows; r++) {
+            sb.append(" * @row field").append(r).append(", data.").append(WORDS[rnd.nextInt(WORDS.length)]).append(r)
+                    .append(", ").append(this.sentence(rnd)).append(NL);
+        }
+    }
+
+    /**
+     * Returns a random sentence.
+     */
+    private String sentence(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        int words = 4 + rnd.nextInt(10);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) sb.append(' ');
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        if (this.adversarial) {
+            switch (rnd.nextInt(4)) {
+                case 0: sb.append(" contact user").append(rnd.nextInt(100)).append("@example.com @ @@"); break;
+                case 1: sb.append(" see https://example.com/docs/*.html?q=@param"); break;
+                case 2: sb.append(" first\\\\, second\\\\, third"); break;
+                default: sb.append(" @@@@ a@b@c"); break;
+            }
+        }
+        return sb.append('.').toString();
+    }
+
+    /**
+     * Main entry point of the generator.
+     * @param args is the output directory followed by key=value settings.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CorpusGenerator outputDir [modules=100] [depth=2] [seed=1] [functions=10] [variables=5] "
+                    + "[commentLines=3] [paramDensity=1.0] [returnDensity=1.0] [functionTableDensity=0.2] [tableRows=10] [adversarial=false]");
+            System.exit(1);
+        }
+
+        CorpusGenerator gen = new CorpusGenerator();
+        for (int i = 1; i < args.length; i++) {
+            String[] kv = args[i].split("=", 2);
+            String val = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "seed": gen.setSeed(Long.parseLong(val)); break;
+                case "modules": gen.setModules(Integer.parseInt(val)); break;
+                case "depth": gen.setDepth(Integer.parseInt(val)); break;
+                case "functions": gen.setFunctions(Integer.parseInt(val)); break;
+                case "variables": gen.setVariables(Integer.parseInt(val)); break;
+                case "commentLines": gen.setCommentLines(Integer.parseInt(val)); break;
+                case "paramDensity": gen.setParamDensity(Double.parseDouble(val)); break;
+                case "returnDensity": gen.setReturnDensity(Double.parseDouble(val)); break;
+                case "functionTableDensity": gen.setFunctionTableDensity(Double.parseDouble(val)); break;
+                case "tableRows": gen.setTableRows(Integer.parseInt(val)); break;
+                case "adversarial": gen.setAdversarial(Boolean.parseBoolean(val)); break;
+                default:
+                    System.err.println("Unknown setting '" + kv[0] + "'.");
+                    System.exit(1);
+            }
+        }
+
+        long start = System.nanoTime();
+        long bytes = gen.write(new File(args[0]));
+        System.out.println("Wrote " + gen.modules + " modules (" + bytes + " bytes) to '" + args[0] + "' in "
+                + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+}
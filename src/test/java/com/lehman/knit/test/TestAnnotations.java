@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.util.ArrayList;
+
+import com.lehman.knit.DataWeaveCommentAnnotation;
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.KnitParser;
+
+/**
+ * Checks the annotations parsed from function comments, in the default
+ * and the compact model. Fails with an exception on the first mismatch.
+ */
+public class TestAnnotations extends Object {
+    /**
+     * Line separator shorthand.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        for (boolean compact : new boolean[] { false, true }) {
+            // A tag without a value on the last comment line.
+            check(compact, "/**" + NL + " * Old." + NL + " * @deprecated */",
+                    "deprecated", "", "");
+
+            // A tag without a value after a param.
+            check(compact, "/**" + NL + " * Old." + NL + " * @param a the a" + NL + " * @deprecated" + NL + " */",
+                    "param", "a", "the a", "deprecated", "", "");
+
+            // A tag without a value followed by another tag.
+            check(compact, "/**" + NL + " * @deprecated" + NL + " * @return the result" + NL + " */",
+                    "deprecated", "", "", "return", "", "the result");
+
+            // A word starting with @ that isn't a tag.
+            check(compact, "/**" + NL + " * @param a the a" + NL + " * @x,y" + NL + " */",
+                    "param", "a", "the a" + NL + "@x,y");
+        }
+        System.out.println("TestAnnotations passed.");
+    }
+
+    /**
+     * Parses a function with the provided doc comment and checks its annotations.
+     * @param compact is a boolean with true to parse the compact model.
+     * @param doc is a String with the doc comment.
+     * @param expected is a list of name, key and trimmed value triples.
+     */
+    private static void check(boolean compact, String doc, String... expected) {
+        KnitParser parser = new KnitParser();
+        parser.setCompact(compact);
+        DataWeaveFile dwf = new DataWeaveFile("test.dwl", "dwl");
+        parser.parseText("%dw 2.0" + NL + doc + NL + "fun f(a) = a" + NL, dwf);
+
+        ArrayList<DataWeaveCommentAnnotation> anns = dwf.getFunctions().get(0).getComment().getAnnotations();
+        if (anns.size() * 3 != expected.length) {
+            throw new IllegalStateException("Expected " + expected.length / 3 + " annotations but got " + anns.size() + " for: " + doc);
+        }
+        for (int i = 0; i < anns.size(); i++) {
+            DataWeaveCommentAnnotation ann = anns.get(i);
+            String value = ann.getValue() == null ? null : ann.getValue().trim();
+            if (!expected[i * 3].equals(ann.getName()) || !expected[i * 3 + 1].equals(ann.getKey())
+                    || !expected[i * 3 + 2].equals(value)) {
+                throw new IllegalStateException("Annotation " + i + " is @" + ann.getName() + " key '" + ann.getKey()
+                        + "' value '" + value + "' for: " + doc);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.KnitParser;
+
+/**
+ * Stress benchmark for the comment and annotation parser. Parses adversarial
+ * comment blocks and generated tables of doubling size and prints the time per line so that
+ * linear growth can be checked. (ns/line should stay roughly flat)
+ */
+public class TestCommentStress extends Object {
+    /**
+     * The comment sizes in lines to run.
+     */
+    private static final int[] SIZES = new int[] { 1250, 2500, 5000, 10000 };
+
+    /**
+     * The mapping table sizes in rows to run.
+     */
+    private static final int[] TABLE_SIZES = new int[] { 12500, 25000, 50000, 100000 };
+
+    /**
+     * Main entry point of the stress benchmark.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        run("@row lines", "@row name, data.color, The name\\\\, of the color.");
+        run("mid-line @", "user@example.com maps to admin@example.com @ @ @ @ @ @ @ @");
+        run("@ only", "@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@");
+        run("@ no space", "@row,name,data.color,@row,@row,@row,@row,@row,@row,@row,@row");
+        runTables();
+    }
+
+    /**
+     * Parses generated adversarial modules with body mapping tables of
+     * growing size up to 100k rows.
+     */
+    private static void runTables() {
+        KnitParser parser = new KnitParser();
+        CorpusGenerator gen = new CorpusGenerator().setSeed(42).setAdversarial(true).setFunctions(5).setVariables(5);
+
+        for (int rows : TABLE_SIZES) {
+            String src = gen.setTableRows(rows).module(1);
+            long start = System.nanoTime();
+            DataWeaveFile file = parse(parser, src);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%-12s rows=%7d tables=%6d time=%8.2f ms  %8.1f ns/row",
+                    "table", rows, file.getTables().size(), elapsed / 1e6, (double) elapsed / rows));
+        }
+    }
+
+    /**
+     * Runs a single case at each of the sizes and prints the result.
+     * @param name is a String with the case name.
+     * @param line is a String with the comment line to repeat.
+     */
+    private static void run(String name, String line) {
+        KnitParser parser = new KnitParser();
+
+        // Warm up.
+        for (int i = 0; i < 5; i++) {
+            parse(parser, CorpusGenerator.commentModule(line, SIZES[0]));
+        }
+
+        for (int size : SIZES) {
+            String src = CorpusGenerator.commentModule(line, size);
+            long start = System.nanoTime();
+            DataWeaveFile file = parse(parser, src);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%-12s lines=%6d annotations=%6d time=%8.2f ms  %8.1f ns/line",
+                    name, size, file.getComment().getAnnotations().size(), elapsed / 1e6, (double) elapsed / size));
+        }
+    }
+
+    private static DataWeaveFile parse(KnitParser parser, String src) {
+        DataWeaveFile file = new DataWeaveFile("stress.dwl", "dwl");
+        parser.parseText(src, file);
+        return file;
+    }
+}
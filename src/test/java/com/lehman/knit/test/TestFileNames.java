@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.KnitParser;
+import com.lehman.knit.ParseCache;
+
+/**
+ * Checks that module names are relative to their root directory when the
+ * root has characters that are special in regular expressions. Fails with
+ * an exception on a mismatch.
+ */
+public class TestFileNames extends Object {
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("knit+names").toFile();
+        File rootDir = new File(dir, "dwl (v2) [x]");
+        File src = new File(rootDir, "util/strings.dwl");
+        src.getParentFile().mkdirs();
+        Files.write(src.toPath(), ("%dw 2.0" + System.lineSeparator() + "var x = 1" + System.lineSeparator())
+                .getBytes(StandardCharsets.UTF_8));
+        String root = rootDir.getPath() + "/";
+        String fileName = root + "util/strings.dwl";
+
+        KnitParser parser = new KnitParser();
+        check(parser.parseFile(root, fileName, "dwl"), "parseFile");
+        check(parser.parseHeader(root, fileName, "dwl"), "parseHeader");
+        ParseCache cache = new ParseCache(new File(dir, "cache"));
+        check(cache.parseFile(parser, root, fileName, "dwl"), "ParseCache.parseFile");
+        cache.save();
+        check(new ParseCache(new File(dir, "cache")).parseFile(parser, root, fileName, "dwl"), "cached ParseCache.parseFile");
+
+        System.out.println("TestFileNames passed.");
+    }
+
+    private static void check(DataWeaveFile dwf, String what) {
+        if (!"util::strings".equals(dwf.getQualifiedName())) {
+            throw new IllegalStateException(what + " module is '" + dwf.getQualifiedName() + "'.");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.DataWeaveFunction;
+import com.lehman.knit.DataWeaveVariable;
+import com.lehman.knit.KnitIndexReader;
+import com.lehman.knit.KnitIndexWriter;
+import com.lehman.knit.KnitParser;
+
+/**
+ * Writes a knit-index and reads it back by module index, module name and
+ * symbol name. Modules are added out of order like the pipeline does.
+ * Fails with an exception on a mismatch.
+ */
+public class TestKnitIndex extends Object {
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        DataWeaveFile palette = module("dw/color/palette.dwl",
+                "/**",
+                " * Color palettes.",
+                " */",
+                "%dw 2.0",
+                "",
+                "/** The default colors. */",
+                "var myColors = { red: \"#f00\" }",
+                "",
+                "/** Maps a palette. */",
+                "fun mapPalette(colors: Object) = colors",
+                "",
+                "/** Maps a palette by name. */",
+                "fun mapPalette(name: String) = myColors");
+        DataWeaveFile main = module("app/main.dwl",
+                "%dw 2.0",
+                "",
+                "/** Says hello. */",
+                "fun hello(name) = \"Hello \" ++ name");
+
+        File index = File.createTempFile("knit-index", ".bin");
+        try (KnitIndexWriter writer = new KnitIndexWriter()) {
+            writer.add(1, main);
+            writer.add(0, palette);
+            writer.write(index);
+        }
+
+        KnitIndexReader reader = new KnitIndexReader(index);
+        expect(String.valueOf(reader.getModuleCount()), "2", "module count");
+        expect(String.join(",", reader.getModuleNames()), "dw::color::palette,app::main", "module names");
+        expect(reader.readModule(1).getQualifiedName(), "app::main", "module 1");
+
+        DataWeaveFile read = reader.readModule("dw::color::palette");
+        expect(read.getQualifiedName(), "dw::color::palette", "module by name");
+        expect(read.getComment().getText().trim(), "Color palettes.", "module comment");
+        expect(String.valueOf(read.getFunctions().size()), "2", "function count");
+        expect(read.getVariables().get(0).getName(), "myColors", "variable");
+        if (reader.readModule("dw::color::missing") != null) {
+            throw new IllegalStateException("Read a module that isn't in the index.");
+        }
+
+        DataWeaveVariable var = reader.readVariable("dw::color::palette::myColors");
+        expect(var.getComment().getText().trim(), "The default colors.", "variable by name");
+        List<DataWeaveFunction> funs = reader.readFunctions("dw::color::palette::mapPalette");
+        expect(String.valueOf(funs.size()), "2", "overloads");
+        expect(funs.get(0).getComment().getText().trim() + "|" + funs.get(1).getComment().getText().trim(),
+                "Maps a palette.|Maps a palette by name.", "functions by name");
+        expect(reader.readFunctions("app::main::hello").get(0).getName(), "hello", "function by name");
+        if (reader.readVariable("app::main::hello") != null || !reader.readFunctions("app::main::myColors").isEmpty()) {
+            throw new IllegalStateException("Read a symbol of the wrong kind or module.");
+        }
+
+        Files.delete(index.toPath());
+        System.out.println("TestKnitIndex passed.");
+    }
+
+    private static DataWeaveFile module(String fileName, String... lines) {
+        DataWeaveFile dwf = new DataWeaveFile(fileName, "dwl");
+        new KnitParser().parseText(String.join(System.lineSeparator(), lines) + System.lineSeparator(), dwf);
+        return dwf;
+    }
+
+    private static void expect(String actual, String expected, String what) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(what + " is '" + actual + "', expected '" + expected + "'.");
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.DataWeaveFunction;
+import com.lehman.knit.DataWeaveLexer;
+import com.lehman.knit.KnitParser;
+
+/**
+ * Checks the declarations the lexer extracts and the doc comments the
+ * parser attaches to them when regular expressions, strings or comments
+ * hold quotes, slashes or declaration keywords. Fails with an exception on
+ * a mismatch.
+ */
+public class TestLexer extends Object {
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        // Regular expressions with quotes.
+        check(lines(
+                "fun unquote(s) = s replace /\"/ with \"\"",
+                "/** Second. */",
+                "fun second(a) = a"),
+                "unquote,second", "", "second=Second.");
+        check(lines(
+                "var re = /a'b/",
+                "/** Third. */",
+                "fun three(x) = x"),
+                "three", "re", "three=Third.");
+        check(lines(
+                "var esc = /a\\/\"b/",
+                "var cls = [\"x\"] map ($ replace /[/\"]/ with \"\")",
+                "fun clean(s, re = /`/) = s replace re with \"\"",
+                "/** After. */",
+                "fun after() = 1"),
+                "clean,after", "esc,cls", "after=After.");
+
+        // Divisions aren't regular expressions.
+        check(lines(
+                "var half = total / 2",
+                "var ratio = (a) / (b) / 'c'",
+                "/** Fourth. */",
+                "fun four() = half"),
+                "four", "half,ratio", "four=Fourth.");
+
+        // Comment starts inside strings.
+        check(lines(
+                "var url = \"http://example.com/*\"",
+                "var glob = 'src/**/*.dwl'",
+                "/** Fifth. */",
+                "fun five() = url"),
+                "five", "url,glob", "five=Fifth.");
+
+        // Comments with URLs and quotes.
+        check(lines(
+                "// See https://docs.mulesoft.com/dataweave/ for \"details",
+                "/* Mirror at https://example.com/it's/ */",
+                "/** Sixth, see https://example.com/a\"b. */",
+                "fun six() = 6",
+                "var seven = 7"),
+                "six", "seven", "six=Sixth, see https://example.com/a\"b.");
+
+        // Header mime types and body regular expressions.
+        check(lines(
+                "%dw 2.0",
+                "output application/json",
+                "/** Eighth. */",
+                "fun eight(s) = s splitBy /\"/",
+                "---",
+                "payload match /'/"),
+                "eight", "", "eight=Eighth.");
+
+        System.out.println("TestLexer passed.");
+    }
+
+    private static String lines(String... lines) {
+        return String.join(System.lineSeparator(), lines) + System.lineSeparator();
+    }
+
+    private static void check(String src, String functions, String variables, String comment) {
+        List<String> funs = new ArrayList<String>();
+        List<String> vars = new ArrayList<String>();
+        DataWeaveLexer lexer = new DataWeaveLexer(src);
+        for (DataWeaveLexer.Token tok = lexer.next(); tok != null; tok = lexer.next()) {
+            if (tok.getType() == DataWeaveLexer.TokenType.FUN) {
+                funs.add(tok.getName());
+            } else if (tok.getType() == DataWeaveLexer.TokenType.VAR) {
+                vars.add(tok.getName());
+            }
+        }
+        expect(String.join(",", funs), functions, "functions", src);
+        expect(String.join(",", vars), variables, "variables", src);
+
+        // Only documented declarations make it into the model.
+        DataWeaveFile dwf = new DataWeaveFile();
+        new KnitParser().parseText(src, dwf);
+        String name = comment.substring(0, comment.indexOf('='));
+        for (DataWeaveFunction fun : dwf.getFunctions()) {
+            if (fun.getName().equals(name)) {
+                expect(fun.getComment().getText().trim(), comment.substring(name.length() + 1), name + " comment", src);
+                return;
+            }
+        }
+        throw new IllegalStateException("Function '" + name + "' is missing in:" + System.lineSeparator() + src);
+    }
+
+    private static void expect(String actual, String expected, String what, String src) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(what + " are '" + actual + "', expected '" + expected + "' in:"
+                    + System.lineSeparator() + src);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.KnitParser;
+import com.lehman.knit.ModuleGraph;
+
+/**
+ * Checks the dependencies first and entry points first module orders, the
+ * import cycles and the importing modules of a graph with a cycle and an
+ * import of a module that isn't parsed. Fails with an exception on a
+ * mismatch.
+ */
+public class TestModuleGraph extends Object {
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        List<DataWeaveFile> files = new ArrayList<DataWeaveFile>();
+        files.add(module("app/main.dwl", "import dw::color::palette", "import * from util::strings"));
+        files.add(module("dw/color/palette.dwl", "import mix from dw::color::core"));
+        files.add(module("dw/color/core.dwl", "import dw::color::palette"));
+        files.add(module("util/strings.dwl"));
+        files.add(module("util/unused.dwl", "import util::missing"));
+
+        ModuleGraph graph = new ModuleGraph(files);
+        expect(graph.getModules(ModuleGraph.Order.SOURCE),
+                "app::main,dw::color::palette,dw::color::core,util::strings,util::unused", "source order");
+        expect(graph.getModules(ModuleGraph.Order.DEPENDENCIES_FIRST),
+                "dw::color::palette,dw::color::core,util::strings,app::main,util::unused", "dependencies first order");
+        expect(graph.getModules(ModuleGraph.Order.ENTRY_POINTS_FIRST),
+                "util::unused,app::main,util::strings,dw::color::palette,dw::color::core", "entry points first order");
+
+        if (graph.getCycles().size() != 1) {
+            throw new IllegalStateException("Found " + graph.getCycles().size() + " cycles, expected 1.");
+        }
+        expect(graph.getCycles().get(0), "dw::color::palette,dw::color::core", "cycle");
+        expect(graph.getImportedBy(graph.getModule("dw::color::palette")), "app::main,dw::color::core", "palette imported by");
+        expect(graph.getImportedBy(graph.getModule("app::main")), "", "main imported by");
+        if (graph.getModule("util::missing") != null) {
+            throw new IllegalStateException("Module util::missing isn't parsed but is in the graph.");
+        }
+
+        System.out.println("TestModuleGraph passed.");
+    }
+
+    private static DataWeaveFile module(String fileName, String... imports) {
+        StringBuilder src = new StringBuilder("%dw 2.0" + System.lineSeparator());
+        for (String line : imports) {
+            src.append(line).append(System.lineSeparator());
+        }
+        src.append("---").append(System.lineSeparator()).append("{}").append(System.lineSeparator());
+        DataWeaveFile dwf = new DataWeaveFile(fileName, "dwl");
+        new KnitParser().parseText(src, dwf);
+        return dwf;
+    }
+
+    private static void expect(List<DataWeaveFile> modules, String expected, String what) {
+        List<String> names = new ArrayList<String>();
+        for (DataWeaveFile dwf : modules) {
+            names.add(dwf.getQualifiedName());
+        }
+        String actual = String.join(",", names);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(what + " is '" + actual + "', expected '" + expected + "'.");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.ModulePipeline;
+import com.lehman.knit.SourceWalker;
+
+/**
+ * Checks that the module pipeline hands results to the sink in source order
+ * while stages finish out of order, never runs more than the window ahead
+ * of the sink and stops at the first stage failure. Fails with an exception
+ * on a mismatch.
+ */
+public class TestModulePipeline extends Object {
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        final int window = 4;
+        List<SourceWalker.Source> sources = new ArrayList<SourceWalker.Source>();
+        for (int i = 0; i < 200; i++) {
+            sources.add(new SourceWalker.Source("src/", "src/module" + i + ".dwl", "module" + i));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final Random rnd = new Random(1);
+            final AtomicInteger started = new AtomicInteger();
+            final List<String> sunk = new ArrayList<String>();
+            new ModulePipeline(pool, window).run(sources, src -> {
+                started.incrementAndGet();
+                int delay;
+                synchronized (rnd) {
+                    delay = rnd.nextInt(3);
+                }
+                Thread.sleep(delay);
+                return new DataWeaveFile(src.getFileName(), "dwl");
+            }, (index, dwf) -> {
+                if (started.get() > index + window) {
+                    throw new IllegalStateException(started.get() + " stages started before result " + index + " was sunk.");
+                }
+                if (!dwf.getFileNameAndPath().equals(sources.get(index).getFileName())) {
+                    throw new IllegalStateException("Result " + index + " is " + dwf.getFileNameAndPath() + ".");
+                }
+                sunk.add(dwf.getName());
+            });
+            if (sunk.size() != sources.size() || !sunk.get(sunk.size() - 1).equals("module199")) {
+                throw new IllegalStateException("Sunk " + sunk.size() + " results, expected " + sources.size() + ".");
+            }
+
+            final AtomicInteger accepted = new AtomicInteger();
+            try {
+                new ModulePipeline(pool, window).run(sources, src -> {
+                    if (src.getKey().equals("module7")) {
+                        throw new IOException("Can't read " + src.getFileName() + ".");
+                    }
+                    return new DataWeaveFile(src.getFileName(), "dwl");
+                }, (index, dwf) -> accepted.incrementAndGet());
+                throw new IllegalStateException("The stage failure wasn't thrown.");
+            } catch (IOException e) {
+                if (accepted.get() != 7) {
+                    throw new IllegalStateException("Sunk " + accepted.get() + " results before the failure, expected 7.");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.println("TestModulePipeline passed.");
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import com.lehman.knit.OutputManifest;
+
+/**
+ * Checks the written, unchanged and removed counts of the output manifest
+ * over several runs, and that outputs the user may own, like an earlier
+ * consolidated outputFile, are never pruned. Fails with an exception on a
+ * mismatch.
+ */
+public class TestOutputManifest extends Object {
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("knit-manifest").toFile();
+        File manifestFile = new File(dir, "target/knit-cache/outputs.properties");
+        File outDir = new File(dir, "target/knit-doc");
+        File readme = new File(dir, "README.md");
+        Files.write(readme.toPath(), "My own readme.".getBytes(StandardCharsets.UTF_8));
+
+        // First run, the consolidated doc replaces the readme and module pages are written.
+        OutputManifest manifest = new OutputManifest(manifestFile);
+        manifest.write(readme.getPath(), out -> out.write("doc"), false);
+        manifest.write(new File(outDir, "a.md").getPath(), out -> out.write("a"));
+        manifest.write(new File(outDir, "b.md").getPath(), out -> out.write("b"));
+        manifest.write(new File(outDir, "all.md").getPath(), out -> out.write("all"), false);
+        List<String> kept = manifest.prune(outDir);
+        manifest.save();
+        check(manifest, 4, 0, 0);
+        check(kept.isEmpty(), "first run reported stale outputs " + kept);
+
+        // Second run with another outputFile and without module b.
+        manifest = new OutputManifest(manifestFile);
+        manifest.write(new File(dir, "docs/api.md").getPath(), out -> out.write("doc"), false);
+        manifest.write(new File(outDir, "a.md").getPath(), out -> out.write("a"));
+        kept = manifest.prune(outDir);
+        manifest.save();
+        check(manifest, 1, 1, 1);
+        check(readme.isFile(), "earlier outputFile outside the output directory was deleted");
+        check(new File(outDir, "all.md").isFile(), "earlier outputFile inside the output directory was deleted");
+        check(!new File(outDir, "b.md").exists(), "stale module page wasn't deleted");
+        check(kept.size() == 2, "stale outputs that are kept aren't reported " + kept);
+
+        // Third run, the reported outputs aren't tracked anymore.
+        manifest = new OutputManifest(manifestFile);
+        manifest.write(new File(dir, "docs/api.md").getPath(), out -> out.write("doc 2"), false);
+        manifest.write(new File(outDir, "a.md").getPath(), out -> out.write("a"));
+        kept = manifest.prune(outDir);
+        manifest.save();
+        check(manifest, 1, 1, 0);
+        check(kept.isEmpty(), "reported outputs are reported again " + kept);
+        check(manifest.outputsExist(), "outputs are missing");
+
+        System.out.println("TestOutputManifest passed.");
+    }
+
+    private static void check(OutputManifest manifest, int written, int unchanged, int removed) {
+        check(manifest.getWritten() == written && manifest.getUnchanged() == unchanged && manifest.getRemoved() == removed,
+                "expected " + written + " written, " + unchanged + " unchanged and " + removed + " removed but got "
+                + manifest.getWritten() + ", " + manifest.getUnchanged() + " and " + manifest.getRemoved());
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok) {
+            throw new IllegalStateException(msg);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Roseville Code Inc. (austin@rosevillecode.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.lehman.knit.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import com.lehman.knit.DataWeaveFile;
+import com.lehman.knit.KnitParser;
+import com.lehman.knit.ParseCache;
+
+/**
+ * Checks that the parse cache doesn't return entries of an older parser
+ * version for unchanged files. Fails with an exception on a mismatch.
+ */
+public class TestParseCache extends Object {
+
+    /**
+     * Main entry point of the test application.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("knit-cache").toFile();
+        File cacheDir = new File(dir, "cache");
+        File src = new File(dir, "main.dwl");
+        Files.write(src.toPath(), ("%dw 2.0" + System.lineSeparator() + "import * from a::util" + System.lineSeparator()
+                + "var x = 1" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        String root = dir.getPath() + File.separator;
+        KnitParser parser = new KnitParser();
+
+        // The first run parses and stores the file, the second one hits.
+        ParseCache cache = new ParseCache(cacheDir);
+        cache.parseFile(parser, root, src.getPath(), "dwl");
+        cache.save();
+        cache = new ParseCache(cacheDir);
+        DataWeaveFile dwf = cache.parseFile(parser, root, src.getPath(), "dwl");
+        check(cache.getHits() == 1 && cache.getMisses() == 0, "unchanged file isn't a cache hit");
+        check(dwf.getImports().size() == 1, "imports of the cached file are lost");
+
+        // Replace the index and entry with ones written by an older parser version without imports.
+        DataWeaveFile stale = new DataWeaveFile();
+        stale.setImports(null);
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(cacheDir, "stale.ser")));
+        try {
+            out.writeObject(stale);
+        } finally {
+            out.close();
+        }
+        Properties props = new Properties();
+        props.setProperty(src.getAbsolutePath(), src.length() + ":" + src.lastModified() + ":" + (parser.isMemoryMapped() ? "m" : "r")
+                + (parser.isMemoryMapped() ? "" : "@" + parser.getCharset().name()) + ":stale");
+        writeIndex(new File(cacheDir, "index.properties"), props);
+
+        // The file is read again and found by its contents instead.
+        cache = new ParseCache(cacheDir);
+        dwf = cache.parseFile(parser, root, src.getPath(), "dwl");
+        check(dwf.getImports() != null && dwf.getImports().size() == 1, "older parser version index entry is used");
+
+        System.out.println("TestParseCache passed.");
+    }
+
+    private static void writeIndex(File file, Properties props) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            props.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void check(boolean ok, String msg) {
+        if (!ok) {
+            throw new IllegalStateException(msg);
+        }
+    }
+}